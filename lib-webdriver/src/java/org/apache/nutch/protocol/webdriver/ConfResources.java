@@ -0,0 +1,66 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Reads the rule files that the plugin looks up on the configuration
+ * classpath, e.g. in <code>NUTCH_HOME/conf</code>.
+ */
+public class ConfResources {
+
+  private ConfResources() {
+  }
+
+  /**
+   * @return the trimmed lines of the file, without blank lines and lines
+   *         starting with <code>#</code>, or null if there is no such file
+   */
+  public static List<String> readLines(Configuration conf, String file) {
+    Reader reader = conf.getConfResourceAsReader(file);
+    if (reader == null) {
+      return null;
+    }
+    List<String> lines = new ArrayList<String>();
+    BufferedReader in = new BufferedReader(reader);
+    try {
+      String line;
+      while ((line = in.readLine()) != null) {
+        line = line.trim();
+        if (line.length() > 0 && line.charAt(0) != '#') {
+          lines.add(line);
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Cannot read " + file, e);
+    } finally {
+      try {
+        in.close();
+      } catch (IOException e) {
+        // ignore
+      }
+    }
+    return lines;
+  }
+}
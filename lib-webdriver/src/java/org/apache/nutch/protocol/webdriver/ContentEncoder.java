@@ -0,0 +1,113 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Encodes captured documents as UTF-8 into a buffer kept by each render thread,
+ * so that the only array allocated per page is the content handed to Nutch,
+ * at its exact size. Content beyond the limit is cut at a character boundary.
+ */
+public class ContentEncoder {
+
+  public static final String CHARSET = "UTF-8";
+
+  private static final int INITIAL_BUFFER = 64 * 1024;
+  // larger buffers are released after use rather than kept by the thread
+  private static final int MAX_RETAINED_BUFFER = 4 * 1024 * 1024;
+
+  private static final ThreadLocal<ContentEncoder> ENCODERS =
+      new ThreadLocal<ContentEncoder>() {
+        @Override
+        protected ContentEncoder initialValue() {
+          return new ContentEncoder();
+        }
+      };
+
+  private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER);
+  private boolean truncated;
+
+  private ContentEncoder() {
+  }
+
+  /**
+   * @return the encoder of the calling thread
+   */
+  public static ContentEncoder get() {
+    return ENCODERS.get();
+  }
+
+  /**
+   * @param limit
+   *          maximum number of bytes, or a negative value for no limit
+   * @return the encoded text, at most <code>limit</code> bytes long
+   */
+  public byte[] encode(CharSequence text, int limit) {
+    CharBuffer in = CharBuffer.wrap(text);
+    int max = limit < 0 ? Integer.MAX_VALUE : limit;
+    ByteBuffer out = buffer;
+    out.clear();
+    if (out.capacity() > max) {
+      out.limit(max);
+    }
+    encoder.reset();
+    truncated = false;
+    while (true) {
+      CoderResult result = encoder.encode(in, out, true);
+      if (result.isUnderflow()) {
+        result = encoder.flush(out);
+      }
+      if (result.isUnderflow()) {
+        break;
+      }
+      if (out.limit() >= max) {
+        truncated = true;
+        break;
+      }
+      // UTF-8 needs at least one byte per remaining character
+      long needed = (long) out.position() + in.remaining();
+      int capacity = (int) Math.min(max,
+          Math.max(needed, 2L * out.capacity()));
+      ByteBuffer grown = ByteBuffer.allocate(capacity);
+      out.flip();
+      grown.put(out);
+      out = grown;
+    }
+    byte[] content = Arrays.copyOf(out.array(), out.position());
+    buffer = out.capacity() <= MAX_RETAINED_BUFFER ? out : ByteBuffer
+        .allocate(INITIAL_BUFFER);
+    return content;
+  }
+
+  /**
+   * @return whether the text of the last {@link #encode} call did not fit the
+   *         limit
+   */
+  public boolean isTruncated() {
+    return truncated;
+  }
+}
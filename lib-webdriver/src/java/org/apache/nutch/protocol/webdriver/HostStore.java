@@ -0,0 +1,362 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.ShutdownHookManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a value per host for the most recently used hosts, and carries the
+ * values over to the next crawl cycle in a directory on the Hadoop file
+ * system.
+ *
+ * Each JVM writes the values it knows of to its own part file in the
+ * directory, so that fetchers running side by side never overwrite each
+ * other. The parts found when the store is loaded are merged, keeping the
+ * most recently updated value of each host, written back as the part of this
+ * JVM, and then removed unless they were rewritten in the meantime.
+ */
+public class HostStore<V> {
+
+  public static final Logger LOG = LoggerFactory.getLogger(HostStore.class);
+
+  /**
+   * Writes and reads the values of a store.
+   */
+  public interface Codec<V> {
+
+    void write(V value, DataOutput out) throws IOException;
+
+    V read(DataInput in) throws IOException;
+  }
+
+  private static final int VERSION = 2;
+  private static final String PART = "part-";
+
+  private static class Record<V> {
+
+    private final V value;
+    private long updated;
+
+    Record(V value, long updated) {
+      this.value = value;
+      this.updated = updated;
+    }
+  }
+
+  private final Configuration conf;
+  private final Path dir;
+  private final Path part;
+  private final String name;
+  private final Codec<V> codec;
+  private final int maxHosts;
+  private final LinkedHashMap<String, Record<V>> entries;
+  // guarded by entries: whether a value was updated since the last write
+  private boolean changed;
+
+  /**
+   * @param name
+   *          what the values are, for the log and the threads of the store
+   */
+  public HostStore(Configuration conf, Path dir, String name, int maxHosts,
+      Codec<V> codec) {
+    this.conf = conf;
+    this.dir = dir;
+    this.name = name;
+    this.maxHosts = maxHosts;
+    this.codec = codec;
+    String jvm = ManagementFactory.getRuntimeMXBean().getName()
+        .replaceAll("[^A-Za-z0-9.-]", "-");
+    this.part = new Path(dir, PART + jvm + "-" + System.currentTimeMillis());
+    this.entries = new LinkedHashMap<String, Record<V>>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Record<V>> eldest) {
+        return size() > HostStore.this.maxHosts;
+      }
+    };
+  }
+
+  /**
+   * @return the value of the host, or null if there is none
+   */
+  public V get(String host) {
+    synchronized (entries) {
+      Record<V> entry = entries.get(host);
+      return entry == null ? null : entry.value;
+    }
+  }
+
+  /**
+   * Marks the value of the host as updated, to be written with the next
+   * {@link #save}.
+   *
+   * @return the value of the host, or null if there is none
+   */
+  public V touch(String host) {
+    synchronized (entries) {
+      Record<V> entry = entries.get(host);
+      if (entry == null) {
+        return null;
+      }
+      entry.updated = System.currentTimeMillis();
+      changed = true;
+      return entry.value;
+    }
+  }
+
+  /**
+   * Sets the value of the host, unless it has one already, and marks it as
+   * updated.
+   *
+   * @return the value the host has now
+   */
+  public V putIfAbsent(String host, V value) {
+    synchronized (entries) {
+      Record<V> entry = entries.get(host);
+      if (entry == null) {
+        entry = new Record<V>(value, 0);
+        entries.put(host, entry);
+      }
+      entry.updated = System.currentTimeMillis();
+      changed = true;
+      return entry.value;
+    }
+  }
+
+  public void put(String host, V value) {
+    synchronized (entries) {
+      entries.put(host, new Record<V>(value, System.currentTimeMillis()));
+      changed = true;
+    }
+  }
+
+  public int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  /**
+   * Writes the values every <code>interval</code> seconds, unless it is 0,
+   * and when the JVM exits, before the Hadoop file systems are closed.
+   */
+  public void schedule(long interval) {
+    Runnable save = new Runnable() {
+      @Override
+      public void run() {
+        save();
+      }
+    };
+    if (interval > 0) {
+      final String thread = "webdriver-" + name.replace(' ', '-');
+      ScheduledExecutorService saver = Executors
+          .newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+              Thread t = new Thread(r, thread);
+              t.setDaemon(true);
+              return t;
+            }
+          });
+      saver.scheduleWithFixedDelay(save, interval, interval, TimeUnit.SECONDS);
+    }
+    ShutdownHookManager.get().addShutdownHook(save,
+        FileSystem.SHUTDOWN_HOOK_PRIORITY + 1);
+  }
+
+  /**
+   * Merges the parts of the directory into the store, and replaces them by
+   * the part of this JVM.
+   */
+  public void load() {
+    Map<Path, Long> merged = new HashMap<Path, Long>();
+    Map<String, Record<V>> read = new HashMap<String, Record<V>>();
+    try {
+      FileSystem fs = dir.getFileSystem(conf);
+      if (!fs.exists(dir)) {
+        LOG.info("No {} at {}, starting from scratch", name, dir);
+        return;
+      }
+      if (fs.isFile(dir)) {
+        // a single file written by an earlier version of the plugin
+        readPart(fs, fs.getFileStatus(dir), read);
+        fs.delete(dir, false);
+      } else {
+        for (FileStatus status : fs.listStatus(dir)) {
+          if (!status.getPath().getName().startsWith(PART)
+              || status.getPath().getName().endsWith(".tmp")) {
+            continue;
+          }
+          try {
+            readPart(fs, status, read);
+            merged.put(status.getPath(), status.getModificationTime());
+          } catch (FileNotFoundException e) {
+            // being rewritten by its JVM, which still has the values
+          }
+        }
+      }
+    } catch (IOException e) {
+      LOG.warn("Failed to read " + name + " from " + dir, e);
+      return;
+    }
+    if (read.isEmpty()) {
+      LOG.info("No {} in {}, starting from scratch", name, dir);
+      return;
+    }
+    List<Map.Entry<String, Record<V>>> sorted =
+        new ArrayList<Map.Entry<String, Record<V>>>(read.entrySet());
+    Collections.sort(sorted, new Comparator<Map.Entry<String, Record<V>>>() {
+      @Override
+      public int compare(Map.Entry<String, Record<V>> a,
+          Map.Entry<String, Record<V>> b) {
+        return Long.compare(a.getValue().updated, b.getValue().updated);
+      }
+    });
+    synchronized (entries) {
+      // oldest first, so that the most recently updated hosts are kept
+      for (Map.Entry<String, Record<V>> entry : sorted) {
+        entries.put(entry.getKey(), entry.getValue());
+      }
+      changed = true;
+    }
+    LOG.info("Loaded {} of {} hosts from {} parts in {}", name, size(),
+        merged.size(), dir);
+    if (!save()) {
+      return;
+    }
+    try {
+      FileSystem fs = dir.getFileSystem(conf);
+      for (Map.Entry<Path, Long> entry : merged.entrySet()) {
+        try {
+          if (fs.getFileStatus(entry.getKey()).getModificationTime() == entry
+              .getValue()) {
+            fs.delete(entry.getKey(), false);
+          }
+        } catch (FileNotFoundException e) {
+          // being rewritten by its JVM
+        }
+      }
+    } catch (IOException e) {
+      LOG.warn("Failed to remove merged parts of " + name + " in " + dir, e);
+    }
+  }
+
+  /**
+   * Writes the values known to this JVM to its part, if any was updated since
+   * the last write.
+   *
+   * @return false if the part could not be written
+   */
+  public synchronized boolean save() {
+    List<String> hosts;
+    List<V> values;
+    long[] updated;
+    synchronized (entries) {
+      if (!changed) {
+        return true;
+      }
+      changed = false;
+      hosts = new ArrayList<String>(entries.size());
+      values = new ArrayList<V>(entries.size());
+      updated = new long[entries.size()];
+      for (Map.Entry<String, Record<V>> entry : entries.entrySet()) {
+        updated[hosts.size()] = entry.getValue().updated;
+        hosts.add(entry.getKey());
+        values.add(entry.getValue().value);
+      }
+    }
+    try {
+      FileSystem fs = dir.getFileSystem(conf);
+      Path tmp = new Path(part.toString() + ".tmp");
+      DataOutputStream out = fs.create(tmp, true);
+      try {
+        out.writeInt(VERSION);
+        out.writeInt(hosts.size());
+        for (int i = 0; i < hosts.size(); i++) {
+          out.writeUTF(hosts.get(i));
+          out.writeLong(updated[i]);
+          codec.write(values.get(i), out);
+        }
+      } finally {
+        out.close();
+      }
+      // a JVM loading the store meanwhile skips the part and keeps it
+      fs.delete(part, false);
+      if (!fs.rename(tmp, part)) {
+        throw new IOException("Cannot rename " + tmp + " to " + part);
+      }
+      LOG.info("Saved {} of {} hosts to {}", name, hosts.size(), part);
+      return true;
+    } catch (IOException e) {
+      synchronized (entries) {
+        changed = true;
+      }
+      LOG.warn("Failed to save " + name + " to " + part, e);
+      return false;
+    }
+  }
+
+  private void readPart(FileSystem fs, FileStatus status,
+      Map<String, Record<V>> read) throws IOException {
+    DataInputStream in = fs.open(status.getPath());
+    try {
+      int version = in.readInt();
+      if (version != 1 && version != VERSION) {
+        LOG.warn("Ignoring {} of version {} in {}", name, version,
+            status.getPath());
+        return;
+      }
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        String host = in.readUTF();
+        long updated = version == 1 ? status.getModificationTime()
+            : in.readLong();
+        V value = codec.read(in);
+        Record<V> known = read.get(host);
+        if (known == null || known.updated < updated) {
+          read.put(host, new Record<V>(value, updated));
+        }
+      }
+    } finally {
+      in.close();
+    }
+  }
+}
@@ -16,71 +16,174 @@
  */
 package org.apache.nutch.protocol.webdriver;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 import org.apache.hadoop.conf.Configuration;
-import org.apache.nutch.protocol.webdriver.driver.NutchDriverService;
-import org.apache.nutch.protocol.webdriver.driver.NutchFirefoxDriver;
-import org.openqa.selenium.By;
-import org.openqa.selenium.WebDriver;
-import org.openqa.selenium.firefox.FirefoxProfile;
-import org.openqa.selenium.remote.DesiredCapabilities;
-import org.openqa.selenium.remote.service.DriverService;
-import org.openqa.selenium.support.ui.WebDriverWait;
+import org.apache.nutch.protocol.webdriver.admission.AdmissionController;
+import org.apache.nutch.protocol.webdriver.cache.RenderCache;
+import org.apache.nutch.protocol.webdriver.driver.NutchFirefoxDriverFactory;
+import org.apache.nutch.protocol.webdriver.metrics.Phase;
+import org.apache.nutch.protocol.webdriver.metrics.RenderMetrics;
+import org.apache.nutch.protocol.webdriver.pool.WebDriverPool;
 
 /**
  * This class is used for extract content from given url using WebDriver. It
  * allows configure the marionette service port to request webdriver commands
- * via {@link org.openqa.selenium.remote.HttpCommandExecutor}
+ * via {@link org.openqa.selenium.remote.HttpCommandExecutor}. Pages are
+ * rendered by a {@link RenderEngine} on sessions borrowed from a
+ * {@link WebDriverPool} rather than started for each page. With
+ * <code>webdriver.admission.enabled</code>, a render only starts once an
+ * {@link AdmissionController} finds memory for it.
  * 
  * @author Kiyonari Harigae
  *
  */
 public class HttpWebClient {
 
-  public static String getHtmlPage(String url, Configuration conf) {
-    WebDriver driver = null;
+  // how much longer than the deadline a caller waits for the render to fail
+  // by itself, e.g. when a WebDriver command is in flight
+  private static final long DEADLINE_GRACE = 5000;
 
-    try {
-      FirefoxProfile profile = new FirefoxProfile();
-      String proxyHost = conf.get("http.proxy.host");
-      int proxyPort = conf.getInt("http.proxy.port", 8080);
-      if (proxyHost != null && proxyHost.length() > 0) {
-        profile.setPreference("network.proxy.type", 1);
-        profile.setPreference("network.proxy.http", proxyHost);
-        profile.setPreference("network.proxy.http_port", proxyPort);
+  private static WebDriverPool pool;
+  private static RenderEngine engine;
+  private static RenderCache cache;
+  private static AdmissionController admission;
+
+  /**
+   * Sets up the state shared by all fetcher threads of this JVM from the given
+   * configuration on first use.
+   */
+  private static synchronized void init(Configuration conf) {
+    if (pool != null) {
+      return;
+    }
+    final NutchFirefoxDriverFactory factory = new NutchFirefoxDriverFactory(
+        conf);
+    pool = new WebDriverPool(factory, conf);
+    engine = new RenderEngine(pool, new PageRenderer(conf), conf);
+    RenderMetrics.get().bind(pool, engine, conf);
+    if (conf.getBoolean("webdriver.cache.enabled", false)) {
+      cache = new RenderCache(conf);
+    }
+    if (conf.getBoolean("webdriver.admission.enabled", false)) {
+      admission = new AdmissionController(pool, conf);
+    }
+    final WebDriverPool toClose = pool;
+    final RenderEngine engineToClose = engine;
+    final AdmissionController admissionToClose = admission;
+    Runtime.getRuntime().addShutdownHook(new Thread("webdriver-pool-close") {
+      @Override
+      public void run() {
+        if (admissionToClose != null) {
+          admissionToClose.close();
+        }
+        engineToClose.close();
+        toClose.close();
+        factory.close();
+        RenderMetrics.get().close();
       }
+    });
+  }
 
-      DesiredCapabilities capabilities = DesiredCapabilities.firefox();
-      capabilities.setCapability("marionette", true);
-      capabilities.setCapability("firefox_profile", profile);
+  /**
+   * Returns the session pool shared by all fetcher threads of this JVM,
+   * creating it from the given configuration on first use.
+   */
+  public static WebDriverPool getPool(Configuration conf) {
+    init(conf);
+    return pool;
+  }
 
-      int driverServicePort = conf.getInt("webdriver.service.port", 4444);
-      DriverService ds = NutchDriverService
-          .createDriverService(driverServicePort);
-      driver = new NutchFirefoxDriver(ds, capabilities);
+  /**
+   * @return the cache of rendered pages, or null unless
+   *         <code>webdriver.cache.enabled</code> is set
+   */
+  public static RenderCache getCache(Configuration conf) {
+    init(conf);
+    return cache;
+  }
 
-      driver.get(url);
-      // Wait for the page to load, timeout after 3 seconds
-      new WebDriverWait(driver, 3);
+  /**
+   * @return the serialized document, encoded as UTF-8
+   */
+  public static byte[] getHtmlPage(String url, Configuration conf) {
+    return render(url, conf).getContent();
+  }
 
-      // Extract body
-      String innerHtml = 
-          driver.findElement(By.tagName("body")).getAttribute("innerHTML");
-      return innerHtml;
-      // I'm sure this catch statement is a code smell ; borrowing it from
-      // lib-htmlunit
-    } catch (Exception e) {
-      throw new RuntimeException(e);
+  /**
+   * Renders the given url and reports, along with the content, the status code
+   * and content type of the navigation, so that a caller does not need a
+   * separate HTTP request for them. Waits no longer than
+   * <code>webdriver.render.timeout</code>, plus a grace period for the render
+   * to notice its deadline; a render still running then is cancelled.
+   * 
+   * @throws RenderException
+   *           if the page could not be rendered, of the kind of the failure
+   */
+  public static RenderedPage render(String url, Configuration conf) {
+    init(conf);
+    if (admission == null) {
+      return await(url, submit(url, conf));
+    }
+    long start = System.nanoTime();
+    long reserved = admission.admit(url);
+    RenderMetrics.get().recordSince(Phase.ADMIT, start);
+    try {
+      return await(url, submit(url, conf));
     } finally {
-      if (driver != null)
-        try {
-          driver.quit();
-        } catch (Exception e) {
-          throw new RuntimeException(e);
-        }
+      admission.release(reserved);
+    }
+  }
+
+  private static RenderedPage await(String url,
+      CompletableFuture<RenderedPage> future) {
+    long timeout = engine.getRenderTimeout();
+    try {
+      if (timeout <= 0) {
+        return future.get();
+      }
+      return future.get(timeout + DEADLINE_GRACE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      future.cancel(false);
+      throw RenderException.of(e);
+    } catch (TimeoutException e) {
+      future.cancel(false);
+      throw new RenderException(RenderException.Kind.DEADLINE, url
+          + " not rendered within " + timeout + " ms");
+    } catch (ExecutionException e) {
+      throw RenderException.of(e.getCause());
     }
-  };
+  }
+
+  /**
+   * Queues the given url for rendering without waiting for the result.
+   * 
+   * @see RenderEngine#submit(String)
+   */
+  public static CompletableFuture<RenderedPage> submit(String url,
+      Configuration conf) {
+    init(conf);
+    return engine.submit(url);
+  }
+
+  /**
+   * Queues a batch of items whose pages of the given host are rendered in
+   * the tabs of one session.
+   * 
+   * @see RenderEngine#submitBatch(String, List, BatchHandler)
+   */
+  public static <T> CompletableFuture<Void> submitBatch(String host,
+      List<T> items, BatchHandler<T> handler, Configuration conf) {
+    init(conf);
+    return engine.submitBatch(host, items, handler);
+  }
 
-  public static String getHtmlPage(String url) {
+  public static byte[] getHtmlPage(String url) {
     return getHtmlPage(url, null);
   }
 }
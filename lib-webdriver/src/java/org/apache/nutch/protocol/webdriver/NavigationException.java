@@ -0,0 +1,35 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver;
+
+/**
+ * Thrown when the browser could not load a page, e.g. because the host is
+ * unreachable or the page took too long. The session that tried is still
+ * usable.
+ */
+public class NavigationException extends RenderException {
+
+  private static final long serialVersionUID = 1L;
+
+  public NavigationException(String message) {
+    super(Kind.UNREACHABLE, message);
+  }
+
+  public NavigationException(Kind kind, String message) {
+    super(kind, message);
+  }
+}
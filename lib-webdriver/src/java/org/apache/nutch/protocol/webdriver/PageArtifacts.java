@@ -0,0 +1,94 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What the extraction stage of {@link PageRenderer} collects from the live
+ * document in the same script that captures it: the outlinks as the browser
+ * resolved them, including targets of click handlers and of
+ * <code>history.pushState</code>, and the title, meta robots directives and
+ * canonical url.
+ */
+public class PageArtifacts {
+
+  private final List<String> outlinks;
+  private final String title;
+  private final String metaRobots;
+  private final String canonical;
+
+  public PageArtifacts(List<String> outlinks, String title, String metaRobots,
+      String canonical) {
+    this.outlinks = Collections.unmodifiableList(new ArrayList<String>(
+        outlinks));
+    this.title = title;
+    this.metaRobots = metaRobots;
+    this.canonical = canonical;
+  }
+
+  /**
+   * @return the absolute http and https urls the page links to, without
+   *         duplicates, in document order
+   */
+  public List<String> getOutlinks() {
+    return outlinks;
+  }
+
+  public String getTitle() {
+    return title;
+  }
+
+  /**
+   * @return the content of the robots meta tag, or an empty string
+   */
+  public String getMetaRobots() {
+    return metaRobots;
+  }
+
+  /**
+   * @return the canonical url declared by the page, or an empty string
+   */
+  public String getCanonical() {
+    return canonical;
+  }
+
+  public void write(DataOutput out) throws IOException {
+    out.writeInt(outlinks.size());
+    for (String outlink : outlinks) {
+      out.writeUTF(outlink);
+    }
+    out.writeUTF(title);
+    out.writeUTF(metaRobots);
+    out.writeUTF(canonical);
+  }
+
+  public static PageArtifacts read(DataInput in) throws IOException {
+    int count = in.readInt();
+    List<String> outlinks = new ArrayList<String>(count);
+    for (int i = 0; i < count; i++) {
+      outlinks.add(in.readUTF());
+    }
+    return new PageArtifacts(outlinks, in.readUTF(), in.readUTF(),
+        in.readUTF());
+  }
+}
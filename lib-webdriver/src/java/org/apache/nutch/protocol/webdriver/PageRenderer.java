@@ -0,0 +1,415 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.protocol.webdriver.adapt.HostProfiles;
+import org.apache.nutch.protocol.webdriver.metrics.Phase;
+import org.apache.nutch.protocol.webdriver.metrics.RenderMetrics;
+import org.apache.nutch.protocol.webdriver.pool.BrowserTab;
+import org.apache.nutch.protocol.webdriver.pool.TabCommand;
+import org.apache.nutch.protocol.webdriver.ready.PageReadiness;
+import org.apache.nutch.protocol.webdriver.state.HostStates;
+import org.apache.nutch.protocol.webdriver.trace.RenderTrace;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.support.ui.FluentWait;
+
+import com.google.common.base.Function;
+
+/**
+ * Renders one url in a tab of a pooled session: navigates, waits until the
+ * page is ready and captures the serialized document, including its doctype
+ * and head, as UTF-8 cut to <code>http.content.limit</code> bytes. When
+ * sessions have several tabs, navigation is started with a script so that the
+ * session is not blocked while the page loads and other tabs can be served in
+ * the meantime. With {@link HostProfiles}, the readiness wait is cut to what
+ * the host has been found to need, and recorded. With {@link HostStates}, a
+ * session is given the cookies and local storage captured for the host before
+ * its first page of the host, and the state of a host is captured after one
+ * of its pages has been rendered. Each step is checked against the
+ * {@link RenderDeadline} of the render, and every wait is cut to the time it
+ * leaves; a failure is reported as a {@link RenderException} of the step that
+ * failed.
+ */
+public class PageRenderer {
+
+  /**
+   * Reports the state of the navigation that produced the current document and
+   * serializes the document, cut to the given number of characters; if it is
+   * longer than the fourth argument, unless that is negative, only its length
+   * is returned, so that an oversized document never leaves the browser.
+   * <code>responseStatus</code> is only known to browsers implementing
+   * Navigation Timing Level 2 with response status (Firefox 109 and later).
+   * If the second argument is true, also collects the outlinks, up to the
+   * number given by the third argument unless it is negative, and the title,
+   * meta robots and canonical url. Outlinks are taken from anchors, from the
+   * urls in click handlers and <code>data-href</code> or
+   * <code>data-url</code> attributes, and from the urls passed to
+   * <code>history.pushState</code> since {@link #HISTORY_HOOK} was installed;
+   * fragments other than hashbangs are dropped. If the fifth argument is true,
+   * also computes the {@link RenderedPage#getFingerprint() fingerprint} of the
+   * document, so that its text never has to leave the browser.
+   */
+  private static final String CAPTURE_SCRIPT = "var nav = window.performance"
+      + " && performance.getEntriesByType"
+      + " ? performance.getEntriesByType('navigation')[0] : null;"
+      + "var html = document.doctype"
+      + " ? new XMLSerializer().serializeToString(document.doctype) + '\\n'"
+      + " : '';"
+      + "if (document.documentElement) {"
+      + "  html += document.documentElement.outerHTML;"
+      + "}"
+      + "var size = html.length;"
+      + "if (arguments[3] >= 0 && size > arguments[3]) {"
+      + "  html = null;"
+      + "} else if (arguments[0] >= 0 && size > arguments[0]) {"
+      + "  html = html.substring(0, arguments[0]);"
+      + "}"
+      + "var extracted = null;"
+      + "if (arguments[1] && html != null) {"
+      + "  var max = arguments[2], links = [], seen = {}, i, m, e;"
+      + "  var add = function(u) {"
+      + "    if (!u || (max >= 0 && links.length >= max)) return;"
+      + "    try { u = new URL(u, document.baseURI); } catch (x) { return; }"
+      + "    if (u.protocol != 'http:' && u.protocol != 'https:') return;"
+      + "    if (u.hash.indexOf('#!') != 0) u.hash = '';"
+      + "    if (!seen[u.href]) { seen[u.href] = true; links.push(u.href); }"
+      + "  };"
+      + "  e = document.querySelectorAll('a[href], area[href]');"
+      + "  for (i = 0; i < e.length; i++) add(e[i].getAttribute('href'));"
+      + "  var call = /(?:location(?:\\.href)?\\s*=|location\\.(?:assign|replace)"
+      + "\\(|window\\.open\\()\\s*['\"]([^'\"]+)['\"]/g;"
+      + "  e = document.querySelectorAll('[onclick], [data-href], [data-url]');"
+      + "  for (i = 0; i < e.length; i++) {"
+      + "    add(e[i].getAttribute('data-href'));"
+      + "    add(e[i].getAttribute('data-url'));"
+      + "    var click = e[i].getAttribute('onclick') || '';"
+      + "    while ((m = call.exec(click))) add(m[1]);"
+      + "  }"
+      + "  var pushed = document.__nutchPushed || [];"
+      + "  for (i = 0; i < pushed.length; i++) add(pushed[i]);"
+      + "  var robots = '';"
+      + "  e = document.getElementsByTagName('meta');"
+      + "  for (i = 0; i < e.length; i++) {"
+      + "    if ((e[i].getAttribute('name') || '').toLowerCase() == 'robots')"
+      + "      robots = e[i].getAttribute('content') || '';"
+      + "  }"
+      + "  var canonical = document.querySelector('link[rel~=\"canonical\"]');"
+      + "  extracted = [links, document.title || '', robots,"
+      + "    canonical ? canonical.href : ''];"
+      + "}"
+      + "var fingerprint = null;"
+      + "if (arguments[4] && html != null) {"
+      + "  var weights = Object.create(null), features = 0, words, k, b, j, h;"
+      + "  var count = function(f) {"
+      + "    if (!weights[f]) { weights[f] = 0; features++; }"
+      + "    weights[f]++;"
+      + "  };"
+      + "  words = (document.body ? document.body.innerText || '' : '')"
+      + "    .toLowerCase().replace(/\\d+/g, '0').split(/\\s+/);"
+      + "  for (k = 0; k < words.length; k++) if (words[k]) count(words[k]);"
+      + "  var anchors = document.querySelectorAll('a[href]');"
+      + "  for (k = 0; k < anchors.length; k++) {"
+      + "    try {"
+      + "      var u = new URL(anchors[k].getAttribute('href'),"
+      + "        document.baseURI);"
+      + "      count('\\u0001' + u.host + u.pathname);"
+      + "    } catch (x) {}"
+      + "  }"
+      + "  var mix = function(h) {"
+      + "    h = Math.imul(h ^ (h >>> 16), 0x85ebca6b);"
+      + "    h = Math.imul(h ^ (h >>> 13), 0xc2b2ae35);"
+      + "    return h ^ (h >>> 16);"
+      + "  };"
+      + "  var sums = [];"
+      + "  for (b = 0; b < 64; b++) sums[b] = 0;"
+      + "  for (var f in weights) {"
+      + "    h = 0x811c9dc5;"
+      + "    for (j = 0; j < f.length; j++) {"
+      + "      h = Math.imul(h ^ f.charCodeAt(j), 0x01000193);"
+      + "    }"
+      + "    var halves = [mix(h ^ 0x5bd1e995), mix(h ^ 0x1b873593)];"
+      + "    for (b = 0; b < 64; b++) {"
+      + "      sums[b] += (halves[b >> 5] >>> (b & 31)) & 1 ? weights[f]"
+      + "        : -weights[f];"
+      + "    }"
+      + "  }"
+      + "  var hex = function(from) {"
+      + "    for (var x = 0, b = 0; b < 32; b++) {"
+      + "      if (sums[from + b] > 0) x |= 1 << b;"
+      + "    }"
+      + "    return ('0000000' + (x >>> 0).toString(16)).slice(-8);"
+      + "  };"
+      + "  if (features > 0) fingerprint = hex(32) + hex(0);"
+      + "}"
+      + "return [document.documentURI, location.href,"
+      + " nav && nav.responseStatus ? nav.responseStatus : 0,"
+      + " document.contentType || '', html, extracted, size, fingerprint];";
+
+  /**
+   * Records the urls the page passes to <code>history.pushState</code> and
+   * <code>replaceState</code>, resolved when they are pushed, for the
+   * extraction in {@link #CAPTURE_SCRIPT}.
+   */
+  private static final String HISTORY_HOOK = "var d = document;"
+      + "if (!d.__nutchPushed) {"
+      + " d.__nutchPushed = [];"
+      + " ['pushState', 'replaceState'].forEach(function(name) {"
+      + "  var original = history[name];"
+      + "  history[name] = function(state, title, url) {"
+      + "   if (url != null) {"
+      + "    try { d.__nutchPushed.push(new URL(url, d.baseURI).href); }"
+      + "    catch (x) {}"
+      + "   }"
+      + "   return original.apply(this, arguments); }; });"
+      + "}";
+
+  // the marker is set on the document, which unlike the window is never
+  // reused by the next page
+  private static final String NAVIGATE_SCRIPT =
+      "document.__nutchLeaving = true; window.location.href = arguments[0];";
+  private static final String LOADED_SCRIPT =
+      "return !document.__nutchLeaving && document.readyState == 'complete';";
+
+  private final PageReadiness readiness;
+  private final HostProfiles profiles;
+  private final HostStates states;
+  private final boolean scriptNavigation;
+  private final long pageLoadTimeout;
+  private final long pollInterval;
+  private final int maxContent;
+  private final boolean extract;
+  private final int maxOutlinks;
+  private final int maxPage;
+  private final boolean fingerprint;
+
+  public PageRenderer(Configuration conf) {
+    this.readiness = new PageReadiness(conf);
+    this.profiles = HostProfiles.get(conf);
+    this.states = HostStates.get(conf);
+    this.scriptNavigation = conf.getInt("webdriver.session.tabs", 1) > 1;
+    this.pageLoadTimeout = conf.getLong("webdriver.page.load.timeout", 30000);
+    this.pollInterval = conf.getLong("webdriver.ready.poll.interval", 100);
+    this.maxContent = conf.getInt("http.content.limit", 64 * 1024);
+    this.extract = conf.getBoolean("webdriver.extract.enabled", false);
+    this.maxOutlinks = conf.getInt("webdriver.extract.max.outlinks",
+        conf.getInt("db.max.outlinks.per.page", 100));
+    // pages cut to a lower content limit are never too large
+    int limit = conf.getInt("webdriver.render.max.page", 16 * 1024 * 1024);
+    this.maxPage = limit > 0 && (maxContent < 0 || maxContent > limit) ? limit
+        : -1;
+    this.fingerprint = conf.getBoolean("webdriver.fingerprint.enabled", false);
+  }
+
+  public RenderedPage render(BrowserTab tab, String url)
+      throws MalformedURLException {
+    return render(tab, url, new RenderDeadline(0, null));
+  }
+
+  /**
+   * @throws NavigationException
+   *           if the browser could not load the page in time
+   * @throws RenderException
+   *           if the render ran out of time or was cancelled
+   * @throws org.openqa.selenium.WebDriverException
+   *           if the session failed
+   */
+  public RenderedPage render(BrowserTab tab, final String url,
+      RenderDeadline deadline) throws MalformedURLException {
+    RenderTrace.begin(url);
+    try {
+      return renderTraced(tab, url, deadline);
+    } finally {
+      RenderTrace.end();
+    }
+  }
+
+  private RenderedPage renderTraced(BrowserTab tab, final String url,
+      RenderDeadline deadline) throws MalformedURLException {
+    URL target = new URL(url);
+    String host = target.getHost();
+    RenderMetrics metrics = RenderMetrics.get();
+    long start = System.nanoTime();
+    if (states != null && !tab.getSession().hasHost(host)
+        && states.isKept(host)) {
+      states.restore(tab, target, deadline);
+    }
+    navigate(tab, url, deadline);
+    tab.getSession().addHost(host);
+    if (extract) {
+      executeScript(tab, HISTORY_HOOK);
+    }
+    metrics.recordSince(Phase.NAVIGATE, start);
+    deadline.check(url);
+    // Wait until scripts have finished building the page
+    start = System.nanoTime();
+    long cap = profiles != null ? profiles.getWaitCap(host) : -1;
+    long remaining = deadline.remaining();
+    if (remaining != Long.MAX_VALUE) {
+      cap = cap < 0 ? remaining : Math.min(cap, remaining);
+    }
+    long waited = readiness.await(tab, host, cap);
+    if (profiles != null) {
+      profiles.recordReady(host, waited);
+    }
+    metrics.recordSince(Phase.READY, start);
+    deadline.check(url);
+
+    start = System.nanoTime();
+    RenderedPage page;
+    try {
+      page = capture(tab, url);
+    } catch (TimeoutException e) {
+      throw new RenderException(RenderException.Kind.SCRIPT_TIMEOUT,
+          "Timed out capturing " + url, e);
+    }
+    metrics.recordSince(Phase.CAPTURE, start);
+
+    // only when the page was not redirected away, or the state would be that
+    // of another site
+    if (states != null && host.equalsIgnoreCase(hostOf(page.getFinalUrl()))
+        && states.claim(host)) {
+      states.capture(tab, host, deadline);
+    }
+    return page;
+  }
+
+  private static String hostOf(String url) {
+    try {
+      return new URL(url).getHost();
+    } catch (MalformedURLException e) {
+      return null;
+    }
+  }
+
+  private RenderedPage capture(BrowserTab tab, final String url) {
+    return tab.execute(new TabCommand<RenderedPage>() {
+      @Override
+      public RenderedPage run(WebDriver driver) {
+        // a UTF-8 encoded character takes at least one byte, so cutting the
+        // text at maxContent characters keeps enough to fill maxContent bytes
+        List<?> navigation = (List<?>) ((JavascriptExecutor) driver)
+            .executeScript(CAPTURE_SCRIPT, maxContent, extract, maxOutlinks,
+                maxPage, fingerprint);
+        String documentUri = String.valueOf(navigation.get(0));
+        if (documentUri.startsWith("about:neterror")
+            || documentUri.startsWith("about:certerror")) {
+          // the browser shows its own error page instead of the document
+          throw new NavigationException("Failed to load " + url + ": "
+              + documentUri);
+        }
+        if (navigation.get(4) == null) {
+          throw new RenderException(RenderException.Kind.OVERSIZED, url
+              + " has a document of " + navigation.get(6)
+              + " characters, more than " + maxPage);
+        }
+        // 0 when the browser does not expose the status
+        int status = ((Number) navigation.get(2)).intValue();
+
+        ContentEncoder encoder = ContentEncoder.get();
+        byte[] content = encoder.encode((String) navigation.get(4),
+            maxContent);
+        return new RenderedPage(url, String.valueOf(navigation.get(1)),
+            Math.max(status, 0), String.valueOf(navigation.get(3)),
+            ContentEncoder.CHARSET, content, encoder.isTruncated(),
+            navigation.size() > 5 ? artifacts((List<?>) navigation.get(5))
+                : null, navigation.size() > 7 && navigation.get(7) != null
+                ? String.valueOf(navigation.get(7)) : null);
+      }
+    });
+  }
+
+  private static PageArtifacts artifacts(List<?> extracted) {
+    if (extracted == null) {
+      return null;
+    }
+    List<String> outlinks = new ArrayList<String>();
+    for (Object outlink : (List<?>) extracted.get(0)) {
+      outlinks.add(String.valueOf(outlink));
+    }
+    return new PageArtifacts(outlinks, String.valueOf(extracted.get(1)),
+        String.valueOf(extracted.get(2)), String.valueOf(extracted.get(3)));
+  }
+
+  private static Object executeScript(BrowserTab tab, final String script) {
+    return tab.execute(new TabCommand<Object>() {
+      @Override
+      public Object run(WebDriver driver) {
+        return ((JavascriptExecutor) driver).executeScript(script);
+      }
+    });
+  }
+
+  private void navigate(BrowserTab tab, final String url,
+      final RenderDeadline deadline) {
+    if (!scriptNavigation) {
+      try {
+        tab.execute(new TabCommand<Void>() {
+          @Override
+          public Void run(WebDriver driver) {
+            // bounded by the page load timeout of the session
+            driver.get(url);
+            return null;
+          }
+        });
+      } catch (TimeoutException e) {
+        throw new NavigationException(RenderException.Kind.NAVIGATION_TIMEOUT,
+            "Timed out loading " + url);
+      }
+      return;
+    }
+
+    tab.execute(new TabCommand<Object>() {
+      @Override
+      public Object run(WebDriver driver) {
+        return ((JavascriptExecutor) driver).executeScript(NAVIGATE_SCRIPT,
+            url);
+      }
+    });
+    try {
+      new FluentWait<BrowserTab>(tab)
+          .withTimeout(deadline.cap(pageLoadTimeout), TimeUnit.MILLISECONDS)
+          .pollingEvery(pollInterval, TimeUnit.MILLISECONDS)
+          .until(new Function<BrowserTab, Boolean>() {
+            @Override
+            public Boolean apply(BrowserTab t) {
+              deadline.check(url);
+              Object loaded = t.execute(new TabCommand<Object>() {
+                @Override
+                public Object run(WebDriver driver) {
+                  return ((JavascriptExecutor) driver)
+                      .executeScript(LOADED_SCRIPT);
+                }
+              });
+              return Boolean.TRUE.equals(loaded) ? Boolean.TRUE : null;
+            }
+          });
+    } catch (TimeoutException e) {
+      deadline.check(url);
+      throw new NavigationException(RenderException.Kind.NAVIGATION_TIMEOUT,
+          "Timed out loading " + url + " after " + pageLoadTimeout + " ms");
+    }
+  }
+}
@@ -0,0 +1,77 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The point in time by which a render has to be finished, checked between the
+ * steps of the render and used to cut the waits within them. A render whose
+ * caller cancelled its future is aborted at the next check as well.
+ */
+public class RenderDeadline {
+
+  private final long end;
+  private final Future<?> owner;
+
+  /**
+   * @param millis
+   *          milliseconds from now, 0 or less for no deadline
+   * @param owner
+   *          future of the render, may be null
+   */
+  public RenderDeadline(long millis, Future<?> owner) {
+    this.end = millis > 0 ? System.nanoTime()
+        + TimeUnit.MILLISECONDS.toNanos(millis) : 0;
+    this.owner = owner;
+  }
+
+  /**
+   * @return the milliseconds left, never negative, or Long.MAX_VALUE if there
+   *         is no deadline
+   */
+  public long remaining() {
+    if (end == 0) {
+      return Long.MAX_VALUE;
+    }
+    return Math.max(0,
+        TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime()));
+  }
+
+  /**
+   * @return the given timeout, cut to the time left
+   */
+  public long cap(long millis) {
+    return Math.min(millis, remaining());
+  }
+
+  /**
+   * @throws RenderException
+   *           if the render was cancelled or is past its deadline
+   */
+  public void check(String url) {
+    if (owner != null && owner.isCancelled()) {
+      throw new RenderException(RenderException.Kind.CANCELLED, "Render of "
+          + url + " cancelled");
+    }
+    if (end != 0 && end - System.nanoTime() <= 0) {
+      throw new RenderException(RenderException.Kind.DEADLINE, "Render of "
+          + url + " not finished before its deadline");
+    }
+  }
+}
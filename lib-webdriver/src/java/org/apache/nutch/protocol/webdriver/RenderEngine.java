@@ -0,0 +1,549 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.protocol.webdriver.adapt.HostProfiles;
+import org.apache.nutch.protocol.webdriver.metrics.Phase;
+import org.apache.nutch.protocol.webdriver.metrics.RenderMetrics;
+import org.apache.nutch.protocol.webdriver.pool.BrowserTab;
+import org.apache.nutch.protocol.webdriver.pool.PooledDriver;
+import org.apache.nutch.protocol.webdriver.pool.WebDriverPool;
+import org.apache.nutch.protocol.webdriver.schedule.HostScheduler;
+import org.openqa.selenium.TimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Renders urls asynchronously on a small set of worker threads, so that the
+ * number of urls in flight is no longer tied to the number of threads that
+ * block on a browser. Callers {@link #submit} a url and get a future for the
+ * rendered page. Submitted urls wait in a bounded {@link HostScheduler}, which
+ * hands them to the workers host by host within per-host limits; when it is
+ * full, submitters block, and fail once the wait exceeds a timeout.
+ *
+ * A batch of urls of one host can also be {@link #submitBatch submitted} at
+ * once. It takes a single place in the queue and, once a worker picks it up,
+ * is worked through by up to <code>webdriver.batch.tabs</code> lanes, each
+ * rendering back to back in a tab of the same session, so that its pages find
+ * the cookies, connections and cached scripts of the previous ones. The
+ * limits of the host still apply: every lane holds a render slot of the host,
+ * so no more lanes run than the host has slots left, and every item takes a
+ * rate token before it is handled.
+ *
+ * When {@link HostProfiles} are enabled, the render failures of each host are
+ * recorded there, and hosts found to be slow or failing are queued for a
+ * separate set of <code>webdriver.adaptive.slow.workers</code> workers, so
+ * that they hold at most that many tabs and do not starve the other hosts.
+ *
+ * The engine is configured with the following properties:
+ * <ul>
+ * <li><code>webdriver.engine.workers</code> number of render workers
+ * (defaults to the number of tabs the session pool can render at once)</li>
+ * <li><code>webdriver.engine.queue.size</code> urls waiting for a worker
+ * (default 100)</li>
+ * <li><code>webdriver.engine.submit.timeout</code> milliseconds a submitter
+ * waits for room in a full queue (default 30000)</li>
+ * <li><code>webdriver.render.timeout</code> milliseconds a url may take from
+ * its submission until it is rendered (default 120000, 0 for no limit); a
+ * render past this deadline, or whose future is cancelled, is aborted at its
+ * next step and its session is not reused</li>
+ * <li><code>webdriver.batch.tabs</code> tabs a batch renders in at the same
+ * time (defaults to <code>webdriver.session.tabs</code>)</li>
+ * <li><code>webdriver.adaptive.slow.workers</code> render workers for slow
+ * hosts (default 1, 0 to render them with the other workers)</li>
+ * </ul>
+ */
+public class RenderEngine {
+
+  public static final Logger LOG = LoggerFactory.getLogger(RenderEngine.class);
+
+  private static class RenderTask {
+    final String url;
+    final String host;
+    final CompletableFuture<RenderedPage> future = new CompletableFuture<RenderedPage>();
+    final Batch<?> batch;
+    final RenderDeadline deadline;
+    final long queuedNanos = System.nanoTime();
+
+    RenderTask(String url, String host, long timeout) {
+      this.url = url;
+      this.host = host;
+      this.batch = null;
+      this.deadline = new RenderDeadline(timeout, future);
+    }
+
+    RenderTask(String host, Batch<?> batch) {
+      this.url = null;
+      this.host = host;
+      this.batch = batch;
+      this.deadline = null;
+    }
+
+    boolean isDone() {
+      return batch != null ? batch.done.isDone() : future.isDone();
+    }
+
+    void fail(Throwable cause) {
+      if (batch != null) {
+        batch.done.completeExceptionally(cause);
+      } else {
+        future.completeExceptionally(cause);
+      }
+    }
+  }
+
+  private static class Batch<T> {
+    final List<T> items;
+    final BatchHandler<T> handler;
+    final AtomicInteger next = new AtomicInteger();
+    final CompletableFuture<Void> done = new CompletableFuture<Void>();
+    // the session the lanes of the batch share, guarded by the batch
+    PooledDriver session;
+
+    Batch(List<T> items, BatchHandler<T> handler) {
+      this.items = new ArrayList<T>(items);
+      this.handler = handler;
+    }
+
+    /**
+     * @return the index of the next item to handle, or -1 once there are no
+     *         more items
+     */
+    int claim() {
+      int i = next.getAndIncrement();
+      return i < items.size() ? i : -1;
+    }
+
+    void handle(int i) {
+      try {
+        handler.handle(items.get(i));
+      } catch (Throwable t) {
+        LOG.warn("Failed to handle " + items.get(i) + " of a batch", t);
+      }
+    }
+  }
+
+  /**
+   * Works through the items of a batch with one tab, borrowed when the first
+   * page has to be rendered.
+   */
+  private class Lane {
+    final String host;
+    final Batch<?> batch;
+    // the scheduler the batch was taken from, which holds the host's limits
+    final HostScheduler<RenderTask> queue;
+    BrowserTab tab;
+
+    Lane(String host, Batch<?> batch, HostScheduler<RenderTask> queue) {
+      this.host = host;
+      this.batch = batch;
+      this.queue = queue;
+    }
+
+    void run() {
+      LANE.set(this);
+      try {
+        int i;
+        while ((i = batch.claim()) >= 0) {
+          // the first item was given the token the batch was taken with
+          if (i > 0) {
+            awaitToken();
+          }
+          batch.handle(i);
+        }
+      } finally {
+        LANE.remove();
+        if (tab != null) {
+          pool.release(tab);
+        }
+      }
+    }
+
+    RenderedPage render(String url) throws Exception {
+      if (tab == null) {
+        long start = System.nanoTime();
+        tab = borrowTab();
+        RenderMetrics.get().recordSince(Phase.ACQUIRE, start);
+      }
+      boolean healthy = false;
+      try {
+        RenderedPage page = renderer.render(tab, url, new RenderDeadline(
+            renderTimeout, null));
+        healthy = true;
+        return page;
+      } catch (NavigationException e) {
+        healthy = true;
+        throw e;
+      } finally {
+        if (!healthy) {
+          pool.invalidate(tab);
+          tab = null;
+        }
+      }
+    }
+
+    private void awaitToken() {
+      try {
+        queue.awaitToken(host);
+      } catch (InterruptedException e) {
+        // the engine is closing, the item fails when it is rendered
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    private BrowserTab borrowTab() {
+      synchronized (batch) {
+        BrowserTab borrowed = batch.session != null ? pool
+            .borrowInSession(batch.session) : null;
+        if (borrowed == null) {
+          // the first tab of the batch, or its session broke or is full:
+          // later lanes follow the session this tab belongs to
+          borrowed = acquire(host);
+          batch.session = borrowed.getSession();
+        }
+        return borrowed;
+      }
+    }
+  }
+
+  // the lane of a batch the current thread works for
+  private static final ThreadLocal<Lane> LANE = new ThreadLocal<Lane>();
+
+  private final WebDriverPool pool;
+  private final PageRenderer renderer;
+  private final HostScheduler<RenderTask> scheduler;
+  // hosts the profiles found to be slow, null without profiles
+  private final HostScheduler<RenderTask> slowScheduler;
+  private final HostProfiles profiles;
+  private final long submitTimeout;
+  private final int batchTabs;
+  private final long renderTimeout;
+  private final Thread[] workers;
+  private final ExecutorService lanes;
+  private volatile boolean closed;
+
+  public RenderEngine(WebDriverPool pool, PageRenderer renderer,
+      Configuration conf) {
+    this.pool = pool;
+    this.renderer = renderer;
+    this.scheduler = new HostScheduler<RenderTask>(
+        conf.getInt("webdriver.engine.queue.size", 100), conf);
+    this.submitTimeout = conf.getLong("webdriver.engine.submit.timeout", 30000);
+    this.profiles = HostProfiles.get(conf);
+    int slowCount = profiles == null ? 0 : conf.getInt(
+        "webdriver.adaptive.slow.workers", 1);
+    this.slowScheduler = slowCount > 0 ? new HostScheduler<RenderTask>(
+        conf.getInt("webdriver.engine.queue.size", 100), conf) : null;
+    this.renderTimeout = conf.getLong("webdriver.render.timeout", 120000);
+    this.batchTabs = Math.max(1,
+        conf.getInt("webdriver.batch.tabs", pool.getMaxTabs()));
+    this.lanes = Executors.newCachedThreadPool(new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "webdriver-batch-lane-"
+            + count.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      }
+    });
+
+    int count = Math.max(1,
+        conf.getInt("webdriver.engine.workers", pool.getCapacity()));
+    workers = new Thread[count + slowCount];
+    for (int i = 0; i < workers.length; i++) {
+      final HostScheduler<RenderTask> from = i < count ? scheduler
+          : slowScheduler;
+      workers[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          work(from);
+        }
+      }, i < count ? "webdriver-render-" + i : "webdriver-render-slow-"
+          + (i - count));
+      workers[i].setDaemon(true);
+      workers[i].start();
+    }
+  }
+
+  /**
+   * Queues a url for rendering.
+   *
+   * @return a future completed with the rendered page, or exceptionally with
+   *         the failure; a full queue fails it with a
+   *         {@link RejectedExecutionException}. Cancelling the future before a
+   *         worker picks the url up skips it, cancelling it later aborts the
+   *         render.
+   */
+  public CompletableFuture<RenderedPage> submit(String url) {
+    String host;
+    try {
+      host = new URL(url).getHost();
+    } catch (MalformedURLException e) {
+      CompletableFuture<RenderedPage> failed =
+          new CompletableFuture<RenderedPage>();
+      failed.completeExceptionally(e);
+      return failed;
+    }
+    Lane lane = LANE.get();
+    if (lane != null && lane.host.equals(host)) {
+      return renderInLane(lane, url);
+    }
+    RenderTask task = new RenderTask(url, host, renderTimeout);
+    enqueue(task);
+    return task.future;
+  }
+
+  /**
+   * Queues the items of a batch. Its handler is called once for each item,
+   * from one of the lanes of the batch; pages of the given host that it
+   * renders share the session of the batch.
+   *
+   * @return a future completed once every item has been handled, or
+   *         exceptionally if the batch could not be queued
+   */
+  public <T> CompletableFuture<Void> submitBatch(String host, List<T> items,
+      BatchHandler<T> handler) {
+    Batch<T> batch = new Batch<T>(items, handler);
+    enqueue(new RenderTask(host, batch));
+    return batch.done;
+  }
+
+  private void enqueue(RenderTask task) {
+    HostScheduler<RenderTask> queue = slowScheduler != null
+        && profiles.isSlow(task.host) ? slowScheduler : scheduler;
+    try {
+      if (closed) {
+        throw new RejectedExecutionException("Render engine is closed");
+      }
+      if (!queue.offer(task.host, task, submitTimeout,
+          TimeUnit.MILLISECONDS)) {
+        throw new RejectedExecutionException(closed ? "Render engine is closed"
+            : "Render queue full, " + (task.url != null ? task.url : "batch")
+                + " not accepted within " + submitTimeout + " ms");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      task.fail(e);
+    } catch (RejectedExecutionException e) {
+      RenderMetrics.get().recordError(e);
+      task.fail(e);
+    }
+  }
+
+  private CompletableFuture<RenderedPage> renderInLane(Lane lane, String url) {
+    CompletableFuture<RenderedPage> future =
+        new CompletableFuture<RenderedPage>();
+    RenderMetrics metrics = RenderMetrics.get();
+    try {
+      RenderedPage page = lane.render(url);
+      metrics.recordPage(page.getContent().length, page.isTruncated());
+      future.complete(page);
+    } catch (Throwable t) {
+      metrics.recordError(t);
+      if (profiles != null) {
+        profiles.recordError(lane.host);
+      }
+      future.completeExceptionally(t);
+    }
+    return future;
+  }
+
+  /**
+   * @return the milliseconds a url may take from its submission until it is
+   *         rendered, 0 or less for no limit
+   */
+  public long getRenderTimeout() {
+    return renderTimeout;
+  }
+
+  /**
+   * @return the number of urls waiting for a worker
+   */
+  public int getQueueSize() {
+    return scheduler.size()
+        + (slowScheduler != null ? slowScheduler.size() : 0);
+  }
+
+  /**
+   * Stops the workers. Urls still queued fail with a
+   * {@link RejectedExecutionException}.
+   */
+  public void close() {
+    closed = true;
+    List<RenderTask> queued = new ArrayList<RenderTask>(scheduler.close());
+    if (slowScheduler != null) {
+      queued.addAll(slowScheduler.close());
+    }
+    for (RenderTask task : queued) {
+      task.fail(new RejectedExecutionException("Render engine is closed"));
+    }
+    for (Thread worker : workers) {
+      worker.interrupt();
+    }
+    lanes.shutdown();
+  }
+
+  private void work(HostScheduler<RenderTask> queue) {
+    while (!closed) {
+      RenderTask task;
+      try {
+        task = queue.take();
+      } catch (InterruptedException e) {
+        return;
+      }
+      if (task == null) {
+        return;
+      }
+      if (task.isDone()) {
+        // cancelled while queued
+        queue.done(task.host);
+        continue;
+      }
+      RenderMetrics metrics = RenderMetrics.get();
+      metrics.recordSince(Phase.QUEUE, task.queuedNanos);
+      if (task.batch != null) {
+        try {
+          runBatch(queue, task.host, task.batch);
+        } finally {
+          queue.done(task.host);
+        }
+        continue;
+      }
+      try {
+        RenderedPage page = render(task.url, task.host, task.deadline);
+        metrics.recordPage(page.getContent().length, page.isTruncated());
+        task.future.complete(page);
+      } catch (Throwable t) {
+        metrics.recordError(t);
+        if (profiles != null) {
+          profiles.recordError(task.host);
+        }
+        task.future.completeExceptionally(t);
+      } finally {
+        queue.done(task.host);
+      }
+    }
+  }
+
+  /**
+   * Runs the first lane of a batch in the calling worker, on the render slot
+   * the batch was taken with, and the others on lane threads, each on a
+   * further slot of the host, and waits for all of them.
+   */
+  private void runBatch(final HostScheduler<RenderTask> queue,
+      final String host, Batch<?> batch) {
+    int count = Math.min(batchTabs, batch.items.size());
+    int extra = 0;
+    while (extra < count - 1 && queue.tryStart(host)) {
+      extra++;
+    }
+    final CountDownLatch finished = new CountDownLatch(extra);
+    for (int i = 0; i < extra; i++) {
+      final Lane lane = new Lane(host, batch, queue);
+      try {
+        lanes.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              lane.run();
+            } finally {
+              queue.done(host);
+              finished.countDown();
+            }
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        queue.done(host);
+        finished.countDown();
+      }
+    }
+    new Lane(host, batch, queue).run();
+    boolean interrupted = false;
+    while (true) {
+      try {
+        finished.await();
+        break;
+      } catch (InterruptedException e) {
+        // the lanes end once the pool is closed
+        interrupted = true;
+      }
+    }
+    batch.done.complete(null);
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * @throws RenderException
+   *           of kind ACQUIRE_TIMEOUT if no session could be borrowed in time
+   */
+  private BrowserTab acquire(String host) {
+    try {
+      return pool.borrowForHost(host);
+    } catch (TimeoutException e) {
+      throw new RenderException(RenderException.Kind.ACQUIRE_TIMEOUT,
+          e.getMessage(), e);
+    }
+  }
+
+  private RenderedPage render(String url, String host, RenderDeadline deadline)
+      throws Exception {
+    // it may have expired while queued
+    deadline.check(url);
+    long start = System.nanoTime();
+    BrowserTab tab = acquire(host);
+    RenderMetrics.get().recordSince(Phase.ACQUIRE, start);
+    boolean healthy = false;
+    try {
+      RenderedPage page;
+      try {
+        page = renderer.render(tab, url, deadline);
+      } catch (NavigationException e) {
+        healthy = true;
+        throw e;
+      }
+      healthy = true;
+      return page;
+    } finally {
+      // a session which failed or was abandoned part way may be left on an
+      // unknown page or be unresponsive, so it is not handed to the next
+      // render
+      if (healthy) {
+        pool.release(tab);
+      } else {
+        pool.invalidate(tab);
+      }
+    }
+  }
+}
@@ -0,0 +1,87 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import org.openqa.selenium.WebDriverException;
+
+/**
+ * A render that failed, with the {@link Kind} of failure, so that a caller can
+ * tell a page which could not be loaded from a browser which could not be had
+ * in time or a render which ran out of time.
+ */
+public class RenderException extends WebDriverException {
+
+  private static final long serialVersionUID = 1L;
+
+  public enum Kind {
+    /** the render queue was full or the engine closed */
+    REJECTED,
+    /** no browser session could be borrowed in time */
+    ACQUIRE_TIMEOUT,
+    /** the browser could not load the page */
+    UNREACHABLE,
+    /** the page did not load in time */
+    NAVIGATION_TIMEOUT,
+    /** a script run on the page did not return in time */
+    SCRIPT_TIMEOUT,
+    /** the render did not finish before its deadline */
+    DEADLINE,
+    /** the caller gave up on the render */
+    CANCELLED,
+    /** the browser session failed or stopped responding */
+    SESSION,
+    /** there was no memory for the render in time */
+    OVERLOADED,
+    /** the document was larger than the render may capture */
+    OVERSIZED
+  }
+
+  private final Kind kind;
+
+  public RenderException(Kind kind, String message) {
+    super(message);
+    this.kind = kind;
+  }
+
+  public RenderException(Kind kind, String message, Throwable cause) {
+    super(message, cause);
+    this.kind = kind;
+  }
+
+  public Kind getKind() {
+    return kind;
+  }
+
+  /**
+   * @return the given failure of a render, as a RenderException
+   */
+  public static RenderException of(Throwable cause) {
+    if (cause instanceof RenderException) {
+      return (RenderException) cause;
+    }
+    if (cause instanceof RejectedExecutionException) {
+      return new RenderException(Kind.REJECTED, cause.getMessage(), cause);
+    }
+    if (cause instanceof InterruptedException) {
+      return new RenderException(Kind.CANCELLED, "Interrupted", cause);
+    }
+    return new RenderException(Kind.SESSION, String.valueOf(cause
+        .getMessage()), cause);
+  }
+}
@@ -0,0 +1,129 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver;
+
+/**
+ * The outcome of rendering a url in the browser: the extracted content and
+ * what the browser reports about the navigation that produced it.
+ */
+public class RenderedPage {
+
+  private final String url;
+  private final String finalUrl;
+  private final int status;
+  private final String contentType;
+  private final String charset;
+  private final byte[] content;
+  private final boolean truncated;
+  private final PageArtifacts artifacts;
+  private final String fingerprint;
+
+  public RenderedPage(String url, String finalUrl, int status,
+      String contentType, String charset, byte[] content, boolean truncated) {
+    this(url, finalUrl, status, contentType, charset, content, truncated, null);
+  }
+
+  public RenderedPage(String url, String finalUrl, int status,
+      String contentType, String charset, byte[] content, boolean truncated,
+      PageArtifacts artifacts) {
+    this(url, finalUrl, status, contentType, charset, content, truncated,
+        artifacts, null);
+  }
+
+  public RenderedPage(String url, String finalUrl, int status,
+      String contentType, String charset, byte[] content, boolean truncated,
+      PageArtifacts artifacts, String fingerprint) {
+    this.url = url;
+    this.finalUrl = finalUrl;
+    this.status = status;
+    this.contentType = contentType;
+    this.charset = charset;
+    this.content = content;
+    this.truncated = truncated;
+    this.artifacts = artifacts;
+    this.fingerprint = fingerprint;
+  }
+
+  /**
+   * @return the url that was requested
+   */
+  public String getUrl() {
+    return url;
+  }
+
+  /**
+   * @return the url of the document after the browser followed redirects
+   */
+  public String getFinalUrl() {
+    return finalUrl;
+  }
+
+  /**
+   * @return the HTTP status of the main document as reported by the
+   *         Navigation Timing API, or 0 if the browser does not expose it
+   */
+  public int getStatus() {
+    return status;
+  }
+
+  /**
+   * @return the MIME type of the document, e.g. <code>text/html</code>
+   */
+  public String getContentType() {
+    return contentType;
+  }
+
+  /**
+   * @return the encoding of the content, which is not necessarily the one the
+   *         server sent the document in
+   */
+  public String getCharset() {
+    return charset;
+  }
+
+  public byte[] getContent() {
+    return content;
+  }
+
+  /**
+   * @return whether the document was longer than the content limit
+   */
+  public boolean isTruncated() {
+    return truncated;
+  }
+
+  /**
+   * @return what was extracted from the document, or null unless
+   *         <code>webdriver.extract.enabled</code> is set
+   */
+  public PageArtifacts getArtifacts() {
+    return artifacts;
+  }
+
+  /**
+   * @return a 64 bit SimHash of the visible text and of the link targets of
+   *         the document, as 16 hexadecimal digits, or null unless
+   *         <code>webdriver.fingerprint.enabled</code> is set or if the
+   *         document has neither. Numbers are reduced to a single digit and
+   *         query strings are left out, so that timestamps, counters and
+   *         tokens do not change it, and documents that differ only slightly
+   *         have fingerprints that differ in few bits.
+   */
+  public String getFingerprint() {
+    return fingerprint;
+  }
+}
@@ -0,0 +1,158 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.adapt;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * What has been learned about rendering the pages of one host: how often the
+ * browser changed the page compared to the body returned by the server, how
+ * long the page took to become ready, and how often rendering failed. Counts
+ * are halved once they exceed the window of the {@link HostProfiles}, so that
+ * a host which changes its site is relearned.
+ */
+public class HostProfile {
+
+  // number of recent readiness waits kept for the quantiles
+  private static final int WAITS = 64;
+
+  private long compared;
+  private long changed;
+  private long renders;
+  private long errors;
+  private final long[] waits = new long[WAITS];
+  private int waitCount;
+  private int nextWait;
+
+  synchronized void recordComparison(boolean changed, long window) {
+    compared++;
+    if (changed) {
+      this.changed++;
+    }
+    if (compared > window) {
+      compared /= 2;
+      this.changed /= 2;
+    }
+  }
+
+  synchronized void recordReady(long millis, long window) {
+    waits[nextWait] = millis;
+    nextWait = (nextWait + 1) % WAITS;
+    waitCount = Math.min(waitCount + 1, WAITS);
+    renders++;
+    decay(window);
+  }
+
+  synchronized void recordError(long window) {
+    errors++;
+    decay(window);
+  }
+
+  private void decay(long window) {
+    if (renders + errors > window) {
+      renders /= 2;
+      errors /= 2;
+    }
+  }
+
+  /**
+   * @return the number of rendered pages compared to the server body
+   */
+  public synchronized long getCompared() {
+    return compared;
+  }
+
+  /**
+   * @return the share of compared pages the browser changed meaningfully,
+   *         between 0 and 1
+   */
+  public synchronized double getChangeRate() {
+    return compared == 0 ? 0 : (double) changed / compared;
+  }
+
+  /**
+   * @return the number of renders with a known readiness wait
+   */
+  public synchronized int getWaitCount() {
+    return waitCount;
+  }
+
+  /**
+   * @return the given quantile of the recent readiness waits, in milliseconds
+   */
+  public synchronized long getWaitQuantile(double quantile) {
+    if (waitCount == 0) {
+      return 0;
+    }
+    long[] sorted = Arrays.copyOf(waits, waitCount);
+    Arrays.sort(sorted);
+    int index = (int) Math.ceil(quantile * waitCount) - 1;
+    return sorted[Math.max(0, Math.min(waitCount - 1, index))];
+  }
+
+  /**
+   * @return the share of renders that failed, between 0 and 1
+   */
+  public synchronized double getErrorRate() {
+    long total = renders + errors;
+    return total == 0 ? 0 : (double) errors / total;
+  }
+
+  public synchronized long getAttempts() {
+    return renders + errors;
+  }
+
+  synchronized void write(DataOutput out) throws IOException {
+    out.writeLong(compared);
+    out.writeLong(changed);
+    out.writeLong(renders);
+    out.writeLong(errors);
+    out.writeInt(waitCount);
+    // oldest first, so that reading them back keeps the order
+    for (int i = 0; i < waitCount; i++) {
+      out.writeLong(waits[(nextWait - waitCount + i + WAITS) % WAITS]);
+    }
+  }
+
+  static HostProfile read(DataInput in) throws IOException {
+    HostProfile profile = new HostProfile();
+    profile.compared = in.readLong();
+    profile.changed = in.readLong();
+    profile.renders = in.readLong();
+    profile.errors = in.readLong();
+    int count = in.readInt();
+    for (int i = 0; i < count; i++) {
+      long wait = in.readLong();
+      if (i >= count - WAITS) {
+        profile.waits[profile.nextWait] = wait;
+        profile.nextWait = (profile.nextWait + 1) % WAITS;
+        profile.waitCount = Math.min(profile.waitCount + 1, WAITS);
+      }
+    }
+    return profile;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "compared=" + compared + ", changed=" + changed + ", renders="
+        + renders + ", errors=" + errors + ", p95Wait="
+        + getWaitQuantile(0.95);
+  }
+}
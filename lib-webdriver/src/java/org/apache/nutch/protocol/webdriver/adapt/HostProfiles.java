@@ -0,0 +1,238 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.adapt;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.nutch.protocol.webdriver.HostStore;
+import org.apache.nutch.protocol.webdriver.route.JavaScriptHeuristic;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Learns per host from past fetches whether the browser is worth its cost,
+ * and adjusts how the pages of the host are treated:
+ * <ul>
+ * <li>a host whose rendered pages hardly ever differ from the body returned by
+ * the server is no longer rendered</li>
+ * <li>the readiness wait of a host is cut to a multiple of the recent
+ * quantile of its waits</li>
+ * <li>a host whose pages are slow to become ready, or often fail, is
+ * rendered by the separate slow host workers of the
+ * {@link org.apache.nutch.protocol.webdriver.RenderEngine}</li>
+ * </ul>
+ * A small share of the pages is still treated as if nothing had been learned,
+ * so that a host which changes its site is noticed. The profiles are kept in
+ * the directory <code>webdriver.adaptive.stats.path</code> on the Hadoop file
+ * system, read when the first fetcher thread starts and written back
+ * periodically and when the JVM exits, so that they carry over to the next
+ * crawl cycle. Only the profiles of the
+ * <code>webdriver.adaptive.max.hosts</code> most recently fetched hosts are
+ * kept.
+ *
+ * @see HostStore
+ */
+public class HostProfiles {
+
+  public static final Logger LOG = LoggerFactory.getLogger(HostProfiles.class);
+
+  private static final HostStore.Codec<HostProfile> CODEC =
+      new HostStore.Codec<HostProfile>() {
+        @Override
+        public void write(HostProfile profile, DataOutput out)
+            throws IOException {
+          profile.write(out);
+        }
+
+        @Override
+        public HostProfile read(DataInput in) throws IOException {
+          return HostProfile.read(in);
+        }
+      };
+
+  private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+  private static HostProfiles instance;
+
+  private final HostStore<HostProfile> profiles;
+  private final long window;
+  private final int minSamples;
+  private final double probeRate;
+  private final double changeRate;
+  private final double changeRatio;
+  private final int changeMinText;
+  private final double waitQuantile;
+  private final double waitMargin;
+  private final long minWait;
+  private final long slowWait;
+  private final double slowErrorRate;
+
+  HostProfiles(Configuration conf) {
+    this.profiles = new HostStore<HostProfile>(conf, new Path(conf.get(
+        "webdriver.adaptive.stats.path", "webdriver-host-stats")),
+        "host profiles", conf.getInt("webdriver.adaptive.max.hosts", 10000),
+        CODEC);
+    this.window = conf.getLong("webdriver.adaptive.window", 500);
+    this.minSamples = conf.getInt("webdriver.adaptive.min.samples", 20);
+    this.probeRate = conf.getFloat("webdriver.adaptive.probe.rate", 0.05f);
+    this.changeRate = conf.getFloat("webdriver.adaptive.change.rate", 0.1f);
+    this.changeRatio = conf.getFloat("webdriver.adaptive.change.ratio", 0.1f);
+    this.changeMinText = conf.getInt("webdriver.adaptive.change.min.text",
+        200);
+    this.waitQuantile = conf.getFloat("webdriver.adaptive.wait.quantile",
+        0.95f);
+    this.waitMargin = conf.getFloat("webdriver.adaptive.wait.margin", 1.5f);
+    this.minWait = conf.getLong("webdriver.adaptive.wait.min", 200);
+    this.slowWait = conf.getLong("webdriver.adaptive.slow.wait", 5000);
+    this.slowErrorRate = conf.getFloat("webdriver.adaptive.slow.error.rate",
+        0.3f);
+  }
+
+  /**
+   * Returns the profiles shared by all fetcher threads of this JVM, reading
+   * them on first use.
+   *
+   * @return null unless <code>webdriver.adaptive.enabled</code> is set
+   */
+  public static synchronized HostProfiles get(Configuration conf) {
+    if (instance == null && conf != null
+        && conf.getBoolean("webdriver.adaptive.enabled", false)) {
+      instance = new HostProfiles(conf);
+      instance.profiles.load();
+      instance.profiles.schedule(conf.getLong(
+          "webdriver.adaptive.save.interval", 300));
+    }
+    return instance;
+  }
+
+  /**
+   * @return the profile of the host, or null if nothing is known about it
+   */
+  public HostProfile getProfile(String host) {
+    return profiles.get(host);
+  }
+
+  private HostProfile update(String host) {
+    HostProfile profile = profiles.touch(host);
+    if (profile == null) {
+      profile = profiles.putIfAbsent(host, new HostProfile());
+    }
+    return profile;
+  }
+
+  private boolean probe() {
+    return ThreadLocalRandom.current().nextDouble() < probeRate;
+  }
+
+  /**
+   * @return true if the pages of the host have been found not to need the
+   *         browser
+   */
+  public boolean shouldSkipRender(String host) {
+    HostProfile profile = profiles.get(host);
+    if (profile == null || profile.getCompared() < minSamples
+        || profile.getChangeRate() >= changeRate) {
+      return false;
+    }
+    return !probe();
+  }
+
+  /**
+   * @return the number of milliseconds the readiness conditions of a page of
+   *         the host are waited for at most, or -1 to wait as configured
+   */
+  public long getWaitCap(String host) {
+    HostProfile profile = profiles.get(host);
+    if (profile == null || profile.getWaitCount() < minSamples || probe()) {
+      return -1;
+    }
+    return Math.max(minWait,
+        (long) (profile.getWaitQuantile(waitQuantile) * waitMargin));
+  }
+
+  /**
+   * @return true if the pages of the host are slow to become ready or often
+   *         fail to render
+   */
+  public boolean isSlow(String host) {
+    HostProfile profile = profiles.get(host);
+    if (profile == null || profile.getAttempts() < minSamples) {
+      return false;
+    }
+    return profile.getWaitQuantile(waitQuantile) >= slowWait
+        || profile.getErrorRate() >= slowErrorRate;
+  }
+
+  /**
+   * Records whether the browser changed the page meaningfully: whether the
+   * visible text or the number of links of the rendered document differ by
+   * more than <code>webdriver.adaptive.change.ratio</code> from the body
+   * returned by the server, ignoring text differences below
+   * <code>webdriver.adaptive.change.min.text</code> characters.
+   */
+  public void recordComparison(String host, byte[] body, byte[] rendered) {
+    if (body == null || rendered == null) {
+      return;
+    }
+    // only markup and counts matter here, so a single byte charset will do
+    String raw = new String(body, LATIN1).toLowerCase(Locale.ROOT);
+    String dom = new String(rendered, LATIN1).toLowerCase(Locale.ROOT);
+    int rawText = JavaScriptHeuristic.visibleText(raw);
+    int domText = JavaScriptHeuristic.visibleText(dom);
+    int rawLinks = countLinks(raw);
+    int domLinks = countLinks(dom);
+    boolean changed = Math.abs(domText - rawText) > Math.max(changeMinText,
+        changeRatio * rawText)
+        || Math.abs(domLinks - rawLinks) > changeRatio * Math.max(1, rawLinks);
+    update(host).recordComparison(changed, window);
+  }
+
+  public void recordReady(String host, long millis) {
+    update(host).recordReady(millis, window);
+  }
+
+  public void recordError(String host) {
+    update(host).recordError(window);
+  }
+
+  private static int countLinks(String html) {
+    int count = 0;
+    int i = html.indexOf("<a");
+    while (i >= 0) {
+      if (i + 2 < html.length()
+          && Character.isWhitespace(html.charAt(i + 2))) {
+        count++;
+      }
+      i = html.indexOf("<a", i + 2);
+    }
+    return count;
+  }
+
+  /**
+   * Writes the profiles known to this JVM.
+   */
+  public void save() {
+    profiles.save();
+  }
+}
@@ -0,0 +1,270 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.admission;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.protocol.webdriver.RenderException;
+import org.apache.nutch.protocol.webdriver.driver.DriverProcessManager;
+import org.apache.nutch.protocol.webdriver.pool.WebDriverPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Admits renders while the memory they need is available, so that a fetcher
+ * with many threads neither runs out of heap nor pushes the machine into
+ * swap. Three budgets are checked before a render starts:
+ * <ul>
+ * <li>the resident memory of the browsers started by this JVM, read from
+ * <code>/proc</code>; browsers of remote endpoints are not counted</li>
+ * <li>the share of the heap still in use after the last garbage
+ * collection</li>
+ * <li>the bytes reserved by the renders in flight, each reserving what a page
+ * of <code>http.content.limit</code> bytes takes while it is captured</li>
+ * </ul>
+ * A render which does not fit waits until enough renders have finished, or
+ * fails with a {@link RenderException} of kind <code>OVERLOADED</code>. One
+ * render is always admitted, so that the fetcher keeps making progress. While
+ * the browsers are over their budget, the sessions of the pool which have no
+ * tab in use are closed to give their memory back.
+ *
+ * The controller is configured with the following properties:
+ * <ul>
+ * <li><code>webdriver.admission.max.rss</code> megabytes of resident memory of
+ * the browsers, 0 for no limit (default 0)</li>
+ * <li><code>webdriver.admission.max.heap</code> share of the maximum heap in
+ * use after garbage collection, 0 for no limit (default 0.85)</li>
+ * <li><code>webdriver.admission.max.inflight</code> megabytes reserved by the
+ * renders in flight, 0 for no limit (defaults to a quarter of the maximum
+ * heap)</li>
+ * <li><code>webdriver.admission.page.bytes</code> bytes reserved by a render
+ * (defaults to three times <code>http.content.limit</code>, or 1 MB per copy
+ * when the content is not limited)</li>
+ * <li><code>webdriver.admission.timeout</code> milliseconds a render waits to
+ * be admitted, 0 to wait as long as it takes (default 30000)</li>
+ * <li><code>webdriver.admission.interval</code> milliseconds between samples of
+ * the memory in use (default 1000)</li>
+ * </ul>
+ */
+public class AdmissionController {
+
+  public static final Logger LOG = LoggerFactory
+      .getLogger(AdmissionController.class);
+
+  // a captured page is held as the string received from the driver, which
+  // takes two bytes per character, and as its encoded bytes
+  private static final int COPIES = 3;
+  private static final long UNLIMITED_PAGE = 1024 * 1024;
+
+  private final WebDriverPool pool;
+  private final long maxRss;
+  private final double maxHeap;
+  private final long maxInFlight;
+  private final long pageBytes;
+  private final long timeout;
+  private final long interval;
+  private final List<MemoryPoolMXBean> heapPools =
+      new ArrayList<MemoryPoolMXBean>();
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition released = lock.newCondition();
+  // guarded by the lock
+  private int renders;
+  private long inFlight;
+
+  private volatile long browserRss = -1;
+  private volatile double heapUsage;
+  private volatile boolean pressure;
+
+  private final ScheduledExecutorService sampler;
+
+  public AdmissionController(WebDriverPool pool, Configuration conf) {
+    this.pool = pool;
+    this.maxRss = conf.getLong("webdriver.admission.max.rss", 0) * 1024 * 1024;
+    this.maxHeap = conf.getFloat("webdriver.admission.max.heap", 0.85f);
+    long maxMemory = Runtime.getRuntime().maxMemory();
+    this.maxInFlight = conf.getLong("webdriver.admission.max.inflight",
+        maxMemory == Long.MAX_VALUE ? 0 : (maxMemory >> 20) / 4) * 1024 * 1024;
+    int maxContent = conf.getInt("http.content.limit", 64 * 1024);
+    this.pageBytes = conf.getLong("webdriver.admission.page.bytes", COPIES
+        * (maxContent >= 0 ? maxContent : UNLIMITED_PAGE));
+    this.timeout = conf.getLong("webdriver.admission.timeout", 30000);
+    this.interval = Math.max(10,
+        conf.getLong("webdriver.admission.interval", 1000));
+    for (MemoryPoolMXBean heapPool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (heapPool.getType() == MemoryType.HEAP
+          && heapPool.isCollectionUsageThresholdSupported()) {
+        heapPools.add(heapPool);
+      }
+    }
+
+    sample();
+    sampler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "webdriver-admission");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    sampler.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          sample();
+        } catch (RuntimeException e) {
+          LOG.warn("Failed to sample memory use", e);
+        }
+      }
+    }, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Waits until the render of the given url fits the budgets, and reserves
+   * the memory it needs, to be given back with {@link #release}.
+   *
+   * @return the number of bytes reserved
+   * @throws RenderException
+   *           of kind OVERLOADED if the render was not admitted in time, or
+   *           CANCELLED if the thread was interrupted
+   */
+  public long admit(String url) {
+    long deadline = System.nanoTime()
+        + TimeUnit.MILLISECONDS.toNanos(timeout);
+    lock.lock();
+    try {
+      while (renders > 0 && (pressure
+          || (maxInFlight > 0 && inFlight + pageBytes > maxInFlight))) {
+        long wait = TimeUnit.MILLISECONDS.toNanos(interval);
+        if (timeout > 0) {
+          long remaining = deadline - System.nanoTime();
+          if (remaining <= 0) {
+            throw new RenderException(RenderException.Kind.OVERLOADED,
+                "No memory to render " + url + " within " + timeout
+                    + " ms: " + describe());
+          }
+          wait = Math.min(wait, remaining);
+        }
+        // the pressure is sampled, not signalled, so wake up to recheck it
+        released.awaitNanos(wait);
+      }
+      renders++;
+      inFlight += pageBytes;
+      return pageBytes;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw RenderException.of(e);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Gives back the memory reserved by a render once its page has been handed
+   * to the caller.
+   */
+  public void release(long reserved) {
+    lock.lock();
+    try {
+      renders--;
+      inFlight -= reserved;
+      released.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the resident memory of the browsers when last sampled, in bytes,
+   *         or -1 if it is not known
+   */
+  public long getBrowserRss() {
+    return browserRss;
+  }
+
+  /**
+   * @return the share of the maximum heap in use after the last garbage
+   *         collection, when last sampled
+   */
+  public double getHeapUsage() {
+    return heapUsage;
+  }
+
+  public void close() {
+    sampler.shutdownNow();
+  }
+
+  private void sample() {
+    long rss = maxRss > 0 ? DriverProcessManager.getBrowserRss() : -1;
+    double heap = 0;
+    for (MemoryPoolMXBean heapPool : heapPools) {
+      MemoryUsage usage = heapPool.getCollectionUsage();
+      if (usage != null && usage.getMax() > 0) {
+        heap = Math.max(heap, (double) usage.getUsed() / usage.getMax());
+      }
+    }
+    browserRss = rss;
+    heapUsage = heap;
+
+    boolean rssPressure = maxRss > 0 && rss > maxRss;
+    boolean heapPressure = maxHeap > 0 && heap > maxHeap;
+    boolean underPressure = rssPressure || heapPressure;
+    if (underPressure != pressure) {
+      if (underPressure) {
+        LOG.info("Throttling renders: {}", describe());
+      } else {
+        LOG.info("Memory pressure is gone: {}", describe());
+      }
+    }
+    pressure = underPressure;
+    if (rssPressure) {
+      int closed = pool.retireIdle();
+      if (closed > 0) {
+        LOG.info("Closed {} idle sessions to free browser memory", closed);
+      }
+    }
+    if (!underPressure) {
+      lock.lock();
+      try {
+        released.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  private String describe() {
+    return "browsers " + (browserRss >= 0 ? (browserRss >> 20) + " MB" : "?")
+        + (maxRss > 0 ? " of " + (maxRss >> 20) + " MB" : "") + ", heap "
+        + Math.round(heapUsage * 100) + "%"
+        + (maxHeap > 0 ? " of " + Math.round(maxHeap * 100) + "%" : "")
+        + ", in flight " + (inFlight >> 20) + " MB"
+        + (maxInFlight > 0 ? " of " + (maxInFlight >> 20) + " MB" : "");
+  }
+}
@@ -0,0 +1,276 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.block;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.protocol.webdriver.ConfResources;
+import org.apache.nutch.protocol.webdriver.ScriptUtils;
+import org.openqa.selenium.firefox.FirefoxProfile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides which resources the browser does not load while rendering. Images,
+ * fonts and media are switched off with Firefox preferences; requests to
+ * blocked domains or matching blocked url patterns are sent by a proxy
+ * auto-config script to a {@link BlockingSink}, which refuses and counts them.
+ *
+ * Since preferences are fixed when a session starts, a page host with an
+ * override is rendered in sessions of their own, identified by the key
+ * returned from {@link #getProfileKey(String)}.
+ *
+ * The policy is configured with the following properties:
+ * <ul>
+ * <li><code>webdriver.block.images</code>, <code>webdriver.block.fonts</code>,
+ * <code>webdriver.block.media</code> (default false)</li>
+ * <li><code>webdriver.block.domains.file</code> domains whose requests are
+ * blocked, including their subdomains, one per line (default
+ * webdriver-block-domains.txt)</li>
+ * <li><code>webdriver.block.urls.file</code> JavaScript regular expressions
+ * matched against request urls, one per line (default
+ * webdriver-block-urls.txt)</li>
+ * <li><code>webdriver.block.overrides.file</code> lines of
+ * <code>host category...</code> naming what is not blocked on pages of that
+ * host, out of images, fonts, media, domains and urls (default
+ * webdriver-block-overrides.txt)</li>
+ * <li><code>webdriver.block.avg.bytes</code> assumed size of a blocked request
+ * (default 20000)</li>
+ * </ul>
+ */
+public class BlockingPolicy {
+
+  public static final Logger LOG = LoggerFactory
+      .getLogger(BlockingPolicy.class);
+
+  public static final String IMAGES = "images";
+  public static final String FONTS = "fonts";
+  public static final String MEDIA = "media";
+  public static final String DOMAINS = "domains";
+  public static final String URLS = "urls";
+
+  private static final List<String> CATEGORIES = Arrays.asList(IMAGES, FONTS,
+      MEDIA, DOMAINS, URLS);
+  private static final String ALLOW = "allow:";
+
+  private final Set<String> blocked = new TreeSet<String>();
+  private final List<String> domains;
+  private final List<String> urlPatterns;
+  private final Map<String, String> profileKeys = new HashMap<String, String>();
+  private final String upstream;
+  private final BlockingSink sink;
+
+  public BlockingPolicy(Configuration conf) {
+    if (conf.getBoolean("webdriver.block.images", false)) {
+      blocked.add(IMAGES);
+    }
+    if (conf.getBoolean("webdriver.block.fonts", false)) {
+      blocked.add(FONTS);
+    }
+    if (conf.getBoolean("webdriver.block.media", false)) {
+      blocked.add(MEDIA);
+    }
+
+    domains = readList(conf, conf.get("webdriver.block.domains.file",
+        "webdriver-block-domains.txt"));
+    for (int i = 0; i < domains.size(); i++) {
+      String domain = domains.get(i).toLowerCase(Locale.ROOT);
+      domains.set(i, domain.startsWith(".") ? domain.substring(1) : domain);
+    }
+    if (!domains.isEmpty()) {
+      blocked.add(DOMAINS);
+    }
+    urlPatterns = readList(conf, conf.get("webdriver.block.urls.file",
+        "webdriver-block-urls.txt"));
+    for (String pattern : urlPatterns) {
+      // fail early on patterns Java can not parse either
+      Pattern.compile(pattern);
+    }
+    if (!urlPatterns.isEmpty()) {
+      blocked.add(URLS);
+    }
+
+    String overridesFile = conf.get("webdriver.block.overrides.file",
+        "webdriver-block-overrides.txt");
+    List<String> overrides = readList(conf, overridesFile);
+    for (String line : overrides) {
+      String[] parts = line.split("\\s+");
+      Set<String> allowed = new TreeSet<String>();
+      for (int i = 1; i < parts.length; i++) {
+        if (!CATEGORIES.contains(parts[i])) {
+          throw new IllegalArgumentException("Unknown category in "
+              + overridesFile + ": " + line);
+        }
+        if (blocked.contains(parts[i])) {
+          allowed.add(parts[i]);
+        }
+      }
+      if (!allowed.isEmpty()) {
+        StringBuilder key = new StringBuilder(ALLOW);
+        for (String category : allowed) {
+          if (key.length() > ALLOW.length()) {
+            key.append(',');
+          }
+          key.append(category);
+        }
+        profileKeys.put(parts[0].toLowerCase(Locale.ROOT), key.toString());
+      }
+    }
+
+    String proxyHost = conf.get("http.proxy.host");
+    if (proxyHost != null && proxyHost.length() > 0) {
+      upstream = "PROXY " + proxyHost + ":"
+          + conf.getInt("http.proxy.port", 8080);
+    } else {
+      upstream = "DIRECT";
+    }
+
+    if (blocked.contains(DOMAINS) || blocked.contains(URLS)) {
+      try {
+        sink = new BlockingSink(conf.getLong("webdriver.block.avg.bytes",
+            20000));
+      } catch (IOException e) {
+        throw new RuntimeException("Cannot open the blocking sink", e);
+      }
+    } else {
+      sink = null;
+    }
+    if (!blocked.isEmpty()) {
+      LOG.info("Blocking {} while rendering, {} host overrides", blocked,
+          profileKeys.size());
+    }
+  }
+
+  /**
+   * @return the key of the session profile pages of the host are rendered
+   *         with, the default profile unless the host has an override
+   */
+  public String getProfileKey(String host) {
+    String key = host == null ? null : profileKeys.get(host
+        .toLowerCase(Locale.ROOT));
+    return key == null ? "" : key;
+  }
+
+  /**
+   * @return the keys of the profiles hosts with overrides are rendered with
+   */
+  public Collection<String> getProfileKeys() {
+    return new TreeSet<String>(profileKeys.values());
+  }
+
+  /**
+   * Sets the preferences that block what the profile key does not allow.
+   * Must be applied after any proxy preferences, as blocking by domain or url
+   * replaces them with a proxy auto-config script.
+   */
+  public void apply(FirefoxProfile profile, String profileKey) {
+    Set<String> active = new TreeSet<String>(blocked);
+    if (profileKey.startsWith(ALLOW)) {
+      active.removeAll(Arrays.asList(profileKey.substring(ALLOW.length())
+          .split(",")));
+    }
+    if (active.contains(IMAGES)) {
+      profile.setPreference("permissions.default.image", 2);
+    }
+    if (active.contains(FONTS)) {
+      profile.setPreference("gfx.downloadable_fonts.enabled", false);
+      profile.setPreference("browser.display.use_document_fonts", 0);
+    }
+    if (active.contains(MEDIA)) {
+      profile.setPreference("media.autoplay.default", 5);
+      profile.setPreference("media.autoplay.enabled", false);
+      profile.setPreference("media.preload.default", 0);
+      profile.setPreference("media.preload.auto", 0);
+    }
+    boolean byDomain = active.contains(DOMAINS);
+    boolean byUrl = active.contains(URLS);
+    if (byDomain || byUrl) {
+      String pac = proxyAutoConfig(byDomain ? domains
+          : Collections.<String> emptyList(), byUrl ? urlPatterns
+          : Collections.<String> emptyList());
+      profile.setPreference("network.proxy.type", 2);
+      profile.setPreference("network.proxy.autoconfig_url",
+          "data:application/x-ns-proxy-autoconfig;base64,"
+              + Base64.getEncoder().encodeToString(
+                  pac.getBytes(StandardCharsets.UTF_8)));
+    }
+  }
+
+  /**
+   * @return the sink counting blocked requests, or null if no domains or url
+   *         patterns are blocked
+   */
+  public BlockingSink getSink() {
+    return sink;
+  }
+
+  public void close() {
+    if (sink != null) {
+      LOG.info("Blocked {} requests, about {} bytes saved",
+          sink.getBlockedRequests(), sink.getEstimatedBytesSaved());
+      sink.close();
+    }
+  }
+
+  private String proxyAutoConfig(List<String> domains, List<String> patterns) {
+    StringBuilder pac = new StringBuilder("var blocked = {");
+    for (int i = 0; i < domains.size(); i++) {
+      pac.append(i == 0 ? "" : ",").append(ScriptUtils.quote(domains.get(i)))
+          .append(":1");
+    }
+    pac.append("};\nvar patterns = [");
+    for (int i = 0; i < patterns.size(); i++) {
+      pac.append(i == 0 ? "" : ",").append("new RegExp(")
+          .append(ScriptUtils.quote(patterns.get(i))).append(")");
+    }
+    pac.append("];\n")
+        .append("function FindProxyForURL(url, host) {\n")
+        .append("  var sink = 'PROXY 127.0.0.1:").append(sink.getPort())
+        .append("';\n")
+        .append("  for (var h = host.toLowerCase(); ; ) {\n")
+        .append("    if (blocked.hasOwnProperty(h)) return sink;\n")
+        .append("    var dot = h.indexOf('.');\n")
+        .append("    if (dot < 0) break;\n")
+        .append("    h = h.substring(dot + 1);\n")
+        .append("  }\n")
+        .append("  for (var i = 0; i < patterns.length; i++) {\n")
+        .append("    if (patterns[i].test(url)) return sink;\n")
+        .append("  }\n")
+        .append("  return '").append(upstream).append("';\n")
+        .append("}\n");
+    return pac.toString();
+  }
+
+  private static List<String> readList(Configuration conf, String file) {
+    List<String> lines = ConfResources.readLines(conf, file);
+    return lines == null ? new ArrayList<String>() : lines;
+  }
+}
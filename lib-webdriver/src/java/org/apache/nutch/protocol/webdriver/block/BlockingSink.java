@@ -0,0 +1,229 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.block;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A proxy on the loopback interface that refuses every request. The proxy
+ * auto-config script of a {@link BlockingPolicy} sends blocked requests here,
+ * which makes them fail immediately and lets them be counted. The refusal is
+ * written as soon as a connection is accepted; the request line is read for
+ * the count afterwards, by other threads, so that an idle connection such as
+ * a speculative pre-connect does not hold up the refusal of other requests.
+ */
+public class BlockingSink {
+
+  public static final Logger LOG = LoggerFactory.getLogger(BlockingSink.class);
+
+  private static final byte[] RESPONSE = ("HTTP/1.1 403 Blocked\r\n"
+      + "Content-Length: 0\r\nConnection: close\r\n\r\n").getBytes();
+
+  private static final int READERS = 4;
+
+  private final ServerSocket server;
+  private final ThreadPoolExecutor readers;
+  private final long averageBytes;
+  private final AtomicLong blocked = new AtomicLong();
+  private final ConcurrentMap<String, AtomicLong> blockedByHost =
+      new ConcurrentHashMap<String, AtomicLong>();
+
+  /**
+   * @param averageBytes
+   *          assumed size of a blocked resource, used to estimate the bytes
+   *          saved
+   */
+  public BlockingSink(long averageBytes) throws IOException {
+    this.averageBytes = averageBytes;
+    server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+    readers = new ThreadPoolExecutor(READERS, READERS, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "webdriver-blocking-sink-reader");
+            t.setDaemon(true);
+            return t;
+          }
+        });
+    readers.allowCoreThreadTimeOut(true);
+    Thread acceptor = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        accept();
+      }
+    }, "webdriver-blocking-sink");
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  public int getPort() {
+    return server.getLocalPort();
+  }
+
+  /**
+   * @return the number of requests refused so far
+   */
+  public long getBlockedRequests() {
+    return blocked.get();
+  }
+
+  /**
+   * @return an estimate of the bytes the browser did not download, based on
+   *         <code>webdriver.block.avg.bytes</code>
+   */
+  public long getEstimatedBytesSaved() {
+    return blocked.get() * averageBytes;
+  }
+
+  /**
+   * @return the number of requests refused, by the host they were sent to
+   */
+  public Map<String, AtomicLong> getBlockedByHost() {
+    return Collections.unmodifiableMap(blockedByHost);
+  }
+
+  public void close() {
+    try {
+      server.close();
+    } catch (IOException e) {
+      // ignore
+    }
+    readers.shutdownNow();
+  }
+
+  private void accept() {
+    while (!server.isClosed()) {
+      Socket socket;
+      try {
+        socket = server.accept();
+      } catch (SocketException e) {
+        return;
+      } catch (IOException e) {
+        LOG.warn("Blocking sink failed to accept", e);
+        continue;
+      }
+      try {
+        // fits in the socket buffer, so this does not wait for the browser
+        OutputStream out = socket.getOutputStream();
+        out.write(RESPONSE);
+        out.flush();
+      } catch (IOException e) {
+        // the browser gave up, nothing to answer
+        close(socket);
+        continue;
+      }
+      final Socket refused = socket;
+      try {
+        readers.execute(new Runnable() {
+          @Override
+          public void run() {
+            read(refused);
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        // the sink is closing
+        close(refused);
+      }
+    }
+  }
+
+  /**
+   * Counts the request refused on the socket and closes it, after the browser
+   * has sent its request line, so that it reads the refusal rather than a
+   * reset connection.
+   */
+  private void read(Socket socket) {
+    try {
+      socket.setSoTimeout(1000);
+      count(readRequestLine(socket.getInputStream()));
+    } catch (IOException e) {
+      // nothing sent in time, such as a connection opened ahead of need
+    } finally {
+      close(socket);
+    }
+  }
+
+  private static void close(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // ignore
+    }
+  }
+
+  private void count(String requestLine) {
+    blocked.incrementAndGet();
+    // "GET http://host/path HTTP/1.1" or "CONNECT host:443 HTTP/1.1"
+    String[] parts = requestLine.split(" ");
+    if (parts.length < 2) {
+      return;
+    }
+    String target = parts[1];
+    int scheme = target.indexOf("://");
+    if (scheme >= 0) {
+      target = target.substring(scheme + 3);
+    }
+    int end = 0;
+    while (end < target.length() && target.charAt(end) != '/'
+        && target.charAt(end) != ':') {
+      end++;
+    }
+    String host = target.substring(0, end);
+    AtomicLong counter = blockedByHost.get(host);
+    if (counter == null) {
+      AtomicLong created = new AtomicLong();
+      counter = blockedByHost.putIfAbsent(host, created);
+      if (counter == null) {
+        counter = created;
+      }
+    }
+    counter.incrementAndGet();
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Blocked {}", requestLine);
+    }
+  }
+
+  private static String readRequestLine(InputStream in) throws IOException {
+    StringBuilder line = new StringBuilder();
+    int c;
+    while ((c = in.read()) != -1 && c != '\n' && line.length() < 8192) {
+      if (c != '\r') {
+        line.append((char) c);
+      }
+    }
+    return line.toString();
+  }
+}
@@ -0,0 +1,45 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.cache;
+
+import org.apache.nutch.protocol.webdriver.RenderedPage;
+
+/**
+ * A rendered page together with the validator of the response it was rendered
+ * from.
+ */
+class CacheEntry {
+
+  final String validator;
+  final long storedTime;
+  final RenderedPage page;
+
+  CacheEntry(String validator, long storedTime, RenderedPage page) {
+    this.validator = validator;
+    this.storedTime = storedTime;
+    this.page = page;
+  }
+
+  /**
+   * @return approximate heap size, dominated by the content
+   */
+  long size() {
+    return page.getContent().length + 2L
+        * (page.getUrl().length() + page.getFinalUrl().length()
+            + validator.length()) + 128;
+  }
+}
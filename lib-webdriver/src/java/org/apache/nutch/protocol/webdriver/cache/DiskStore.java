@@ -0,0 +1,203 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.nutch.protocol.webdriver.PageArtifacts;
+import org.apache.nutch.protocol.webdriver.RenderedPage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rendered pages in a local directory, one file per url named after a digest
+ * of the url. The least recently used files are deleted once the directory
+ * exceeds its size limit. Files left by a previous run are picked up, oldest
+ * first in the eviction order. Not thread-safe, guarded by the
+ * {@link RenderCache}.
+ */
+class DiskStore {
+
+  public static final Logger LOG = LoggerFactory.getLogger(DiskStore.class);
+
+  private static final int VERSION = 3;
+  private static final String SUFFIX = ".page";
+
+  private final File dir;
+  private final long maxSize;
+  // file name to file size, least recently used first
+  private final LinkedHashMap<String, Long> files =
+      new LinkedHashMap<String, Long>(16, 0.75f, true);
+  private long size;
+
+  DiskStore(File dir, long maxSize) throws IOException {
+    this.dir = dir;
+    this.maxSize = maxSize;
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Cannot create cache directory " + dir);
+    }
+    File[] existing = dir.listFiles();
+    Arrays.sort(existing, new Comparator<File>() {
+      @Override
+      public int compare(File a, File b) {
+        return Long.compare(a.lastModified(), b.lastModified());
+      }
+    });
+    for (File file : existing) {
+      if (file.getName().endsWith(SUFFIX)) {
+        files.put(file.getName(), file.length());
+        size += file.length();
+      }
+    }
+    evict();
+    LOG.info("Render cache directory {} holds {} pages, {} bytes", dir,
+        files.size(), size);
+  }
+
+  CacheEntry get(String url) {
+    String name = fileName(url);
+    if (files.get(name) == null) {
+      return null;
+    }
+    File file = new File(dir, name);
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(
+          file)));
+      if (in.readInt() != VERSION || !url.equals(in.readUTF())) {
+        // an older format or a digest collision
+        return null;
+      }
+      String validator = in.readUTF();
+      long storedTime = in.readLong();
+      String finalUrl = in.readUTF();
+      int status = in.readInt();
+      String contentType = in.readUTF();
+      String charset = in.readUTF();
+      boolean truncated = in.readBoolean();
+      byte[] content = new byte[in.readInt()];
+      in.readFully(content);
+      PageArtifacts artifacts = in.readBoolean() ? PageArtifacts.read(in)
+          : null;
+      String fingerprint = in.readBoolean() ? in.readUTF() : null;
+      return new CacheEntry(validator, storedTime, new RenderedPage(url,
+          finalUrl, status, contentType, charset, content, truncated,
+          artifacts, fingerprint));
+    } catch (IOException e) {
+      LOG.warn("Dropping unreadable cache file {}: {}", file, e.toString());
+      removeFile(name);
+      return null;
+    } finally {
+      close(in);
+    }
+  }
+
+  void put(CacheEntry entry) {
+    RenderedPage page = entry.page;
+    String name = fileName(page.getUrl());
+    File file = new File(dir, name);
+    DataOutputStream out = null;
+    boolean written = false;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(
+          new FileOutputStream(file)));
+      out.writeInt(VERSION);
+      out.writeUTF(page.getUrl());
+      out.writeUTF(entry.validator);
+      out.writeLong(entry.storedTime);
+      out.writeUTF(page.getFinalUrl());
+      out.writeInt(page.getStatus());
+      out.writeUTF(page.getContentType());
+      out.writeUTF(page.getCharset());
+      out.writeBoolean(page.isTruncated());
+      out.writeInt(page.getContent().length);
+      out.write(page.getContent());
+      out.writeBoolean(page.getArtifacts() != null);
+      if (page.getArtifacts() != null) {
+        page.getArtifacts().write(out);
+      }
+      out.writeBoolean(page.getFingerprint() != null);
+      if (page.getFingerprint() != null) {
+        out.writeUTF(page.getFingerprint());
+      }
+      out.close();
+      written = true;
+    } catch (IOException e) {
+      LOG.warn("Cannot write cache file {}: {}", file, e.toString());
+    } finally {
+      close(out);
+    }
+    if (!written) {
+      removeFile(name);
+      return;
+    }
+    Long previous = files.put(name, file.length());
+    size += file.length() - (previous == null ? 0 : previous);
+    evict();
+  }
+
+  void remove(String url) {
+    removeFile(fileName(url));
+  }
+
+  private void removeFile(String name) {
+    Long length = files.remove(name);
+    if (length != null) {
+      size -= length;
+    }
+    new File(dir, name).delete();
+  }
+
+  private void evict() {
+    Iterator<Map.Entry<String, Long>> it = files.entrySet().iterator();
+    while (size > maxSize && it.hasNext()) {
+      Map.Entry<String, Long> eldest = it.next();
+      it.remove();
+      size -= eldest.getValue();
+      new File(dir, eldest.getKey()).delete();
+    }
+  }
+
+  private static String fileName(String url) {
+    return RenderCache.digest("SHA-1", url.getBytes(StandardCharsets.UTF_8))
+        + SUFFIX;
+  }
+
+  private static void close(Closeable c) {
+    if (c != null) {
+      try {
+        c.close();
+      } catch (IOException e) {
+        // ignore
+      }
+    }
+  }
+}
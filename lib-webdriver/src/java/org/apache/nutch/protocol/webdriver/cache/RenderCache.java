@@ -0,0 +1,195 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.protocol.webdriver.RenderedPage;
+import org.apache.nutch.protocol.webdriver.metrics.RenderMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the latest rendering of each url together with a validator of the
+ * response it was rendered from, so that a page whose response has not
+ * changed since is not rendered again. Entries live in memory, least recently
+ * used first out, and optionally in a local directory which survives between
+ * fetch jobs.
+ *
+ * The cache is configured with the following properties:
+ * <ul>
+ * <li><code>webdriver.cache.memory.size</code> bytes of rendered content kept
+ * in memory (default 64 MB)</li>
+ * <li><code>webdriver.cache.dir</code> local directory for the disk cache,
+ * none if empty (default empty)</li>
+ * <li><code>webdriver.cache.disk.size</code> bytes the directory may hold
+ * (default 1 GB)</li>
+ * <li><code>webdriver.cache.max.age</code> days after which an entry is
+ * rendered again even if its response did not change, 0 for no limit
+ * (default 30)</li>
+ * </ul>
+ */
+public class RenderCache {
+
+  public static final Logger LOG = LoggerFactory.getLogger(RenderCache.class);
+
+  private final long maxMemory;
+  private final long maxAge;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final LinkedHashMap<String, CacheEntry> memory =
+      new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+  private long memorySize;
+  private final DiskStore disk;
+
+  public RenderCache(Configuration conf) {
+    this.maxMemory = conf.getLong("webdriver.cache.memory.size",
+        64L * 1024 * 1024);
+    this.maxAge = TimeUnit.DAYS.toMillis(conf.getLong(
+        "webdriver.cache.max.age", 30));
+    String dir = conf.getTrimmed("webdriver.cache.dir", "");
+    DiskStore store = null;
+    if (dir.length() > 0) {
+      try {
+        store = new DiskStore(new File(dir), conf.getLong(
+            "webdriver.cache.disk.size", 1024L * 1024 * 1024));
+      } catch (IOException e) {
+        LOG.warn("Render cache runs in memory only", e);
+      }
+    }
+    this.disk = store;
+  }
+
+  /**
+   * Computes the validator of a response: its entity tag, else its last
+   * modification date, else a digest of its body.
+   *
+   * @return the validator, or null if the response has none of these
+   */
+  public static String validator(String etag, String lastModified, byte[] body) {
+    if (etag != null && etag.length() > 0) {
+      return "etag:" + etag;
+    }
+    if (lastModified != null && lastModified.length() > 0) {
+      return "modified:" + lastModified;
+    }
+    if (body != null) {
+      return "md5:" + digest("MD5", body);
+    }
+    return null;
+  }
+
+  /**
+   * @param validator
+   *          validator of the current response, or null to accept the cached
+   *          rendering whatever it was rendered from, e.g. after a 304
+   * @return the cached rendering, or null if there is none for this validator
+   */
+  public RenderedPage get(String url, String validator) {
+    CacheEntry entry;
+    lock.lock();
+    try {
+      entry = memory.get(url);
+      if (entry == null && disk != null) {
+        entry = disk.get(url);
+        if (entry != null) {
+          putInMemory(url, entry);
+        }
+      }
+      if (entry != null && maxAge > 0
+          && System.currentTimeMillis() - entry.storedTime > maxAge) {
+        remove(url);
+        entry = null;
+      }
+    } finally {
+      lock.unlock();
+    }
+    boolean hit = entry != null
+        && (validator == null || validator.equals(entry.validator));
+    RenderMetrics.get().recordCacheLookup(hit);
+    return hit ? entry.page : null;
+  }
+
+  public void put(String url, String validator, RenderedPage page) {
+    CacheEntry entry = new CacheEntry(validator, System.currentTimeMillis(),
+        page);
+    lock.lock();
+    try {
+      putInMemory(url, entry);
+      if (disk != null) {
+        disk.put(entry);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void remove(String url) {
+    lock.lock();
+    try {
+      CacheEntry entry = memory.remove(url);
+      if (entry != null) {
+        memorySize -= entry.size();
+      }
+      if (disk != null) {
+        disk.remove(url);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void putInMemory(String url, CacheEntry entry) {
+    if (entry.size() > maxMemory) {
+      // the rendering it would replace is stale
+      CacheEntry previous = memory.remove(url);
+      if (previous != null) {
+        memorySize -= previous.size();
+      }
+      return;
+    }
+    CacheEntry previous = memory.put(url, entry);
+    memorySize += entry.size() - (previous == null ? 0 : previous.size());
+    Iterator<Map.Entry<String, CacheEntry>> it = memory.entrySet().iterator();
+    while (memorySize > maxMemory && it.hasNext()) {
+      memorySize -= it.next().getValue().size();
+      it.remove();
+    }
+  }
+
+  static String digest(String algorithm, byte[] data) {
+    try {
+      byte[] digest = MessageDigest.getInstance(algorithm).digest(data);
+      StringBuilder sb = new StringBuilder(digest.length * 2);
+      for (byte b : digest) {
+        sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(
+            Character.forDigit(b & 0xf, 16));
+      }
+      return sb.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
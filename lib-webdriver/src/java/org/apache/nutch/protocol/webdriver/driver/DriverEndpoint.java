@@ -0,0 +1,96 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.driver;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+ * A GeckoDriver (or Selenium server) address that sessions can be opened on.
+ * Its counters are guarded by the {@link EndpointBalancer} that owns it.
+ */
+public class DriverEndpoint {
+
+  private final URL url;
+  private final int maxSessions;
+
+  int sessions;
+  int failures;
+  boolean healthy = true;
+
+  public DriverEndpoint(URL url, int maxSessions) {
+    this.url = url;
+    this.maxSessions = maxSessions;
+  }
+
+  /**
+   * Parses an endpoint of the form <code>[scheme://]host:port[/path][#max]</code>
+   * where the optional <code>#max</code> suffix overrides the number of
+   * concurrent sessions allowed on this endpoint.
+   */
+  public static DriverEndpoint parse(String spec, int defaultMaxSessions) {
+    String address = spec.trim();
+    int maxSessions = defaultMaxSessions;
+    int hash = address.lastIndexOf('#');
+    if (hash >= 0) {
+      maxSessions = Integer.parseInt(address.substring(hash + 1).trim());
+      address = address.substring(0, hash).trim();
+    }
+    if (address.indexOf("://") < 0) {
+      address = "http://" + address;
+    }
+    try {
+      return new DriverEndpoint(new URL(address), Math.max(1, maxSessions));
+    } catch (MalformedURLException e) {
+      throw new IllegalArgumentException("Invalid WebDriver endpoint: " + spec,
+          e);
+    }
+  }
+
+  public URL getUrl() {
+    return url;
+  }
+
+  public String getHost() {
+    return url.getHost();
+  }
+
+  public int getPort() {
+    return url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+  }
+
+  public int getMaxSessions() {
+    return maxSessions;
+  }
+
+  /**
+   * @return true if the endpoint is a driver process on this machine listening
+   *         at the root path, which is reached through a
+   *         {@link NutchDriverService}
+   */
+  public boolean isLocal() {
+    String host = getHost();
+    String path = url.getPath();
+    return ("localhost".equals(host) || "127.0.0.1".equals(host))
+        && (path.length() == 0 || "/".equals(path));
+  }
+
+  @Override
+  public String toString() {
+    return url.toString();
+  }
+}
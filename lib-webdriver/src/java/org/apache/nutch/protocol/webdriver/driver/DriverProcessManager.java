@@ -0,0 +1,287 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.driver;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.net.PortProber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Launches GeckoDriver processes on free local ports and looks after them for
+ * the lifetime of the JVM: a process that exits, stops answering or whose
+ * browser grows beyond a memory limit is killed with all its children and
+ * started again. Everything is killed when the JVM shuts down, and processes
+ * left behind by a JVM that died are killed on startup.
+ *
+ * The manager is configured with the following properties:
+ * <ul>
+ * <li><code>webdriver.managed.processes</code> number of GeckoDriver
+ * processes, each serving one session (defaults to
+ * <code>webdriver.pool.max.size</code>)</li>
+ * <li><code>webdriver.managed.geckodriver</code> path of the GeckoDriver
+ * executable (defaults to the <code>webdriver.gecko.driver</code> system
+ * property, then the <code>PATH</code>)</li>
+ * <li><code>webdriver.managed.args</code> additional GeckoDriver arguments,
+ * separated by spaces</li>
+ * <li><code>webdriver.headless</code> run Firefox without a display (default
+ * true in managed mode)</li>
+ * <li><code>webdriver.managed.max.rss</code> megabytes of resident memory of a
+ * GeckoDriver and its browser processes before they are restarted, 0 for no
+ * limit (default 2048)</li>
+ * <li><code>webdriver.managed.check.interval</code> seconds between checks
+ * (default 10)</li>
+ * <li><code>webdriver.managed.probe.timeout</code> milliseconds a process has
+ * to answer a status request (default 5000)</li>
+ * <li><code>webdriver.managed.max.failures</code> consecutive unanswered
+ * probes before a process is restarted (default 3)</li>
+ * <li><code>webdriver.managed.pid.dir</code> directory recording the pids of
+ * the processes (default <code>${java.io.tmpdir}/nutch-webdriver</code>)</li>
+ * </ul>
+ */
+public class DriverProcessManager {
+
+  public static final Logger LOG = LoggerFactory
+      .getLogger(DriverProcessManager.class);
+
+  static final String JVM_PID = ManagementFactory.getRuntimeMXBean()
+      .getName().split("@")[0];
+
+  private final List<ManagedDriverProcess> processes =
+      new ArrayList<ManagedDriverProcess>();
+  private final long maxRss;
+  private final int probeTimeout;
+  private final int maxFailures;
+  private final ScheduledExecutorService monitor;
+  private final Thread shutdownHook;
+
+  public DriverProcessManager(Configuration conf) {
+    int count = Math.max(1, conf.getInt("webdriver.managed.processes",
+        conf.getInt("webdriver.pool.max.size",
+            conf.getInt("fetcher.threads.fetch", 10))));
+    String path = conf.getTrimmed("webdriver.managed.geckodriver", "");
+    File executable = path.length() > 0 ? new File(path) : NutchDriverService
+        .findGeckoDriver();
+    List<String> args = new ArrayList<String>();
+    for (String arg : conf.getTrimmed("webdriver.managed.args", "").split(
+        "\\s+")) {
+      if (arg.length() > 0) {
+        args.add(arg);
+      }
+    }
+    boolean headless = conf.getBoolean("webdriver.headless", true);
+    File pidDir = new File(conf.get("webdriver.managed.pid.dir",
+        System.getProperty("java.io.tmpdir") + "/nutch-webdriver"));
+    this.maxRss = conf.getLong("webdriver.managed.max.rss", 2048) * 1024 * 1024;
+    this.probeTimeout = conf.getInt("webdriver.managed.probe.timeout", 5000);
+    this.maxFailures = Math.max(1,
+        conf.getInt("webdriver.managed.max.failures", 3));
+
+    if (!pidDir.isDirectory() && !pidDir.mkdirs()) {
+      throw new WebDriverException("Cannot create " + pidDir);
+    }
+    killOrphans(pidDir);
+
+    shutdownHook = new Thread("webdriver-managed-shutdown") {
+      @Override
+      public void run() {
+        killAll();
+      }
+    };
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+    for (int i = 0; i < count; i++) {
+      ManagedDriverProcess process = new ManagedDriverProcess(executable,
+          PortProber.findFreePort(), args, headless, pidDir);
+      try {
+        process.start();
+      } catch (IOException e) {
+        killAll();
+        throw new WebDriverException("Cannot start GeckoDriver " + executable,
+            e);
+      }
+      processes.add(process);
+    }
+
+    long interval = conf.getLong("webdriver.managed.check.interval", 10);
+    monitor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "webdriver-managed-monitor");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    monitor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        for (ManagedDriverProcess process : processes) {
+          try {
+            check(process);
+          } catch (RuntimeException e) {
+            LOG.warn("Failed to check GeckoDriver on port {}",
+                process.getPort(), e);
+          }
+        }
+      }
+    }, interval, interval, TimeUnit.SECONDS);
+  }
+
+  /**
+   * @return an endpoint for each managed process, limited to one session
+   */
+  public List<DriverEndpoint> getEndpoints() {
+    List<DriverEndpoint> endpoints = new ArrayList<DriverEndpoint>();
+    for (ManagedDriverProcess process : processes) {
+      endpoints.add(process.getEndpoint());
+    }
+    return Collections.unmodifiableList(endpoints);
+  }
+
+  /**
+   * @return the resident memory of the processes started by this JVM, which
+   *         are the GeckoDriver processes with their browsers, in bytes, or
+   *         -1 if it is not known
+   */
+  public static long getBrowserRss() {
+    return ProcessTree.descendantsRss(Integer.parseInt(JVM_PID));
+  }
+
+  /**
+   * Kills the process serving the given endpoint, with its browser, and
+   * starts it again. Used when a session no longer responds.
+   */
+  public void restart(DriverEndpoint endpoint, String reason) {
+    for (ManagedDriverProcess process : processes) {
+      if (process.getEndpoint() == endpoint) {
+        process.restart(reason);
+        process.failures = 0;
+        return;
+      }
+    }
+  }
+
+  public void close() {
+    monitor.shutdownNow();
+    try {
+      Runtime.getRuntime().removeShutdownHook(shutdownHook);
+    } catch (IllegalStateException e) {
+      // already shutting down, the hook does the same
+    }
+    killAll();
+  }
+
+  private void check(ManagedDriverProcess process) {
+    if (!process.isAlive()) {
+      process.restart("process exited");
+      process.failures = 0;
+      return;
+    }
+    long rss = process.getRss();
+    if (maxRss > 0 && rss > maxRss) {
+      process.restart("resident memory " + (rss >> 20) + " MB");
+      process.failures = 0;
+      return;
+    }
+    process.snapshot();
+    if (probe(process)) {
+      process.failures = 0;
+    } else if (++process.failures >= maxFailures) {
+      process.restart(process.failures + " status requests unanswered");
+      process.failures = 0;
+    }
+  }
+
+  /**
+   * Asks the process for its status, which also tells a hung process from a
+   * busy one that still accepts connections.
+   */
+  private boolean probe(ManagedDriverProcess process) {
+    HttpURLConnection connection = null;
+    try {
+      connection = (HttpURLConnection) new URL("http://localhost:"
+          + process.getPort() + "/status").openConnection();
+      connection.setConnectTimeout(probeTimeout);
+      connection.setReadTimeout(probeTimeout);
+      // older GeckoDriver versions do not know /status, any answer will do
+      connection.getResponseCode();
+      return true;
+    } catch (IOException e) {
+      return false;
+    } finally {
+      if (connection != null) {
+        connection.disconnect();
+      }
+    }
+  }
+
+  private void killAll() {
+    for (ManagedDriverProcess process : processes) {
+      process.kill();
+    }
+  }
+
+  /**
+   * Kills the processes recorded by JVMs which are no longer running. Other
+   * fetcher JVMs on the same machine may share the directory, their processes
+   * are left alone.
+   */
+  private static void killOrphans(File pidDir) {
+    File[] files = pidDir.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      if (!file.getName().startsWith("geckodriver-")) {
+        continue;
+      }
+      try {
+        String[] ids = new String(Files.readAllBytes(file.toPath()),
+            StandardCharsets.UTF_8).trim().split(" ");
+        int pid = Integer.parseInt(ids[0]);
+        int owner = Integer.parseInt(ids[1]);
+        if (ProcessTree.isRunning(owner)) {
+          continue;
+        }
+        String command = ProcessTree.commandLine(pid);
+        if (command != null && command.contains("geckodriver")) {
+          LOG.warn("Killing GeckoDriver pid {} left behind by pid {}", pid,
+              owner);
+          ProcessTree.kill(pid);
+        }
+      } catch (IOException | RuntimeException e) {
+        LOG.warn("Ignoring pid file {}: {}", file, e.toString());
+      }
+      file.delete();
+    }
+  }
+}
@@ -0,0 +1,230 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.driver;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.hadoop.conf.Configuration;
+import org.openqa.selenium.WebDriverException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Spreads WebDriver sessions over several driver endpoints, for example a
+ * number of GeckoDriver processes on different ports or hosts. A new session
+ * goes to the healthy endpoint with the fewest outstanding sessions relative
+ * to its limit. Endpoints are probed in the background and ejected after
+ * repeated failures, then admitted again once they answer.
+ *
+ * The balancer is configured with the following properties:
+ * <ul>
+ * <li><code>webdriver.service.endpoints</code> comma separated list of
+ * <code>[scheme://]host:port[/path][#max]</code> entries; when empty a single
+ * endpoint on <code>localhost:webdriver.service.port</code> is used</li>
+ * <li><code>webdriver.endpoint.max.sessions</code> concurrent sessions per
+ * endpoint unless overridden by <code>#max</code> (default 1, GeckoDriver only
+ * serves one session at a time)</li>
+ * <li><code>webdriver.endpoint.max.failures</code> consecutive failures before
+ * an endpoint is ejected (default 3)</li>
+ * <li><code>webdriver.endpoint.probe.interval</code> seconds between health
+ * probes (default 10)</li>
+ * <li><code>webdriver.endpoint.probe.timeout</code> connect timeout of a probe
+ * in milliseconds (default 2000)</li>
+ * </ul>
+ */
+public class EndpointBalancer {
+
+  public static final Logger LOG = LoggerFactory
+      .getLogger(EndpointBalancer.class);
+
+  private final List<DriverEndpoint> endpoints;
+  private final int maxFailures;
+  private final int probeTimeout;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final ScheduledExecutorService prober;
+
+  public EndpointBalancer(Configuration conf) {
+    this(parseEndpoints(conf), conf);
+  }
+
+  /**
+   * Balances over the given endpoints, ignoring the configured ones.
+   */
+  public EndpointBalancer(List<DriverEndpoint> endpoints, Configuration conf) {
+    this.endpoints = Collections.unmodifiableList(
+        new ArrayList<DriverEndpoint>(endpoints));
+    this.maxFailures = Math.max(1,
+        conf.getInt("webdriver.endpoint.max.failures", 3));
+    this.probeTimeout = conf.getInt("webdriver.endpoint.probe.timeout", 2000);
+
+    long interval = conf.getLong("webdriver.endpoint.probe.interval", 10);
+    prober = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "webdriver-endpoint-prober");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    prober.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        for (DriverEndpoint endpoint : endpoints) {
+          if (probe(endpoint)) {
+            reportSuccess(endpoint);
+          } else {
+            reportFailure(endpoint, null);
+          }
+        }
+      }
+    }, interval, interval, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Reserves a session slot on the least loaded healthy endpoint.
+   *
+   * @return the endpoint, to be handed back with {@link #release}
+   * @throws WebDriverException
+   *           if every healthy endpoint is at its session limit or all
+   *           endpoints are ejected
+   */
+  public DriverEndpoint acquire() {
+    lock.lock();
+    try {
+      DriverEndpoint best = null;
+      for (DriverEndpoint endpoint : endpoints) {
+        if (!endpoint.healthy || endpoint.sessions >= endpoint.getMaxSessions()) {
+          continue;
+        }
+        // compare sessions / maxSessions without dividing
+        if (best == null
+            || (long) endpoint.sessions * best.getMaxSessions() < (long) best.sessions
+                * endpoint.getMaxSessions()) {
+          best = endpoint;
+        }
+      }
+      if (best == null) {
+        throw new WebDriverException("No WebDriver endpoint available out of "
+            + endpoints);
+      }
+      best.sessions++;
+      return best;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void release(DriverEndpoint endpoint) {
+    lock.lock();
+    try {
+      endpoint.sessions--;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void reportSuccess(DriverEndpoint endpoint) {
+    lock.lock();
+    try {
+      endpoint.failures = 0;
+      if (!endpoint.healthy) {
+        endpoint.healthy = true;
+        LOG.info("WebDriver endpoint {} is back in rotation", endpoint);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void reportFailure(DriverEndpoint endpoint, Throwable cause) {
+    lock.lock();
+    try {
+      endpoint.failures++;
+      if (endpoint.healthy && endpoint.failures >= maxFailures) {
+        endpoint.healthy = false;
+        LOG.warn("Ejecting WebDriver endpoint {} after {} failures", endpoint,
+            endpoint.failures, cause);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the total number of sessions the endpoints allow
+   */
+  public int getCapacity() {
+    int capacity = 0;
+    for (DriverEndpoint endpoint : endpoints) {
+      capacity += endpoint.getMaxSessions();
+    }
+    return capacity;
+  }
+
+  public List<DriverEndpoint> getEndpoints() {
+    return endpoints;
+  }
+
+  public void close() {
+    prober.shutdownNow();
+  }
+
+  private static List<DriverEndpoint> parseEndpoints(Configuration conf) {
+    int defaultMaxSessions = conf.getInt("webdriver.endpoint.max.sessions", 1);
+    List<DriverEndpoint> list = new ArrayList<DriverEndpoint>();
+    for (String spec : conf.getTrimmedStrings("webdriver.service.endpoints")) {
+      if (spec.length() > 0) {
+        list.add(DriverEndpoint.parse(spec, defaultMaxSessions));
+      }
+    }
+    if (list.isEmpty()) {
+      list.add(DriverEndpoint.parse(
+          "localhost:" + conf.getInt("webdriver.service.port", 4444),
+          defaultMaxSessions));
+    }
+    return list;
+  }
+
+  private boolean probe(DriverEndpoint endpoint) {
+    Socket socket = new Socket();
+    try {
+      socket.connect(
+          new InetSocketAddress(endpoint.getHost(), endpoint.getPort()),
+          probeTimeout);
+      return true;
+    } catch (IOException e) {
+      return false;
+    } finally {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // ignore
+      }
+    }
+  }
+}
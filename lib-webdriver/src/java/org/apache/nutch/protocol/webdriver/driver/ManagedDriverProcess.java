@@ -0,0 +1,209 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.driver;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A GeckoDriver process launched and owned by a {@link DriverProcessManager}.
+ * The process is started through <code>sh</code>, which reports its pid before
+ * it is replaced by GeckoDriver, since a Java 8 {@link Process} does not
+ * expose one. The pid is recorded in a file so that a later run can clean up
+ * after a JVM which died without shutting the process down.
+ */
+class ManagedDriverProcess {
+
+  public static final Logger LOG = LoggerFactory
+      .getLogger(ManagedDriverProcess.class);
+
+  private static final String LAUNCHER = "echo $$; exec \"$0\" \"$@\"";
+
+  private final File executable;
+  private final int port;
+  private final List<String> args;
+  private final boolean headless;
+  private final File pidDir;
+  private final DriverEndpoint endpoint;
+
+  private Process process;
+  private int pid = -1;
+  private File pidFile;
+  private int restarts;
+  // children seen by the last check, killed as well should the process die
+  // on its own and leave them behind
+  private Map<Integer, String> descendants = new HashMap<Integer, String>();
+  // consecutive failed probes, only used by the monitor of the manager
+  int failures;
+
+  ManagedDriverProcess(File executable, int port, List<String> args,
+      boolean headless, File pidDir) {
+    this.executable = executable;
+    this.port = port;
+    this.args = args;
+    this.headless = headless;
+    this.pidDir = pidDir;
+    try {
+      this.endpoint = new DriverEndpoint(new URL("http://localhost:" + port),
+          1);
+    } catch (MalformedURLException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  synchronized void start() throws IOException {
+    List<String> command = new ArrayList<String>();
+    command.add("sh");
+    command.add("-c");
+    command.add(LAUNCHER);
+    command.add(executable.getAbsolutePath());
+    command.add("--port");
+    command.add(Integer.toString(port));
+    command.addAll(args);
+    ProcessBuilder builder = new ProcessBuilder(command)
+        .redirectErrorStream(true);
+    if (headless) {
+      builder.environment().put("MOZ_HEADLESS", "1");
+    }
+    process = builder.start();
+    final BufferedReader out = new BufferedReader(new InputStreamReader(
+        process.getInputStream(), StandardCharsets.UTF_8));
+    String first = out.readLine();
+    try {
+      pid = Integer.parseInt(first == null ? "" : first.trim());
+    } catch (NumberFormatException e) {
+      process.destroy();
+      throw new IOException("GeckoDriver on port " + port
+          + " did not start: " + first);
+    }
+    pidFile = new File(pidDir, "geckodriver-" + pid + ".pid");
+    Files.write(pidFile.toPath(), (pid + " " + DriverProcessManager.JVM_PID)
+        .getBytes(StandardCharsets.UTF_8));
+
+    Thread pump = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          String line;
+          while ((line = out.readLine()) != null) {
+            LOG.debug("geckodriver:{} {}", port, line);
+          }
+        } catch (IOException e) {
+          // the process is gone
+        }
+      }
+    }, "webdriver-geckodriver-" + port);
+    pump.setDaemon(true);
+    pump.start();
+    LOG.info("Started GeckoDriver pid {} on port {}", pid, port);
+  }
+
+  synchronized boolean isAlive() {
+    return process != null && process.isAlive();
+  }
+
+  /**
+   * @return resident memory of GeckoDriver and its browser processes in
+   *         bytes, or -1 if not known
+   */
+  synchronized long getRss() {
+    return pid > 0 ? ProcessTree.rss(pid) : -1;
+  }
+
+  /**
+   * Records the processes started by GeckoDriver.
+   */
+  synchronized void snapshot() {
+    if (pid > 0 && isAlive()) {
+      descendants = ProcessTree.descendants(pid);
+    }
+  }
+
+  /**
+   * Kills GeckoDriver together with the browser it started.
+   */
+  synchronized void kill() {
+    if (process == null) {
+      return;
+    }
+    if (pid > 0) {
+      ProcessTree.kill(pid);
+    }
+    for (Map.Entry<Integer, String> child : descendants.entrySet()) {
+      // the pid may have been reused since
+      if (child.getValue().equals(ProcessTree.commandLine(child.getKey()))) {
+        ProcessTree.kill(child.getKey());
+      }
+    }
+    descendants = new HashMap<Integer, String>();
+    process.destroyForcibly();
+    try {
+      process.waitFor();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (pidFile != null) {
+      pidFile.delete();
+    }
+    process = null;
+    pid = -1;
+  }
+
+  /**
+   * Kills the process and starts a new one on the same port. Sessions opened
+   * on the old process are lost.
+   */
+  synchronized void restart(String reason) {
+    LOG.warn("Restarting GeckoDriver pid {} on port {}: {}", pid, port, reason);
+    kill();
+    restarts++;
+    try {
+      start();
+    } catch (IOException e) {
+      LOG.error("Cannot restart GeckoDriver on port {}", port, e);
+    }
+  }
+
+  int getPort() {
+    return port;
+  }
+
+  synchronized int getPid() {
+    return pid;
+  }
+
+  synchronized int getRestarts() {
+    return restarts;
+  }
+
+  DriverEndpoint getEndpoint() {
+    return endpoint;
+  }
+}
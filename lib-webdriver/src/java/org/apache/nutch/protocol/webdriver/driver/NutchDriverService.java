@@ -27,12 +27,14 @@ import org.openqa.selenium.remote.service.DriverService;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 
-import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 /**
  * A driverService check the GeckoDriver process that used in this session is
  * already running. Manages the session life cycle by super class of
- * {@link DriverService}
+ * {@link DriverService}. The process itself is started either by hand or by a
+ * {@link DriverProcessManager}, and outlives the sessions opened on it, so
+ * stopping the service does not end it.
  * 
  * @author Kiyonari Harigae
  *
@@ -43,6 +45,7 @@ public class NutchDriverService extends DriverService {
 
   private final ReentrantLock lock = new ReentrantLock();
   private boolean isRunning;
+  private long startTimeout = 20000;
 
   @Override
   public boolean isRunning() {
@@ -58,8 +61,8 @@ public class NutchDriverService extends DriverService {
   public void start() throws IOException {
     lock.lock();
     try {
-      // TODO: Check port up
-      PortProber.waitForPortUp(getUrl().getPort(), 20, SECONDS);
+      PortProber.waitForPortUp(getUrl().getPort(), (int) startTimeout,
+          MILLISECONDS);
       isRunning = true;
     } finally {
       lock.unlock();
@@ -83,14 +86,32 @@ public class NutchDriverService extends DriverService {
   }
 
   public static DriverService createDriverService(int port) {
+    return createDriverService(port, 20000);
+  }
+
+  /**
+   * @param startTimeout
+   *          milliseconds to wait for the GeckoDriver to accept connections
+   *          when a session is opened
+   */
+  public static DriverService createDriverService(int port,
+      long startTimeout) {
     try {
-      return new NutchDriverService(findDefaultExecutable(), port, null, null);
+      NutchDriverService service = new NutchDriverService(findGeckoDriver(),
+          port, null, null);
+      service.startTimeout = startTimeout;
+      return service;
     } catch (IOException e) {
       throw new WebDriverException(e);
     }
   }
 
-  private static File findDefaultExecutable() {
+  /**
+   * @return the GeckoDriver executable named by the
+   *         <code>webdriver.gecko.driver</code> system property, or found on
+   *         the <code>PATH</code>
+   */
+  static File findGeckoDriver() {
     return findExecutable("geckodriver", GECKO_DRIVER_EXE_PROPERTY,
         "https://github.com/mozilla/geckodriver",
         "https://github.com/mozilla/geckodriver/releases");
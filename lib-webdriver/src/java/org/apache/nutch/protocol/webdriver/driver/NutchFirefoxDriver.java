@@ -52,11 +52,25 @@ public class NutchFirefoxDriver extends RemoteWebDriver implements Killable {
         firefoxCapabilities(desiredCapabilities));
   }
 
+  private Runnable killer;
+
   public NutchFirefoxDriver(CommandExecutor executor, Capabilities capabilities) {
     super(executor, capabilities, null);
   }
 
-  private static Capabilities firefoxCapabilities(Capabilities capabilities) {
+  /**
+   * Sets what {@link #kill()} does to end the browser, such as restarting the
+   * GeckoDriver process it runs under.
+   */
+  void setKiller(Runnable killer) {
+    this.killer = killer;
+  }
+
+  /**
+   * @return the given capabilities with the Firefox profile and proxy
+   *         prepared to be sent to the driver
+   */
+  static Capabilities firefoxCapabilities(Capabilities capabilities) {
     if (capabilities == null) {
       return new DesiredCapabilities();
     }
@@ -122,8 +136,22 @@ public class NutchFirefoxDriver extends RemoteWebDriver implements Killable {
     return toReturn;
   }
 
+  /**
+   * Ends the browser without going through the session, for a session which
+   * no longer responds. Only possible for browsers started by a
+   * {@link DriverProcessManager}; others can only be asked to quit.
+   */
   @Override
   public void kill() {
+    if (killer != null) {
+      killer.run();
+      return;
+    }
+    try {
+      quit();
+    } catch (WebDriverException e) {
+      // nothing else can be done about a browser on another machine
+    }
   }
 
 }
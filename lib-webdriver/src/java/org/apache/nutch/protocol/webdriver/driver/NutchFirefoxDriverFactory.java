@@ -0,0 +1,234 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.driver;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.protocol.webdriver.block.BlockingPolicy;
+import org.apache.nutch.protocol.webdriver.pool.DriverFactory;
+import org.apache.nutch.protocol.webdriver.trace.RecordingCommandExecutor;
+import org.apache.nutch.protocol.webdriver.trace.ReplayCommandExecutor;
+import org.apache.nutch.protocol.webdriver.trace.Trace;
+import org.apache.nutch.protocol.webdriver.trace.TraceWriter;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.firefox.FirefoxOptions;
+import org.openqa.selenium.internal.Killable;
+import org.openqa.selenium.remote.CommandExecutor;
+import org.openqa.selenium.remote.CommandInfo;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.HttpCommandExecutor;
+import org.openqa.selenium.remote.internal.ApacheHttpClient;
+import org.openqa.selenium.remote.internal.HttpClientFactory;
+import org.openqa.selenium.remote.service.DriverService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Opens {@link NutchFirefoxDriver} sessions on the endpoints of an
+ * {@link EndpointBalancer}, with the {@link ProfileTemplates} of the requested
+ * profile key. With <code>webdriver.managed</code> set the endpoints are
+ * GeckoDriver processes launched by a {@link DriverProcessManager} instead of
+ * configured ones.
+ *
+ * No WebDriver call may block for good: the commands of a session are sent
+ * with a socket timeout of <code>webdriver.command.timeout</code> milliseconds
+ * (default 60000), and each session is opened with a page load timeout of
+ * <code>webdriver.page.load.timeout</code> (default 30000) and a script
+ * timeout of <code>webdriver.script.timeout</code> (default 10000). Opening a
+ * session on a local GeckoDriver waits up to
+ * <code>webdriver.driver.start.timeout</code> milliseconds (default 20000)
+ * for it to accept connections.
+ *
+ * With <code>webdriver.trace.mode</code> set to <code>record</code>, the
+ * commands of sampled renders are recorded by a {@link TraceWriter}; set to
+ * <code>replay</code>, sessions are answered from the {@link Trace} and no
+ * driver is started or contacted.
+ */
+public class NutchFirefoxDriverFactory implements DriverFactory {
+
+  public static final Logger LOG = LoggerFactory
+      .getLogger(NutchFirefoxDriverFactory.class);
+
+  private final BlockingPolicy blockingPolicy;
+  private final ProfileTemplates templates;
+  private final boolean headless;
+  private final DriverProcessManager processManager;
+  private final EndpointBalancer balancer;
+  private final ConcurrentMap<WebDriver, DriverEndpoint> endpoints =
+      new ConcurrentHashMap<WebDriver, DriverEndpoint>();
+  private final HttpClientFactory httpClients;
+  private final ApacheHttpClient.Factory clients;
+  private final long pageLoadTimeout;
+  private final long scriptTimeout;
+  private final long startTimeout;
+  private final TraceWriter traceWriter;
+  private final Trace trace;
+  private volatile boolean timeoutsRefused;
+
+  public NutchFirefoxDriverFactory(Configuration conf) {
+    blockingPolicy = new BlockingPolicy(conf);
+    templates = new ProfileTemplates(conf, blockingPolicy);
+    templates.prepare(blockingPolicy.getProfileKeys());
+    traceWriter = TraceWriter.get(conf);
+    trace = Trace.get(conf);
+    if (trace != null) {
+      // replayed sessions never reach an endpoint
+      processManager = null;
+      balancer = null;
+    } else if (conf.getBoolean("webdriver.managed", false)) {
+      processManager = new DriverProcessManager(conf);
+      balancer = new EndpointBalancer(processManager.getEndpoints(), conf);
+    } else {
+      processManager = null;
+      balancer = new EndpointBalancer(conf);
+    }
+    headless = conf.getBoolean("webdriver.headless", processManager != null);
+    httpClients = new HttpClientFactory(conf.getInt(
+        "webdriver.command.connect.timeout", 10000), conf.getInt(
+        "webdriver.command.timeout", 60000));
+    clients = new ApacheHttpClient.Factory(httpClients);
+    pageLoadTimeout = conf.getLong("webdriver.page.load.timeout", 30000);
+    scriptTimeout = conf.getLong("webdriver.script.timeout", 10000);
+    startTimeout = conf.getLong("webdriver.driver.start.timeout", 20000);
+  }
+
+  @Override
+  public String getProfileKey(String host) {
+    return blockingPolicy.getProfileKey(host);
+  }
+
+  public BlockingPolicy getBlockingPolicy() {
+    return blockingPolicy;
+  }
+
+  @Override
+  public WebDriver create(String profile) {
+    DesiredCapabilities capabilities = templates.get(profile);
+    if (trace != null) {
+      return new NutchFirefoxDriver(new ReplayCommandExecutor(trace),
+          capabilities);
+    }
+    DriverEndpoint endpoint = balancer.acquire();
+    WebDriver driver = null;
+    try {
+      // NutchFirefoxDriver adds the Firefox options to the capabilities it is
+      // given, so every session gets its own copy
+      DesiredCapabilities caps = new DesiredCapabilities(capabilities);
+      if (headless) {
+        caps.setCapability(FirefoxOptions.FIREFOX_OPTIONS,
+            new FirefoxOptions().addArguments("-headless"));
+      }
+      CommandExecutor executor;
+      if (endpoint.isLocal()) {
+        DriverService ds = NutchDriverService.createDriverService(
+            endpoint.getPort(), startTimeout);
+        executor = new ServiceCommandExecutor(ds, clients);
+      } else {
+        executor = new HttpCommandExecutor(
+            ImmutableMap.<String, CommandInfo> of(), endpoint.getUrl(),
+            clients);
+      }
+      if (traceWriter != null) {
+        executor = new RecordingCommandExecutor(executor, traceWriter);
+      }
+      driver = new NutchFirefoxDriver(executor,
+          NutchFirefoxDriver.firefoxCapabilities(caps));
+    } catch (WebDriverException e) {
+      balancer.reportFailure(endpoint, e);
+      throw e;
+    } finally {
+      // any failure gives the slot back, also one that is not the fault of
+      // the endpoint, such as a missing GeckoDriver executable
+      if (driver == null) {
+        balancer.release(endpoint);
+      }
+    }
+    balancer.reportSuccess(endpoint);
+    endpoints.put(driver, endpoint);
+    setTimeouts(driver);
+    if (processManager != null) {
+      final DriverEndpoint owner = endpoint;
+      ((NutchFirefoxDriver) driver).setKiller(new Runnable() {
+        @Override
+        public void run() {
+          processManager.restart(owner, "session killed");
+        }
+      });
+    }
+    return driver;
+  }
+
+  private void setTimeouts(WebDriver driver) {
+    try {
+      driver.manage().timeouts()
+          .pageLoadTimeout(pageLoadTimeout, TimeUnit.MILLISECONDS)
+          .setScriptTimeout(scriptTimeout, TimeUnit.MILLISECONDS);
+    } catch (WebDriverException e) {
+      // drivers speaking only the W3C dialect refuse the legacy command; the
+      // command timeout and the render deadline still bound every call
+      if (!timeoutsRefused) {
+        timeoutsRefused = true;
+        LOG.warn("Sessions refuse page load and script timeouts", e);
+      }
+    }
+  }
+
+  @Override
+  public void destroy(WebDriver driver) {
+    DriverEndpoint endpoint = endpoints.remove(driver);
+    try {
+      driver.quit();
+    } catch (WebDriverException e) {
+      // the session is beyond saving, make sure its browser goes too
+      if (driver instanceof Killable) {
+        ((Killable) driver).kill();
+      }
+      throw e;
+    } finally {
+      if (endpoint != null) {
+        balancer.release(endpoint);
+      }
+    }
+  }
+
+  @Override
+  public int getMaxSessions() {
+    // replayed sessions are limited by the pool alone
+    return balancer != null ? balancer.getCapacity() : Integer.MAX_VALUE;
+  }
+
+  public void close() {
+    if (balancer != null) {
+      balancer.close();
+    }
+    httpClients.close();
+    blockingPolicy.close();
+    if (processManager != null) {
+      processManager.close();
+    }
+    if (traceWriter != null) {
+      // the sessions are closed, so the trace is complete
+      traceWriter.close();
+    }
+  }
+}
@@ -0,0 +1,207 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.driver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Inspects and kills a process and its descendants through the
+ * <code>/proc</code> file system. A GeckoDriver process starts Firefox, which
+ * starts its own content processes, so memory use and cleanup have to cover
+ * the whole tree. On systems without <code>/proc</code> only the root process
+ * is known.
+ */
+class ProcessTree {
+
+  public static final Logger LOG = LoggerFactory.getLogger(ProcessTree.class);
+
+  private static final File PROC = new File("/proc");
+  private static final long PAGE_SIZE = 4096;
+
+  private ProcessTree() {
+  }
+
+  /**
+   * @return the process followed by all its descendants
+   */
+  static List<Integer> of(int pid) {
+    Map<Integer, List<Integer>> children = new HashMap<Integer, List<Integer>>();
+    String[] names = PROC.list();
+    if (names != null) {
+      for (String name : names) {
+        if (!isNumber(name)) {
+          continue;
+        }
+        int ppid = parentOf(name);
+        if (ppid > 0) {
+          List<Integer> list = children.get(ppid);
+          if (list == null) {
+            list = new ArrayList<Integer>();
+            children.put(ppid, list);
+          }
+          list.add(Integer.valueOf(name));
+        }
+      }
+    }
+    List<Integer> tree = new ArrayList<Integer>();
+    tree.add(pid);
+    for (int i = 0; i < tree.size(); i++) {
+      List<Integer> list = children.get(tree.get(i));
+      if (list != null) {
+        tree.addAll(list);
+      }
+    }
+    return tree;
+  }
+
+  /**
+   * @return the resident memory of the process and its descendants in bytes,
+   *         or -1 if it is not known
+   */
+  static long rss(int pid) {
+    if (!PROC.isDirectory()) {
+      return -1;
+    }
+    long total = 0;
+    for (int p : of(pid)) {
+      total += rssOf(p);
+    }
+    return total;
+  }
+
+  /**
+   * @return the resident memory of the descendants of the process in bytes,
+   *         without the process itself, or -1 if it is not known
+   */
+  static long descendantsRss(int pid) {
+    if (!PROC.isDirectory()) {
+      return -1;
+    }
+    long total = 0;
+    for (int p : of(pid)) {
+      if (p != pid) {
+        total += rssOf(p);
+      }
+    }
+    return total;
+  }
+
+  private static long rssOf(int pid) {
+    String statm = read(pid + "/statm");
+    if (statm != null) {
+      String[] fields = statm.trim().split(" ");
+      if (fields.length > 1) {
+        return Long.parseLong(fields[1]) * PAGE_SIZE;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * @return the descendants of the process with their command lines
+   */
+  static Map<Integer, String> descendants(int pid) {
+    Map<Integer, String> descendants = new HashMap<Integer, String>();
+    for (int p : of(pid)) {
+      String command = p == pid ? null : commandLine(p);
+      if (command != null) {
+        descendants.put(p, command);
+      }
+    }
+    return descendants;
+  }
+
+  static boolean isRunning(int pid) {
+    return new File(PROC, Integer.toString(pid)).isDirectory();
+  }
+
+  /**
+   * @return the command line of the process, or null if it is not running
+   */
+  static String commandLine(int pid) {
+    String cmdline = read(pid + "/cmdline");
+    return cmdline == null ? null : cmdline.replace('\0', ' ').trim();
+  }
+
+  /**
+   * Kills the process and its descendants with SIGKILL. The tree is collected
+   * before any signal is sent, so that no descendant is re-parented before it
+   * is found.
+   */
+  static void kill(int pid) {
+    List<Integer> tree = of(pid);
+    List<String> command = new ArrayList<String>();
+    command.add("kill");
+    command.add("-KILL");
+    for (int p : tree) {
+      command.add(Integer.toString(p));
+    }
+    try {
+      Process kill = new ProcessBuilder(command).redirectErrorStream(true)
+          .start();
+      kill.getInputStream().close();
+      kill.waitFor();
+    } catch (IOException e) {
+      LOG.warn("Cannot kill processes {}", tree, e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static int parentOf(String pid) {
+    // "pid (comm) state ppid ...", where comm may contain spaces
+    String stat = read(pid + "/stat");
+    if (stat == null) {
+      return -1;
+    }
+    int end = stat.lastIndexOf(')');
+    if (end < 0) {
+      return -1;
+    }
+    String[] fields = stat.substring(end + 2).split(" ");
+    return fields.length > 1 ? Integer.parseInt(fields[1]) : -1;
+  }
+
+  private static String read(String path) {
+    try {
+      return new String(Files.readAllBytes(new File(PROC, path).toPath()),
+          StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      // the process is gone
+      return null;
+    }
+  }
+
+  private static boolean isNumber(String name) {
+    for (int i = 0; i < name.length(); i++) {
+      if (!Character.isDigit(name.charAt(i))) {
+        return false;
+      }
+    }
+    return name.length() > 0;
+  }
+}
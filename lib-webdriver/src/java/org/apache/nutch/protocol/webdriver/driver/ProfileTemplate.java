@@ -0,0 +1,83 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.driver;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.firefox.FirefoxProfile;
+import org.openqa.selenium.io.Zip;
+
+/**
+ * A Firefox profile that is serialized once and shared by every session opened
+ * with it. {@link FirefoxProfile#toJson()} lays the profile out in a new
+ * temporary directory and zips it, which would otherwise happen for each new
+ * session, twice when the profile is sent both as a capability and in the
+ * Firefox options. Once {@link #freeze()} is called the profile can no longer
+ * be changed.
+ */
+public class ProfileTemplate extends FirefoxProfile {
+
+  private String json;
+
+  /**
+   * Serializes the profile and makes it immutable.
+   */
+  public synchronized ProfileTemplate freeze() {
+    if (json == null) {
+      File dir = layoutOnDisk();
+      try {
+        json = new Zip().zip(dir);
+      } catch (IOException e) {
+        throw new WebDriverException("Cannot serialize the Firefox profile", e);
+      } finally {
+        clean(dir);
+      }
+    }
+    return this;
+  }
+
+  @Override
+  public synchronized String toJson() throws IOException {
+    return json != null ? json : super.toJson();
+  }
+
+  @Override
+  public void setPreference(String key, String value) {
+    checkMutable();
+    super.setPreference(key, value);
+  }
+
+  @Override
+  public void setPreference(String key, boolean value) {
+    checkMutable();
+    super.setPreference(key, value);
+  }
+
+  @Override
+  public void setPreference(String key, int value) {
+    checkMutable();
+    super.setPreference(key, value);
+  }
+
+  private synchronized void checkMutable() {
+    if (json != null) {
+      throw new UnsupportedOperationException("Profile template is frozen");
+    }
+  }
+}
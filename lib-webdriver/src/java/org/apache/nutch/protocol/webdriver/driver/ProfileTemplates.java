@@ -0,0 +1,158 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.driver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.protocol.webdriver.block.BlockingPolicy;
+import org.apache.nutch.protocol.webdriver.pool.DriverFactory;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Builds the capabilities of new sessions once per profile key. The
+ * preferences shared by all profiles are computed from the configuration up
+ * front; a profile key only overlays what the {@link BlockingPolicy} changes
+ * for it. Each {@link ProfileTemplate} is serialized once and shared by every
+ * session opened with its key.
+ *
+ * The templates are configured with the following properties, besides the
+ * proxy and blocking settings:
+ * <ul>
+ * <li><code>webdriver.user.agent</code> user agent the browser sends, its own
+ * if empty (default empty)</li>
+ * <li><code>webdriver.profile.cache.memory</code> kilobytes of the browser
+ * memory cache, the Firefox default if negative (default -1)</li>
+ * <li><code>webdriver.profile.cache.disk</code> whether the browser keeps a
+ * disk cache, which is of little use for sessions that are recycled (default
+ * false)</li>
+ * <li><code>webdriver.profile.preferences</code> comma separated
+ * <code>name=value</code> Firefox preferences set in every profile</li>
+ * </ul>
+ */
+public class ProfileTemplates {
+
+  public static final Logger LOG = LoggerFactory
+      .getLogger(ProfileTemplates.class);
+
+  private final Map<String, Object> preferences =
+      new LinkedHashMap<String, Object>();
+  private final BlockingPolicy blockingPolicy;
+  private final ConcurrentMap<String, DesiredCapabilities> capabilities =
+      new ConcurrentHashMap<String, DesiredCapabilities>();
+
+  public ProfileTemplates(Configuration conf, BlockingPolicy blockingPolicy) {
+    this.blockingPolicy = blockingPolicy;
+
+    String proxyHost = conf.get("http.proxy.host");
+    if (proxyHost != null && proxyHost.length() > 0) {
+      preferences.put("network.proxy.type", 1);
+      preferences.put("network.proxy.http", proxyHost);
+      preferences.put("network.proxy.http_port",
+          conf.getInt("http.proxy.port", 8080));
+    }
+    if (conf.getInt("webdriver.session.tabs", 1) > 1) {
+      // tabs are opened with window.open() from a script, which the popup
+      // blocker would otherwise stop
+      preferences.put("dom.disable_open_during_load", false);
+      preferences.put("dom.popup_maximum", -1);
+    }
+    String userAgent = conf.getTrimmed("webdriver.user.agent", "");
+    if (userAgent.length() > 0) {
+      preferences.put("general.useragent.override", userAgent);
+    }
+    int memoryCache = conf.getInt("webdriver.profile.cache.memory", -1);
+    if (memoryCache >= 0) {
+      preferences.put("browser.cache.memory.capacity", memoryCache);
+    }
+    preferences.put("browser.cache.disk.enable",
+        conf.getBoolean("webdriver.profile.cache.disk", false));
+    for (String preference : conf.getTrimmedStrings(
+        "webdriver.profile.preferences")) {
+      int eq = preference.indexOf('=');
+      if (eq <= 0) {
+        throw new IllegalArgumentException("Invalid Firefox preference: "
+            + preference);
+      }
+      preferences.put(preference.substring(0, eq).trim(),
+          parseValue(preference.substring(eq + 1).trim()));
+    }
+  }
+
+  /**
+   * Builds the templates of the given profile keys ahead of the first session
+   * that needs them.
+   */
+  public void prepare(Collection<String> profileKeys) {
+    long start = System.currentTimeMillis();
+    Collection<String> keys = new ArrayList<String>(profileKeys);
+    keys.add(DriverFactory.DEFAULT_PROFILE);
+    for (String key : keys) {
+      get(key);
+    }
+    LOG.info("Prepared {} Firefox profile templates in {} ms",
+        capabilities.size(), System.currentTimeMillis() - start);
+  }
+
+  /**
+   * @return the shared capabilities of the profile key, which must be copied
+   *         before they are changed
+   */
+  public DesiredCapabilities get(String profileKey) {
+    DesiredCapabilities caps = capabilities.get(profileKey);
+    if (caps != null) {
+      return caps;
+    }
+    ProfileTemplate profile = new ProfileTemplate();
+    for (Map.Entry<String, Object> e : preferences.entrySet()) {
+      Object value = e.getValue();
+      if (value instanceof Boolean) {
+        profile.setPreference(e.getKey(), (Boolean) value);
+      } else if (value instanceof Integer) {
+        profile.setPreference(e.getKey(), (Integer) value);
+      } else {
+        profile.setPreference(e.getKey(), (String) value);
+      }
+    }
+    blockingPolicy.apply(profile, profileKey);
+    profile.freeze();
+
+    caps = DesiredCapabilities.firefox();
+    caps.setCapability("marionette", true);
+    caps.setCapability(NutchFirefoxDriver.PROFILE, profile);
+    DesiredCapabilities existing = capabilities.putIfAbsent(profileKey, caps);
+    return existing != null ? existing : caps;
+  }
+
+  private static Object parseValue(String value) {
+    if ("true".equals(value) || "false".equals(value)) {
+      return Boolean.valueOf(value);
+    }
+    try {
+      return Integer.valueOf(value);
+    } catch (NumberFormatException e) {
+      return value;
+    }
+  }
+}
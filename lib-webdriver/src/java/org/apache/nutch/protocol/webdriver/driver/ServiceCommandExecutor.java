@@ -0,0 +1,61 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.driver;
+
+import java.io.IOException;
+
+import org.openqa.selenium.remote.Command;
+import org.openqa.selenium.remote.CommandInfo;
+import org.openqa.selenium.remote.DriverCommand;
+import org.openqa.selenium.remote.HttpCommandExecutor;
+import org.openqa.selenium.remote.Response;
+import org.openqa.selenium.remote.http.HttpClient;
+import org.openqa.selenium.remote.service.DriverService;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Sends the commands of a session to the GeckoDriver of a
+ * {@link DriverService} like
+ * {@link org.openqa.selenium.remote.service.DriverCommandExecutor}, but with
+ * the HTTP client of the given factory, so that a command to a driver which
+ * stopped responding fails after the socket timeout of that client instead
+ * of blocking its caller for good.
+ */
+class ServiceCommandExecutor extends HttpCommandExecutor {
+
+  private final DriverService service;
+
+  ServiceCommandExecutor(DriverService service, HttpClient.Factory clients) {
+    super(ImmutableMap.<String, CommandInfo> of(), service.getUrl(), clients);
+    this.service = service;
+  }
+
+  @Override
+  public Response execute(Command command) throws IOException {
+    if (DriverCommand.NEW_SESSION.equals(command.getName())) {
+      service.start();
+    }
+    try {
+      return super.execute(command);
+    } finally {
+      if (DriverCommand.QUIT.equals(command.getName())) {
+        service.stop();
+      }
+    }
+  }
+}
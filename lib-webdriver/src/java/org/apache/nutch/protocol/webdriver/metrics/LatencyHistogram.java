@@ -0,0 +1,93 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram with fixed buckets from one millisecond to a
+ * minute, fine enough to tell a slow page from a slow pool.
+ */
+public class LatencyHistogram {
+
+  private static final long[] BOUNDS = { 1, 2, 5, 10, 20, 50, 100, 200, 500,
+      1000, 2000, 5000, 10000, 20000, 30000, 60000 };
+
+  // the last bucket counts values above the largest bound
+  private final AtomicLongArray buckets = new AtomicLongArray(
+      BOUNDS.length + 1);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  public void record(long millis) {
+    int i = 0;
+    while (i < BOUNDS.length && millis > BOUNDS[i]) {
+      i++;
+    }
+    buckets.incrementAndGet(i);
+    count.incrementAndGet();
+    sum.addAndGet(millis);
+    long current;
+    while (millis > (current = max.get())
+        && !max.compareAndSet(current, millis)) {
+      // retry
+    }
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public double getMean() {
+    long n = count.get();
+    return n == 0 ? 0 : (double) sum.get() / n;
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * @param quantile
+   *          between 0 and 1, e.g. 0.95
+   * @return the upper bound of the bucket holding the quantile, or the maximum
+   *         if it lies beyond the largest bound
+   */
+  public long getQuantile(double quantile) {
+    long n = count.get();
+    if (n == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(quantile * n);
+    long seen = 0;
+    for (int i = 0; i < BOUNDS.length; i++) {
+      seen += buckets.get(i);
+      if (seen >= rank) {
+        return Math.min(BOUNDS[i], max.get());
+      }
+    }
+    return max.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("n=%d mean=%.0f p50=%d p95=%d max=%d", getCount(),
+        getMean(), getQuantile(0.5), getQuantile(0.95), getMax());
+  }
+}
@@ -0,0 +1,46 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.metrics;
+
+/**
+ * The steps a fetch goes through, timed separately by {@link RenderMetrics}.
+ */
+public enum Phase {
+
+  /** Request and response headers exchanged with HTTPClient */
+  HTTP,
+  /** Waiting for memory to render, see the admission controller */
+  ADMIT,
+  /** Waiting in the queue of the render engine */
+  QUEUE,
+  /** Borrowing a tab from the session pool, including opening a session */
+  ACQUIRE,
+  /** Starting a new WebDriver session */
+  CREATE,
+  /** Loading the page in the browser */
+  NAVIGATE,
+  /** Waiting for the page to be ready */
+  READY,
+  /** Serializing and encoding the document */
+  CAPTURE,
+  /** Closing a WebDriver session */
+  QUIT;
+
+  public String getName() {
+    return name().toLowerCase();
+  }
+}
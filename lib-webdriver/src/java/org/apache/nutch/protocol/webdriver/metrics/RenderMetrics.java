@@ -0,0 +1,336 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.protocol.webdriver.RenderEngine;
+import org.apache.nutch.protocol.webdriver.RenderException;
+import org.apache.nutch.protocol.webdriver.pool.WebDriverPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects the latency of every {@link Phase} of a fetch, render failures by
+ * cause, captured bytes, cache lookups and the state of the session pool, for
+ * the whole JVM. Once {@link #bind} is called the metrics are published over JMX and
+ * summarized in the log at a fixed interval.
+ *
+ * The metrics are configured with the following properties:
+ * <ul>
+ * <li><code>webdriver.metrics.jmx</code> whether to register the MXBean
+ * (default true)</li>
+ * <li><code>webdriver.metrics.log.interval</code> seconds between summaries
+ * in the log, 0 to disable (default 60)</li>
+ * </ul>
+ */
+public class RenderMetrics implements RenderMetricsMXBean {
+
+  public static final Logger LOG = LoggerFactory.getLogger(RenderMetrics.class);
+
+  public static final String OBJECT_NAME =
+      "org.apache.nutch.protocol.webdriver:type=RenderMetrics";
+
+  private static final RenderMetrics INSTANCE = new RenderMetrics();
+
+  private final Map<Phase, LatencyHistogram> phases =
+      new EnumMap<Phase, LatencyHistogram>(Phase.class);
+  private final ConcurrentMap<String, AtomicLong> errors =
+      new ConcurrentHashMap<String, AtomicLong>();
+  private final AtomicLong pages = new AtomicLong();
+  private final AtomicLong truncated = new AtomicLong();
+  private final AtomicLong bytes = new AtomicLong();
+  private final AtomicLong cacheHits = new AtomicLong();
+  private final AtomicLong cacheMisses = new AtomicLong();
+  private final AtomicLong unchanged = new AtomicLong();
+
+  private volatile WebDriverPool pool;
+  private volatile RenderEngine engine;
+  private ScheduledExecutorService reporter;
+  private ObjectName objectName;
+
+  private RenderMetrics() {
+    for (Phase phase : Phase.values()) {
+      phases.put(phase, new LatencyHistogram());
+    }
+  }
+
+  /**
+   * @return the metrics of this JVM
+   */
+  public static RenderMetrics get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Starts reporting, with gauges taken from the given pool and engine.
+   */
+  public synchronized void bind(WebDriverPool pool, RenderEngine engine,
+      Configuration conf) {
+    this.pool = pool;
+    this.engine = engine;
+    if (objectName == null && conf.getBoolean("webdriver.metrics.jmx", true)) {
+      try {
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (!server.isRegistered(name)) {
+          server.registerMBean(this, name);
+          objectName = name;
+        }
+      } catch (JMException e) {
+        LOG.warn("Cannot register render metrics with JMX", e);
+      }
+    }
+    long interval = conf.getLong("webdriver.metrics.log.interval", 60);
+    if (reporter == null && interval > 0) {
+      reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "webdriver-metrics-reporter");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+      reporter.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          log();
+        }
+      }, interval, interval, TimeUnit.SECONDS);
+    }
+  }
+
+  /**
+   * Stops reporting and logs a final summary.
+   */
+  public synchronized void close() {
+    if (reporter != null) {
+      reporter.shutdownNow();
+      reporter = null;
+    }
+    if (objectName != null) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+      } catch (JMException e) {
+        // ignore
+      }
+      objectName = null;
+    }
+    log();
+  }
+
+  public void record(Phase phase, long millis) {
+    phases.get(phase).record(millis);
+  }
+
+  /**
+   * Records the time elapsed since <code>startNanos</code>, a value of
+   * {@link System#nanoTime()}.
+   */
+  public void recordSince(Phase phase, long startNanos) {
+    record(phase, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+  }
+
+  public void recordPage(int length, boolean wasTruncated) {
+    pages.incrementAndGet();
+    bytes.addAndGet(length);
+    if (wasTruncated) {
+      truncated.incrementAndGet();
+    }
+  }
+
+  public void recordCacheLookup(boolean hit) {
+    (hit ? cacheHits : cacheMisses).incrementAndGet();
+  }
+
+  public void recordUnchanged() {
+    unchanged.incrementAndGet();
+  }
+
+  public void recordError(Throwable cause) {
+    String key = cause.getClass().getSimpleName();
+    if (cause instanceof RenderException) {
+      key += "." + ((RenderException) cause).getKind();
+    }
+    AtomicLong counter = errors.get(key);
+    if (counter == null) {
+      AtomicLong created = new AtomicLong();
+      counter = errors.putIfAbsent(key, created);
+      if (counter == null) {
+        counter = created;
+      }
+    }
+    counter.incrementAndGet();
+  }
+
+  public LatencyHistogram getHistogram(Phase phase) {
+    return phases.get(phase);
+  }
+
+  @Override
+  public Map<String, Long> getPhaseCounts() {
+    Map<String, Long> values = new LinkedHashMap<String, Long>();
+    for (Map.Entry<Phase, LatencyHistogram> e : phases.entrySet()) {
+      values.put(e.getKey().getName(), e.getValue().getCount());
+    }
+    return values;
+  }
+
+  @Override
+  public Map<String, Double> getPhaseMeanMillis() {
+    Map<String, Double> values = new LinkedHashMap<String, Double>();
+    for (Map.Entry<Phase, LatencyHistogram> e : phases.entrySet()) {
+      values.put(e.getKey().getName(), e.getValue().getMean());
+    }
+    return values;
+  }
+
+  @Override
+  public Map<String, Long> getPhaseP50Millis() {
+    return quantiles(0.5);
+  }
+
+  @Override
+  public Map<String, Long> getPhaseP95Millis() {
+    return quantiles(0.95);
+  }
+
+  @Override
+  public Map<String, Long> getPhaseMaxMillis() {
+    Map<String, Long> values = new LinkedHashMap<String, Long>();
+    for (Map.Entry<Phase, LatencyHistogram> e : phases.entrySet()) {
+      values.put(e.getKey().getName(), e.getValue().getMax());
+    }
+    return values;
+  }
+
+  @Override
+  public Map<String, Long> getErrorCounts() {
+    Map<String, Long> values = new TreeMap<String, Long>();
+    for (Map.Entry<String, AtomicLong> e : errors.entrySet()) {
+      values.put(e.getKey(), e.getValue().get());
+    }
+    return values;
+  }
+
+  @Override
+  public long getPagesRendered() {
+    return pages.get();
+  }
+
+  @Override
+  public long getPagesTruncated() {
+    return truncated.get();
+  }
+
+  @Override
+  public long getBytesCaptured() {
+    return bytes.get();
+  }
+
+  @Override
+  public long getCacheHits() {
+    return cacheHits.get();
+  }
+
+  @Override
+  public long getCacheMisses() {
+    return cacheMisses.get();
+  }
+
+  @Override
+  public long getPagesUnchanged() {
+    return unchanged.get();
+  }
+
+  @Override
+  public int getIdleTabs() {
+    WebDriverPool p = pool;
+    return p == null ? 0 : p.getNumIdle();
+  }
+
+  @Override
+  public int getBusyTabs() {
+    WebDriverPool p = pool;
+    return p == null ? 0 : p.getNumBusy();
+  }
+
+  @Override
+  public int getCreatingSessions() {
+    WebDriverPool p = pool;
+    return p == null ? 0 : p.getNumCreating();
+  }
+
+  @Override
+  public int getOpenSessions() {
+    WebDriverPool p = pool;
+    return p == null ? 0 : p.getNumTotal();
+  }
+
+  @Override
+  public int getQueuedUrls() {
+    RenderEngine e = engine;
+    return e == null ? 0 : e.getQueueSize();
+  }
+
+  private Map<String, Long> quantiles(double quantile) {
+    Map<String, Long> values = new LinkedHashMap<String, Long>();
+    for (Map.Entry<Phase, LatencyHistogram> e : phases.entrySet()) {
+      values.put(e.getKey().getName(), e.getValue().getQuantile(quantile));
+    }
+    return values;
+  }
+
+  private void log() {
+    if (!LOG.isInfoEnabled() || pages.get() == 0 && errors.isEmpty()) {
+      return;
+    }
+    StringBuilder sb = new StringBuilder("Render metrics: pages=")
+        .append(pages.get()).append(" truncated=").append(truncated.get())
+        .append(" bytes=").append(bytes.get()).append(" cacheHits=")
+        .append(cacheHits.get()).append(" cacheMisses=")
+        .append(cacheMisses.get()).append(" unchanged=")
+        .append(unchanged.get()).append(" idle=")
+        .append(getIdleTabs()).append(" busy=").append(getBusyTabs())
+        .append(" creating=").append(getCreatingSessions())
+        .append(" sessions=").append(getOpenSessions()).append(" queued=")
+        .append(getQueuedUrls()).append(" errors=").append(getErrorCounts());
+    for (Map.Entry<Phase, LatencyHistogram> e : phases.entrySet()) {
+      if (e.getValue().getCount() > 0) {
+        sb.append("\n  ").append(e.getKey().getName()).append(": ")
+            .append(e.getValue());
+      }
+    }
+    LOG.info(sb.toString());
+  }
+}
@@ -0,0 +1,67 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.metrics;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link RenderMetrics}, registered as
+ * <code>org.apache.nutch.protocol.webdriver:type=RenderMetrics</code>.
+ * Latencies are in milliseconds and keyed by {@link Phase#getName()}.
+ */
+public interface RenderMetricsMXBean {
+
+  Map<String, Long> getPhaseCounts();
+
+  Map<String, Double> getPhaseMeanMillis();
+
+  Map<String, Long> getPhaseP50Millis();
+
+  Map<String, Long> getPhaseP95Millis();
+
+  Map<String, Long> getPhaseMaxMillis();
+
+  /**
+   * @return failed renders by the simple class name of their cause
+   */
+  Map<String, Long> getErrorCounts();
+
+  long getPagesRendered();
+
+  long getPagesTruncated();
+
+  long getBytesCaptured();
+
+  long getCacheHits();
+
+  long getCacheMisses();
+
+  /**
+   * @return rendered pages whose fingerprint matched that of their last fetch
+   */
+  long getPagesUnchanged();
+
+  int getIdleTabs();
+
+  int getBusyTabs();
+
+  int getCreatingSessions();
+
+  int getOpenSessions();
+
+  int getQueuedUrls();
+}
@@ -0,0 +1,62 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.pool;
+
+/**
+ * One tab (top level window) of a pooled session, leased to a single render at
+ * a time. Several tabs of the same session render concurrently; their
+ * WebDriver commands are serialized by the session.
+ */
+public class BrowserTab {
+
+  private final PooledDriver session;
+  private final String handle;
+  private int pageCount;
+
+  BrowserTab(PooledDriver session, String handle) {
+    this.session = session;
+    this.handle = handle;
+  }
+
+  /**
+   * Runs a command with the session switched to this tab. The session is
+   * locked for the duration of the command, so commands should be short; long
+   * waits belong between commands.
+   */
+  public <T> T execute(TabCommand<T> command) {
+    return session.execute(this, command);
+  }
+
+  public PooledDriver getSession() {
+    return session;
+  }
+
+  public String getHandle() {
+    return handle;
+  }
+
+  /**
+   * @return the number of pages rendered in this tab
+   */
+  public int getPageCount() {
+    return pageCount;
+  }
+
+  void rendered() {
+    pageCount++;
+  }
+}
@@ -0,0 +1,60 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.pool;
+
+import org.openqa.selenium.WebDriver;
+
+/**
+ * Creates and destroys the WebDriver sessions held by a {@link WebDriverPool}.
+ */
+public interface DriverFactory {
+
+  /**
+   * Key of the profile used unless a borrower asks for another one.
+   */
+  String DEFAULT_PROFILE = "";
+
+  /**
+   * Opens a new WebDriver session.
+   * 
+   * @param profile
+   *          key of the browser profile to open the session with
+   * @return the new session
+   * @throws org.openqa.selenium.WebDriverException
+   *           if the session could not be created
+   */
+  WebDriver create(String profile);
+
+  /**
+   * @return the key of the profile pages of the given host are rendered with
+   */
+  String getProfileKey(String host);
+
+  /**
+   * Closes a session previously returned by {@link #create(String)}.
+   * 
+   * @param driver
+   *          the session to close
+   */
+  void destroy(WebDriver driver);
+
+  /**
+   * @return the number of sessions this factory can keep open at the same
+   *         time
+   */
+  int getMaxSessions();
+}
@@ -0,0 +1,154 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.pool;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+
+/**
+ * A WebDriver session owned by a {@link WebDriverPool}, together with the
+ * bookkeeping used to decide when it has to be recycled. A session may have
+ * several {@link BrowserTab}s; WebDriver only has a notion of the current
+ * window, so commands for different tabs are serialized here and the session
+ * is switched to the right window before each of them.
+ */
+public class PooledDriver {
+
+  // a separate window rather than a background tab, which Firefox throttles
+  private static final String OPEN_WINDOW =
+      "window.open('about:blank', '_blank', 'width=1366,height=768');";
+
+  private final WebDriver driver;
+  private final String profile;
+  private final long createdTime;
+  // hosts whose pages the session has rendered, and so holds the cookies of
+  private final Set<String> hosts = ConcurrentHashMap.newKeySet();
+
+  private final ReentrantLock commandLock = new ReentrantLock();
+  private String currentHandle;
+
+  // guarded by the lock of the pool
+  final List<BrowserTab> tabs = new ArrayList<BrowserTab>();
+  int busyTabs;
+  int openingTabs;
+  int pageCount;
+  boolean broken;
+
+  PooledDriver(WebDriver driver, String profile) {
+    this.driver = driver;
+    this.profile = profile;
+    this.createdTime = System.currentTimeMillis();
+  }
+
+  public WebDriver getDriver() {
+    return driver;
+  }
+
+  /**
+   * @return the key of the profile the session was opened with
+   */
+  public String getProfile() {
+    return profile;
+  }
+
+  public long getCreatedTime() {
+    return createdTime;
+  }
+
+  /**
+   * @return the number of pages rendered with this session, in all its tabs
+   */
+  public int getPageCount() {
+    return pageCount;
+  }
+
+  /**
+   * @return true if the session has rendered a page of the host
+   */
+  public boolean hasHost(String host) {
+    return hosts.contains(host);
+  }
+
+  /**
+   * Notes that the session rendered a page of the host, so that the
+   * {@link WebDriverPool} prefers it for the next page of the host.
+   */
+  public void addHost(String host) {
+    hosts.add(host);
+  }
+
+  <T> T execute(BrowserTab tab, TabCommand<T> command) {
+    commandLock.lock();
+    try {
+      if (!tab.getHandle().equals(currentHandle)) {
+        driver.switchTo().window(tab.getHandle());
+        currentHandle = tab.getHandle();
+      }
+      return command.run(driver);
+    } finally {
+      commandLock.unlock();
+    }
+  }
+
+  /**
+   * @return the window the session was opened with
+   */
+  BrowserTab firstTab() {
+    commandLock.lock();
+    try {
+      currentHandle = driver.getWindowHandle();
+      return new BrowserTab(this, currentHandle);
+    } finally {
+      commandLock.unlock();
+    }
+  }
+
+  BrowserTab openTab() {
+    commandLock.lock();
+    try {
+      Set<String> before = driver.getWindowHandles();
+      ((JavascriptExecutor) driver).executeScript(OPEN_WINDOW);
+      Set<String> opened = new HashSet<String>(driver.getWindowHandles());
+      opened.removeAll(before);
+      if (opened.size() != 1) {
+        throw new WebDriverException("Could not open a new browser window");
+      }
+      return new BrowserTab(this, opened.iterator().next());
+    } finally {
+      commandLock.unlock();
+    }
+  }
+
+  void closeTab(BrowserTab tab) {
+    commandLock.lock();
+    try {
+      driver.switchTo().window(tab.getHandle());
+      driver.close();
+      currentHandle = null;
+    } finally {
+      commandLock.unlock();
+    }
+  }
+}
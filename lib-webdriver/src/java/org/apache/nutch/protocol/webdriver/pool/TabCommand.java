@@ -0,0 +1,34 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.pool;
+
+import org.openqa.selenium.WebDriver;
+
+/**
+ * A unit of work run against one tab of a pooled session.
+ *
+ * @see BrowserTab#execute(TabCommand)
+ */
+public interface TabCommand<T> {
+
+  /**
+   * @param driver
+   *          the session, already switched to the tab; it must not be used to
+   *          switch to another window
+   */
+  T run(WebDriver driver);
+}
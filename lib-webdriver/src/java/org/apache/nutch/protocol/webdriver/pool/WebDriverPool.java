@@ -0,0 +1,767 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.pool;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.protocol.webdriver.metrics.Phase;
+import org.apache.nutch.protocol.webdriver.metrics.RenderMetrics;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded, thread-safe pool of WebDriver sessions. Renders borrow a tab of a
+ * session, load a page in it and give it back, so that the cost of starting a
+ * browser session is paid once per session instead of once per page. A
+ * session can have several tabs rendering at the same time, which shares the
+ * memory of one browser process between them. Tabs are checked before they
+ * are handed out; tabs and sessions are recycled after a configured number of
+ * pages, sessions also after a number of minutes.
+ *
+ * Sessions are opened with a profile, identified by a key that is passed to
+ * the {@link DriverFactory}. A borrower asks for a tab of a given profile;
+ * when the pool is full and no session of that profile is available, an idle
+ * session of another profile is closed to make room. A borrower asking for a
+ * tab for a host is preferably given a tab of a session that has already
+ * rendered pages of the host, and so holds its cookies and cached resources.
+ *
+ * The pool is configured with the following properties:
+ * <ul>
+ * <li><code>webdriver.pool.min.size</code> sessions kept open even when idle
+ * (default 0)</li>
+ * <li><code>webdriver.pool.max.size</code> upper bound of open sessions
+ * (defaults to <code>fetcher.threads.fetch</code>), never more than the
+ * factory can serve</li>
+ * <li><code>webdriver.pool.borrow.timeout</code> milliseconds to wait for a
+ * free tab (default 30000)</li>
+ * <li><code>webdriver.pool.session.max.pages</code> pages rendered by a
+ * session before it is recycled, 0 for no limit (default 100)</li>
+ * <li><code>webdriver.pool.session.max.age</code> minutes a session lives
+ * before it is recycled, 0 for no limit (default 30)</li>
+ * <li><code>webdriver.session.tabs</code> tabs rendering concurrently in one
+ * session (default 1)</li>
+ * <li><code>webdriver.session.tab.max.pages</code> pages rendered in a tab
+ * before it is replaced by a fresh one, 0 for no limit; only used with more
+ * than one tab per session (default 20)</li>
+ * <li><code>webdriver.pool.test.on.borrow</code> whether to check that an idle
+ * tab still responds before handing it out (default true)</li>
+ * <li><code>webdriver.pool.evict.interval</code> seconds between runs of the
+ * background task that closes expired idle sessions and tops the pool up to
+ * its minimum size (default 30)</li>
+ * </ul>
+ */
+public class WebDriverPool {
+
+  public static final Logger LOG = LoggerFactory.getLogger(WebDriverPool.class);
+
+  private final DriverFactory factory;
+  private final int minSize;
+  private final int maxSize;
+  private final int maxTabs;
+  private final long borrowTimeout;
+  private final int maxPages;
+  private final int maxTabPages;
+  private final long maxAge;
+  private final boolean testOnBorrow;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition available = lock.newCondition();
+  private final List<PooledDriver> sessions = new ArrayList<PooledDriver>();
+  // most recently returned tab first, so that warm sessions are reused
+  private final Deque<BrowserTab> idle = new ArrayDeque<BrowserTab>();
+  // sessions that are open or being created
+  private int total;
+  private int creating;
+  private boolean closed;
+
+  private final ScheduledExecutorService evictor;
+
+  public WebDriverPool(DriverFactory factory, Configuration conf) {
+    this.factory = factory;
+    this.maxSize = Math.max(1, Math.min(factory.getMaxSessions(),
+        conf.getInt("webdriver.pool.max.size",
+            conf.getInt("fetcher.threads.fetch", 10))));
+    this.minSize = Math.min(maxSize,
+        Math.max(0, conf.getInt("webdriver.pool.min.size", 0)));
+    this.maxTabs = Math.max(1, conf.getInt("webdriver.session.tabs", 1));
+    this.borrowTimeout = conf.getLong("webdriver.pool.borrow.timeout", 30000);
+    this.maxPages = conf.getInt("webdriver.pool.session.max.pages", 100);
+    this.maxTabPages = conf.getInt("webdriver.session.tab.max.pages", 20);
+    this.maxAge = TimeUnit.MINUTES.toMillis(conf.getLong(
+        "webdriver.pool.session.max.age", 30));
+    this.testOnBorrow = conf.getBoolean("webdriver.pool.test.on.borrow", true);
+
+    long interval = conf.getLong("webdriver.pool.evict.interval", 30);
+    evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "webdriver-pool-evictor");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    evictor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          evict();
+          ensureMinIdle();
+        } catch (RuntimeException e) {
+          LOG.warn("WebDriver pool maintenance failed", e);
+        }
+      }
+    }, 0, interval, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Borrows a tab of a session with the default profile.
+   *
+   * @see #borrow(String)
+   */
+  public BrowserTab borrow() {
+    return borrow(DriverFactory.DEFAULT_PROFILE);
+  }
+
+  /**
+   * Borrows a tab of a session with the profile the factory chooses for pages
+   * of the given host, preferring an idle tab of a session which has rendered
+   * pages of the host before.
+   *
+   * @see #borrow(String)
+   */
+  public BrowserTab borrowForHost(String host) {
+    return borrow(factory.getProfileKey(host), host);
+  }
+
+  /**
+   * Borrows a tab of a session with the given profile. An idle tab is
+   * preferred; otherwise a tab is opened in a session that has room for one,
+   * or a new session is created if the pool has not reached its maximum size,
+   * closing an idle session of another profile if needed. If none of that is
+   * possible, waits until another thread returns a tab.
+   *
+   * @return a tab that must be handed back with {@link #release} or
+   *         {@link #invalidate}
+   * @throws TimeoutException
+   *           if no tab became available in time
+   */
+  public BrowserTab borrow(String profile) {
+    return borrow(profile, null);
+  }
+
+  private BrowserTab borrow(String profile, String host) {
+    long deadline = System.nanoTime()
+        + TimeUnit.MILLISECONDS.toNanos(borrowTimeout);
+    while (true) {
+      BrowserTab tab = null;
+      PooledDriver opener = null;
+      boolean createNew = false;
+      List<PooledDriver> retired = new ArrayList<PooledDriver>();
+      lock.lock();
+      try {
+        while (true) {
+          if (closed) {
+            throw new WebDriverException("WebDriver pool is closed");
+          }
+          tab = pollIdleTab(profile, host, retired);
+          if (tab != null) {
+            tab.getSession().busyTabs++;
+            break;
+          }
+          opener = sessionWithRoom(profile);
+          if (opener != null) {
+            opener.openingTabs++;
+            opener.busyTabs++;
+            break;
+          }
+          if (total < maxSize) {
+            total++;
+            createNew = true;
+            break;
+          }
+          if (retireOtherProfile(profile, retired)) {
+            // its slot is freed once it has been destroyed
+            break;
+          }
+          long remaining = deadline - System.nanoTime();
+          if (remaining <= 0) {
+            throw new TimeoutException("No WebDriver session available after "
+                + borrowTimeout + " ms");
+          }
+          available.awaitNanos(remaining);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new WebDriverException(
+            "Interrupted while waiting for a WebDriver session", e);
+      } finally {
+        lock.unlock();
+        for (PooledDriver session : retired) {
+          destroy(session);
+        }
+      }
+
+      if (tab != null) {
+        if (testOnBorrow && !isHealthy(tab)) {
+          invalidate(tab);
+          continue;
+        }
+        return tab;
+      }
+      if (opener != null) {
+        tab = openTab(opener);
+        if (tab == null) {
+          continue;
+        }
+        return tab;
+      }
+      if (createNew) {
+        return create(profile);
+      }
+    }
+  }
+
+  /**
+   * Borrows another tab of a session the caller already holds a tab of, so
+   * that pages share its cookies and browser cache. Does not wait.
+   *
+   * @return an idle or newly opened tab of the session, or null if the
+   *         session is no longer usable or has no room for another tab
+   */
+  public BrowserTab borrowInSession(PooledDriver session) {
+    BrowserTab tab = null;
+    lock.lock();
+    try {
+      if (closed || session.broken || isExpired(session)
+          || !sessions.contains(session)) {
+        return null;
+      }
+      Iterator<BrowserTab> it = idle.iterator();
+      while (it.hasNext()) {
+        BrowserTab candidate = it.next();
+        if (candidate.getSession() == session) {
+          it.remove();
+          tab = candidate;
+          break;
+        }
+      }
+      if (tab == null && session.tabs.size() + session.openingTabs >= maxTabs) {
+        return null;
+      }
+      if (tab == null) {
+        session.openingTabs++;
+      }
+      session.busyTabs++;
+    } finally {
+      lock.unlock();
+    }
+
+    if (tab == null) {
+      return openTab(session);
+    }
+    if (testOnBorrow && !isHealthy(tab)) {
+      invalidate(tab);
+      return null;
+    }
+    return tab;
+  }
+
+  /**
+   * Closes the sessions which have no tab in use, so that the memory of their
+   * browsers is given back. The pool opens new sessions when they are needed.
+   *
+   * @return the number of sessions closed
+   */
+  public int retireIdle() {
+    List<PooledDriver> retired = new ArrayList<PooledDriver>();
+    lock.lock();
+    try {
+      for (PooledDriver session : new ArrayList<PooledDriver>(sessions)) {
+        if (session.busyTabs == 0 && session.openingTabs == 0) {
+          session.broken = true;
+          if (retireIfDone(session)) {
+            retired.add(session);
+          }
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+    for (PooledDriver session : retired) {
+      destroy(session);
+    }
+    return retired.size();
+  }
+
+  /**
+   * Returns a tab after a successful render. Tabs and sessions which reached
+   * their limits are closed instead of being reused.
+   */
+  public void release(BrowserTab tab) {
+    giveBack(tab, true);
+  }
+
+  /**
+   * Returns a tab whose render failed. The session is considered broken: no
+   * more tabs are handed out from it and it is closed once its other tabs
+   * have been returned.
+   */
+  public void invalidate(BrowserTab tab) {
+    giveBack(tab, false);
+  }
+
+  /**
+   * Closes all idle sessions and stops handing out new tabs. Sessions with
+   * borrowed tabs are closed when those are returned.
+   */
+  public void close() {
+    List<PooledDriver> retired = new ArrayList<PooledDriver>();
+    lock.lock();
+    try {
+      closed = true;
+      for (PooledDriver session : new ArrayList<PooledDriver>(sessions)) {
+        session.broken = true;
+        if (retireIfDone(session)) {
+          retired.add(session);
+        }
+      }
+      available.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    evictor.shutdownNow();
+    for (PooledDriver session : retired) {
+      destroy(session);
+    }
+  }
+
+  /**
+   * @return the number of tabs waiting to be borrowed
+   */
+  public int getNumIdle() {
+    lock.lock();
+    try {
+      return idle.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the number of sessions that are open or being created
+   */
+  public int getNumTotal() {
+    lock.lock();
+    try {
+      return total;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the number of tabs borrowed or being opened
+   */
+  public int getNumBusy() {
+    lock.lock();
+    try {
+      int busy = 0;
+      for (PooledDriver session : sessions) {
+        busy += session.busyTabs;
+      }
+      return busy;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the number of sessions being started
+   */
+  public int getNumCreating() {
+    lock.lock();
+    try {
+      return creating;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  public int getMaxTabs() {
+    return maxTabs;
+  }
+
+  /**
+   * @return the number of tabs that can render at the same time
+   */
+  public int getCapacity() {
+    return maxSize * maxTabs;
+  }
+
+  private BrowserTab create(String profile) {
+    PooledDriver session;
+    lock.lock();
+    try {
+      creating++;
+    } finally {
+      lock.unlock();
+    }
+    long start = System.nanoTime();
+    try {
+      session = new PooledDriver(factory.create(profile), profile);
+      RenderMetrics.get().recordSince(Phase.CREATE, start);
+    } catch (RuntimeException e) {
+      slotFreed();
+      throw e;
+    } finally {
+      lock.lock();
+      try {
+        creating--;
+      } finally {
+        lock.unlock();
+      }
+    }
+    BrowserTab tab;
+    try {
+      tab = session.firstTab();
+    } catch (RuntimeException e) {
+      destroy(session);
+      throw e;
+    }
+    lock.lock();
+    try {
+      sessions.add(session);
+      session.tabs.add(tab);
+      session.busyTabs++;
+    } finally {
+      lock.unlock();
+    }
+    return tab;
+  }
+
+  /**
+   * Opens a tab in a session that had room for it.
+   *
+   * @return the tab, or null if it could not be opened
+   */
+  private BrowserTab openTab(PooledDriver session) {
+    BrowserTab tab = null;
+    try {
+      tab = session.openTab();
+    } catch (WebDriverException e) {
+      LOG.warn("Failed to open a tab, closing the session", e);
+    }
+    boolean retire;
+    lock.lock();
+    try {
+      session.openingTabs--;
+      if (tab != null) {
+        session.tabs.add(tab);
+        return tab;
+      }
+      session.busyTabs--;
+      session.broken = true;
+      retire = retireIfDone(session);
+    } finally {
+      lock.unlock();
+    }
+    if (retire) {
+      destroy(session);
+    }
+    return null;
+  }
+
+  private void giveBack(BrowserTab tab, boolean healthy) {
+    PooledDriver session = tab.getSession();
+    boolean retire = false;
+    boolean replace = false;
+    lock.lock();
+    try {
+      tab.rendered();
+      session.pageCount++;
+      if (!healthy || closed) {
+        session.broken = true;
+      }
+      if (session.broken || isExpired(session)) {
+        session.busyTabs--;
+        retire = retireIfDone(session);
+      } else if (maxTabs > 1 && maxTabPages > 0
+          && tab.getPageCount() >= maxTabPages) {
+        // keep the slot reserved while the tab is replaced
+        replace = true;
+      } else {
+        session.busyTabs--;
+        idle.addFirst(tab);
+        available.signal();
+      }
+    } finally {
+      lock.unlock();
+    }
+    if (retire) {
+      destroy(session);
+    } else if (replace) {
+      replaceTab(tab);
+    }
+  }
+
+  /**
+   * Closes a tab which rendered too many pages, opening a fresh one first
+   * since closing the last window of a session ends the session.
+   */
+  private void replaceTab(BrowserTab tab) {
+    PooledDriver session = tab.getSession();
+    BrowserTab fresh = null;
+    try {
+      fresh = session.openTab();
+      session.closeTab(tab);
+    } catch (WebDriverException e) {
+      LOG.warn("Failed to replace a tab, closing the session", e);
+    }
+    boolean retire = false;
+    lock.lock();
+    try {
+      session.busyTabs--;
+      session.tabs.remove(tab);
+      if (fresh != null) {
+        session.tabs.add(fresh);
+      }
+      if (fresh == null || closed) {
+        session.broken = true;
+        retire = retireIfDone(session);
+      } else {
+        idle.addFirst(fresh);
+        available.signal();
+      }
+    } finally {
+      lock.unlock();
+    }
+    if (retire) {
+      destroy(session);
+    }
+  }
+
+  /**
+   * Takes the most recently returned tab of a usable session with the given
+   * profile, preferring one of a session which has rendered pages of the
+   * given host, if any. Idle tabs of sessions that are broken or expired are
+   * dropped, and those sessions are retired once none of their tabs is in
+   * use. Called with the lock held.
+   */
+  private BrowserTab pollIdleTab(String profile, String host,
+      List<PooledDriver> retired) {
+    BrowserTab fallback = null;
+    Iterator<BrowserTab> it = idle.iterator();
+    while (it.hasNext()) {
+      BrowserTab tab = it.next();
+      PooledDriver session = tab.getSession();
+      boolean usable = !session.broken && !isExpired(session);
+      if (usable && !session.getProfile().equals(profile)) {
+        continue;
+      }
+      if (usable) {
+        if (host == null || session.hasHost(host)) {
+          it.remove();
+          return tab;
+        }
+        // the most recently returned tab, unless one knows the host
+        if (fallback == null) {
+          fallback = tab;
+        }
+        continue;
+      }
+      it.remove();
+      if (retireIfDone(session)) {
+        retired.add(session);
+        // its other idle tabs went with it
+        it = idle.iterator();
+      }
+    }
+    if (fallback != null) {
+      idle.remove(fallback);
+    }
+    return fallback;
+  }
+
+  /**
+   * @return the usable session of the given profile with the fewest tabs among
+   *         those that can open another one, or null. Called with the lock
+   *         held.
+   */
+  private PooledDriver sessionWithRoom(String profile) {
+    PooledDriver best = null;
+    for (PooledDriver session : sessions) {
+      int open = session.tabs.size() + session.openingTabs;
+      if (session.broken || isExpired(session) || open >= maxTabs
+          || !session.getProfile().equals(profile)) {
+        continue;
+      }
+      if (best == null || open < best.tabs.size() + best.openingTabs) {
+        best = session;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Retires the least recently created session of another profile which has
+   * no tab in use. Called with the lock held.
+   *
+   * @return true if a session was retired
+   */
+  private boolean retireOtherProfile(String profile,
+      List<PooledDriver> retired) {
+    for (PooledDriver session : sessions) {
+      if (!session.getProfile().equals(profile) && session.busyTabs == 0
+          && session.openingTabs == 0) {
+        session.broken = true;
+        retireIfDone(session);
+        retired.add(session);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Removes a session that must not be used anymore from the pool if none of
+   * its tabs is in use. Called with the lock held.
+   *
+   * @return true if the session was removed and has to be destroyed
+   */
+  private boolean retireIfDone(PooledDriver session) {
+    if (session.busyTabs > 0 || session.openingTabs > 0
+        || !sessions.remove(session)) {
+      return false;
+    }
+    Iterator<BrowserTab> it = idle.iterator();
+    while (it.hasNext()) {
+      if (it.next().getSession() == session) {
+        it.remove();
+      }
+    }
+    return true;
+  }
+
+  private void destroy(PooledDriver session) {
+    long start = System.nanoTime();
+    try {
+      factory.destroy(session.getDriver());
+      RenderMetrics.get().recordSince(Phase.QUIT, start);
+    } catch (RuntimeException e) {
+      LOG.warn("Failed to close WebDriver session", e);
+    } finally {
+      slotFreed();
+    }
+  }
+
+  private void slotFreed() {
+    lock.lock();
+    try {
+      total--;
+      available.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private boolean isExpired(PooledDriver session) {
+    if (maxPages > 0 && session.pageCount >= maxPages) {
+      return true;
+    }
+    return maxAge > 0
+        && System.currentTimeMillis() - session.getCreatedTime() >= maxAge;
+  }
+
+  private boolean isHealthy(BrowserTab tab) {
+    try {
+      tab.execute(new TabCommand<String>() {
+        @Override
+        public String run(WebDriver driver) {
+          return driver.getWindowHandle();
+        }
+      });
+      return true;
+    } catch (WebDriverException e) {
+      LOG.info("Discarding unresponsive WebDriver session: {}", e.getMessage());
+      return false;
+    }
+  }
+
+  private void evict() {
+    List<PooledDriver> retired = new ArrayList<PooledDriver>();
+    lock.lock();
+    try {
+      for (PooledDriver session : new ArrayList<PooledDriver>(sessions)) {
+        if ((session.broken || isExpired(session)) && retireIfDone(session)) {
+          retired.add(session);
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+    for (PooledDriver session : retired) {
+      destroy(session);
+    }
+  }
+
+  private void ensureMinIdle() {
+    while (true) {
+      lock.lock();
+      try {
+        if (closed || total >= minSize) {
+          return;
+        }
+        total++;
+      } finally {
+        lock.unlock();
+      }
+      BrowserTab tab;
+      try {
+        tab = create(DriverFactory.DEFAULT_PROFILE);
+      } catch (RuntimeException e) {
+        LOG.warn("Failed to open WebDriver session for the pool", e);
+        return;
+      }
+      lock.lock();
+      try {
+        tab.getSession().busyTabs--;
+        idle.addFirst(tab);
+        available.signal();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+}
@@ -0,0 +1,50 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.ready;
+
+/**
+ * Ready once the DOM has not been modified for a given number of
+ * milliseconds, observed with a <code>MutationObserver</code>.
+ */
+public class DomQuiescenceCondition extends ReadyCondition {
+
+  private static final String INSTALL = "var w = window;"
+      + "if (!w.__nutchDom && w.MutationObserver) {"
+      + " var dom = w.__nutchDom = {last: Date.now()};"
+      + " new MutationObserver(function() { dom.last = Date.now(); })"
+      + "  .observe(document, {childList: true, subtree: true,"
+      + "   attributes: true, characterData: true});"
+      + "}";
+
+  private final long quietTime;
+
+  public DomQuiescenceCondition(long quietTime, long timeout) {
+    super("dom", timeout);
+    this.quietTime = quietTime;
+  }
+
+  @Override
+  public String getInstallScript() {
+    return INSTALL;
+  }
+
+  @Override
+  public String getReadyExpression(String host) {
+    return "(!window.__nutchDom || Date.now() - window.__nutchDom.last >= "
+        + quietTime + ")";
+  }
+}
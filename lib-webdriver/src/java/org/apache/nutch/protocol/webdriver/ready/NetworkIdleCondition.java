@@ -0,0 +1,62 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.ready;
+
+/**
+ * Ready once no XMLHttpRequest or fetch call is in flight and no new resource
+ * has been loaded for a given number of milliseconds.
+ */
+public class NetworkIdleCondition extends ReadyCondition {
+
+  private static final String INSTALL = "var w = window;"
+      + "if (!w.__nutchNet) {"
+      + " var net = w.__nutchNet = {inflight: 0, last: Date.now(), resources: 0};"
+      + " var done = function() { net.inflight--; net.last = Date.now(); };"
+      + " var send = XMLHttpRequest.prototype.send;"
+      + " XMLHttpRequest.prototype.send = function() {"
+      + "  net.inflight++; net.last = Date.now();"
+      + "  this.addEventListener('loadend', done);"
+      + "  return send.apply(this, arguments); };"
+      + " if (w.fetch) { var f = w.fetch; w.fetch = function() {"
+      + "  net.inflight++; net.last = Date.now();"
+      + "  var p = f.apply(this, arguments); p.then(done, done); return p; }; }"
+      + "}";
+
+  private final long idleTime;
+
+  public NetworkIdleCondition(long idleTime, long timeout) {
+    super("network", timeout);
+    this.idleTime = idleTime;
+  }
+
+  @Override
+  public String getInstallScript() {
+    return INSTALL;
+  }
+
+  @Override
+  public String getReadyExpression(String host) {
+    // resources such as images and scripts are only visible through the
+    // Resource Timing API, so a change in their count counts as activity
+    return "(function(net) {"
+        + " if (!net) return true;"
+        + " var n = performance.getEntriesByType('resource').length;"
+        + " if (n != net.resources) { net.resources = n; net.last = Date.now(); }"
+        + " return net.inflight <= 0 && Date.now() - net.last >= " + idleTime
+        + "; })(window.__nutchNet)";
+  }
+}
@@ -0,0 +1,210 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.ready;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.protocol.webdriver.ConfResources;
+import org.apache.nutch.protocol.webdriver.pool.BrowserTab;
+import org.apache.nutch.protocol.webdriver.pool.TabCommand;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.support.ui.FluentWait;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Function;
+
+/**
+ * Waits until a freshly navigated page is ready to be captured, according to
+ * the {@link ReadyCondition}s listed in <code>webdriver.ready.strategies</code>
+ * (default <code>readystate</code>):
+ * <ul>
+ * <li><code>readystate</code> {@link DocumentReadyCondition}</li>
+ * <li><code>network</code> {@link NetworkIdleCondition}, idle for
+ * <code>webdriver.ready.network.idle</code> milliseconds (default 500)</li>
+ * <li><code>dom</code> {@link DomQuiescenceCondition}, quiet for
+ * <code>webdriver.ready.dom.quiet</code> milliseconds (default 500)</li>
+ * <li><code>selector</code> {@link SelectorCondition}, with the selectors of
+ * <code>webdriver.ready.selectors.file</code> (default
+ * <code>webdriver-ready-selectors.txt</code>), one <code>host selector</code>
+ * pair per line</li>
+ * </ul>
+ * The page is captured as soon as every condition is met. A condition stops
+ * being waited for after <code>webdriver.ready.&lt;name&gt;.timeout</code>
+ * milliseconds, which defaults to <code>webdriver.ready.timeout</code> (3000).
+ * The conditions are checked every <code>webdriver.ready.poll.interval</code>
+ * milliseconds (default 100). A caller may cut the timeouts further for a
+ * single page, see
+ * {@link org.apache.nutch.protocol.webdriver.adapt.HostProfiles}.
+ */
+public class PageReadiness {
+
+  public static final Logger LOG = LoggerFactory.getLogger(PageReadiness.class);
+
+  private final List<ReadyCondition> conditions = new ArrayList<ReadyCondition>();
+  private final long pollInterval;
+
+  public PageReadiness(Configuration conf) {
+    long timeout = conf.getLong("webdriver.ready.timeout", 3000);
+    for (String name : conf.getTrimmedStrings("webdriver.ready.strategies",
+        "readystate")) {
+      long conditionTimeout = conf.getLong("webdriver.ready." + name
+          + ".timeout", timeout);
+      if ("readystate".equals(name)) {
+        conditions.add(new DocumentReadyCondition(conditionTimeout));
+      } else if ("network".equals(name)) {
+        conditions.add(new NetworkIdleCondition(conf.getLong(
+            "webdriver.ready.network.idle", 500), conditionTimeout));
+      } else if ("dom".equals(name)) {
+        conditions.add(new DomQuiescenceCondition(conf.getLong(
+            "webdriver.ready.dom.quiet", 500), conditionTimeout));
+      } else if ("selector".equals(name)) {
+        conditions.add(new SelectorCondition(readSelectors(conf, conf.get(
+            "webdriver.ready.selectors.file", "webdriver-ready-selectors.txt")),
+            conditionTimeout));
+      } else {
+        throw new IllegalArgumentException("Unknown readiness strategy: "
+            + name);
+      }
+    }
+    pollInterval = conf.getLong("webdriver.ready.poll.interval", 100);
+  }
+
+  /**
+   * Waits until the current page of <code>tab</code> is ready or all
+   * conditions have timed out. The tab's session is only locked while the
+   * conditions are checked, not while waiting between checks.
+   *
+   * @param host
+   *          host of the page, used to look up host specific conditions
+   * @return the number of milliseconds waited
+   */
+  public long await(BrowserTab tab, String host) {
+    return await(tab, host, -1);
+  }
+
+  /**
+   * @param cap
+   *          milliseconds each condition is waited for at most, or -1 for the
+   *          configured timeouts
+   * @see #await(BrowserTab, String)
+   */
+  public long await(BrowserTab tab, final String host, final long cap) {
+    final long start = System.currentTimeMillis();
+
+    final List<ReadyCondition> pending = new ArrayList<ReadyCondition>();
+    final List<String> expressions = new ArrayList<String>();
+    StringBuilder install = new StringBuilder();
+    long maxTimeout = 0;
+    for (ReadyCondition condition : conditions) {
+      String expression = condition.getReadyExpression(host);
+      if (expression == null) {
+        continue;
+      }
+      pending.add(condition);
+      expressions.add(expression);
+      if (condition.getInstallScript() != null) {
+        install.append(condition.getInstallScript()).append(';');
+      }
+      maxTimeout = Math.max(maxTimeout, timeout(condition, cap));
+    }
+    if (pending.isEmpty()) {
+      return 0;
+    }
+    if (install.length() > 0) {
+      executeScript(tab, install.toString());
+    }
+
+    try {
+      new FluentWait<BrowserTab>(tab)
+          .withTimeout(maxTimeout, TimeUnit.MILLISECONDS)
+          .pollingEvery(pollInterval, TimeUnit.MILLISECONDS)
+          .until(new Function<BrowserTab, Boolean>() {
+            @Override
+            public Boolean apply(BrowserTab t) {
+              StringBuilder script = new StringBuilder("return [");
+              for (int i = 0; i < expressions.size(); i++) {
+                script.append(i > 0 ? "," : "").append(expressions.get(i));
+              }
+              List<?> results = (List<?>) executeScript(t, script
+                  .append("];").toString());
+              long elapsed = System.currentTimeMillis() - start;
+              Iterator<ReadyCondition> conditionIt = pending.iterator();
+              Iterator<String> expressionIt = expressions.iterator();
+              for (Object ready : results) {
+                ReadyCondition condition = conditionIt.next();
+                expressionIt.next();
+                if (Boolean.TRUE.equals(ready)
+                    || elapsed >= timeout(condition, cap)) {
+                  if (!Boolean.TRUE.equals(ready) && LOG.isDebugEnabled()) {
+                    LOG.debug("Gave up waiting for {} condition on {}",
+                        condition.getName(), host);
+                  }
+                  conditionIt.remove();
+                  expressionIt.remove();
+                }
+              }
+              return pending.isEmpty() ? Boolean.TRUE : null;
+            }
+          });
+    } catch (TimeoutException e) {
+      LOG.debug("Page of {} not ready after {} ms", host, maxTimeout);
+    }
+    return System.currentTimeMillis() - start;
+  }
+
+  private static long timeout(ReadyCondition condition, long cap) {
+    return cap < 0 ? condition.getTimeout() : Math.min(condition.getTimeout(),
+        cap);
+  }
+
+  private static Object executeScript(BrowserTab tab, final String script) {
+    return tab.execute(new TabCommand<Object>() {
+      @Override
+      public Object run(WebDriver driver) {
+        return ((JavascriptExecutor) driver).executeScript(script);
+      }
+    });
+  }
+
+  private static Map<String, String> readSelectors(Configuration conf,
+      String file) {
+    Map<String, String> selectors = new HashMap<String, String>();
+    List<String> lines = ConfResources.readLines(conf, file);
+    if (lines == null) {
+      LOG.warn("Readiness selectors file {} not found", file);
+      return selectors;
+    }
+    for (String line : lines) {
+      String[] parts = line.split("\\s+", 2);
+      if (parts.length < 2) {
+        throw new IllegalArgumentException("Missing selector in " + file
+            + ": " + line);
+      }
+      selectors.put(parts[0], parts[1]);
+    }
+    return selectors;
+  }
+}
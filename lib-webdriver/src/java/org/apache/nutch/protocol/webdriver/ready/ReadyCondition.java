@@ -0,0 +1,61 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.ready;
+
+/**
+ * A condition a page has to meet before its content is captured. Conditions
+ * are expressed as JavaScript so that {@link PageReadiness} can check all of
+ * them in a single round trip to the browser.
+ */
+public abstract class ReadyCondition {
+
+  private final String name;
+  private final long timeout;
+
+  protected ReadyCondition(String name, long timeout) {
+    this.name = name;
+    this.timeout = timeout;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return milliseconds after which the page is captured even if this
+   *         condition is not met
+   */
+  public long getTimeout() {
+    return timeout;
+  }
+
+  /**
+   * @return statements run once right after navigation, e.g. to install
+   *         observers, or null if nothing has to be installed
+   */
+  public String getInstallScript() {
+    return null;
+  }
+
+  /**
+   * @param host
+   *          host of the page being rendered
+   * @return a JavaScript expression that evaluates to true once the page is
+   *         ready, or null if the condition does not apply to the host
+   */
+  public abstract String getReadyExpression(String host);
+}
@@ -0,0 +1,48 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.ready;
+
+import java.util.Map;
+
+import org.apache.nutch.protocol.webdriver.ScriptUtils;
+
+/**
+ * Ready once an element matching a CSS selector configured for the host of
+ * the page exists. Hosts without a selector are not waited for.
+ */
+public class SelectorCondition extends ReadyCondition {
+
+  private final Map<String, String> selectors;
+
+  /**
+   * @param selectors
+   *          CSS selector by host name
+   */
+  public SelectorCondition(Map<String, String> selectors, long timeout) {
+    super("selector", timeout);
+    this.selectors = selectors;
+  }
+
+  @Override
+  public String getReadyExpression(String host) {
+    String selector = selectors.get(host);
+    if (selector == null) {
+      return null;
+    }
+    return "document.querySelector(" + ScriptUtils.quote(selector) + ") != null";
+  }
+}
@@ -0,0 +1,58 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.route;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the routing decisions taken for the pages of one host.
+ */
+public class HostRouteStats {
+
+  private final AtomicLong rendered = new AtomicLong();
+  private final AtomicLong skipped = new AtomicLong();
+
+  void record(boolean render) {
+    if (render) {
+      rendered.incrementAndGet();
+    } else {
+      skipped.incrementAndGet();
+    }
+  }
+
+  public long getRendered() {
+    return rendered.get();
+  }
+
+  public long getSkipped() {
+    return skipped.get();
+  }
+
+  /**
+   * @return the share of pages that did not need the browser, between 0 and 1
+   */
+  public double getSkipRate() {
+    long skip = skipped.get();
+    long total = skip + rendered.get();
+    return total == 0 ? 0 : (double) skip / total;
+  }
+
+  @Override
+  public String toString() {
+    return "rendered=" + getRendered() + ", skipped=" + getSkipped();
+  }
+}
@@ -0,0 +1,105 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.route;
+
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * Guesses from the raw HTML returned by the server whether a page only gets
+ * its content from JavaScript. A page is considered to need the browser when
+ * it carries the mount point of a client side framework, or when it has
+ * scripts but hardly any visible text.
+ */
+public class JavaScriptHeuristic {
+
+  private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+  private static final String[] FRAMEWORK_MARKERS = { "ng-app", "ng-version",
+      "data-reactroot", "id=\"root\"></div>", "id=\"app\"></div>",
+      "id=\"__next\"", "__next_data__", "__nuxt", "window.__initial_state__",
+      "ember-application" };
+
+  private final int maxScan;
+  private final int minText;
+
+  /**
+   * @param maxScan
+   *          number of leading bytes of the body that are inspected
+   * @param minText
+   *          number of visible characters below which a page with scripts is
+   *          considered to be rendered client side
+   */
+  public JavaScriptHeuristic(int maxScan, int minText) {
+    this.maxScan = maxScan;
+    this.minText = minText;
+  }
+
+  public boolean needsJavaScript(byte[] body) {
+    if (body == null || body.length == 0) {
+      return true;
+    }
+    // only markup matters here, so a single byte charset is good enough
+    String html = new String(body, 0, Math.min(body.length, maxScan), LATIN1)
+        .toLowerCase(Locale.ROOT);
+    for (String marker : FRAMEWORK_MARKERS) {
+      if (html.indexOf(marker) >= 0) {
+        return true;
+      }
+    }
+    return html.indexOf("<script") >= 0 && visibleText(html) < minText;
+  }
+
+  /**
+   * Counts the non blank characters outside of tags, scripts and styles of
+   * lower case markup.
+   */
+  public static int visibleText(String html) {
+    int count = 0;
+    int i = 0;
+    int length = html.length();
+    while (i < length) {
+      char c = html.charAt(i);
+      if (c == '<') {
+        int skipTo;
+        if (html.startsWith("<script", i)) {
+          skipTo = html.indexOf("</script", i);
+        } else if (html.startsWith("<style", i)) {
+          skipTo = html.indexOf("</style", i);
+        } else if (html.startsWith("<!--", i)) {
+          skipTo = html.indexOf("-->", i);
+        } else {
+          skipTo = i;
+        }
+        if (skipTo < 0) {
+          break;
+        }
+        int end = html.indexOf('>', skipTo);
+        if (end < 0) {
+          break;
+        }
+        i = end + 1;
+        continue;
+      }
+      if (!Character.isWhitespace(c)) {
+        count++;
+      }
+      i++;
+    }
+    return count;
+  }
+}
@@ -0,0 +1,239 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.route;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.protocol.webdriver.ConfResources;
+import org.apache.nutch.protocol.webdriver.adapt.HostProfiles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides, after the HTTPClient exchange, whether a page has to be rendered in
+ * the browser or whether the body returned by the server can be used as it
+ * is. The decision is taken in this order:
+ * <ol>
+ * <li>the {@link StatusPolicy} of <code>webdriver.render.statuses</code>
+ * (default <code>2xx,-204</code>): pages with other statuses, such as
+ * redirects and errors, are never rendered</li>
+ * <li>the rules of <code>webdriver.render.rules.file</code> (default
+ * <code>webdriver-render.txt</code>), one regular expression per line prefixed
+ * with <code>+</code> to always render or <code>-</code> to never render
+ * matching urls; the first matching rule wins</li>
+ * <li><code>webdriver.render.content.types</code>, a regular expression that
+ * the MIME type must match to be rendered (default
+ * <code>text/html|application/xhtml\+xml</code>)</li>
+ * <li>if <code>webdriver.adaptive.enabled</code> is true, what the
+ * {@link org.apache.nutch.protocol.webdriver.adapt.HostProfiles} learned
+ * about the host: a host whose rendered pages hardly differ from the body
+ * returned by the server is not rendered</li>
+ * <li>if <code>webdriver.render.js.heuristic</code> is true, a
+ * {@link JavaScriptHeuristic} on the body, tuned with
+ * <code>webdriver.render.js.scan.bytes</code> (default 65536) and
+ * <code>webdriver.render.js.min.text</code> (default 200)</li>
+ * </ol>
+ * The decisions are counted in total and for the
+ * <code>webdriver.render.stats.max.hosts</code> most recently routed hosts
+ * (default 1000); a summary is logged every
+ * <code>webdriver.render.stats.interval</code> pages (default 1000).
+ */
+public class RenderRouter {
+
+  public static final Logger LOG = LoggerFactory.getLogger(RenderRouter.class);
+
+  private static class Rule {
+    final boolean render;
+    final Pattern pattern;
+
+    Rule(boolean render, Pattern pattern) {
+      this.render = render;
+      this.pattern = pattern;
+    }
+  }
+
+  private final StatusPolicy statuses;
+  private final List<Rule> rules;
+  private final Pattern contentTypes;
+  private final JavaScriptHeuristic heuristic;
+  private final HostProfiles profiles;
+  private final long statsInterval;
+
+  // least recently routed first, cut to the configured number of hosts
+  private final LinkedHashMap<String, HostRouteStats> hostStats;
+  private final AtomicLong rendered = new AtomicLong();
+  private final AtomicLong skipped = new AtomicLong();
+  private final AtomicLong decisions = new AtomicLong();
+
+  public RenderRouter(Configuration conf) {
+    statuses = new StatusPolicy(conf.get("webdriver.render.statuses",
+        "2xx,-204"));
+    rules = readRules(conf, conf.get("webdriver.render.rules.file",
+        "webdriver-render.txt"));
+    contentTypes = Pattern.compile(conf.get("webdriver.render.content.types",
+        "text/html|application/xhtml\\+xml"), Pattern.CASE_INSENSITIVE);
+    if (conf.getBoolean("webdriver.render.js.heuristic", false)) {
+      heuristic = new JavaScriptHeuristic(conf.getInt(
+          "webdriver.render.js.scan.bytes", 65536), conf.getInt(
+          "webdriver.render.js.min.text", 200));
+    } else {
+      heuristic = null;
+    }
+    profiles = HostProfiles.get(conf);
+    statsInterval = conf.getLong("webdriver.render.stats.interval", 1000);
+    final int maxHosts = conf.getInt("webdriver.render.stats.max.hosts", 1000);
+    hostStats = new LinkedHashMap<String, HostRouteStats>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(
+          Map.Entry<String, HostRouteStats> eldest) {
+        return size() > maxHosts;
+      }
+    };
+  }
+
+  /**
+   * @param url
+   *          the fetched url
+   * @param status
+   *          the status code of the response
+   * @param contentType
+   *          the Content-Type header of the response, may be null
+   * @param body
+   *          the body returned by the server, or null if it was not downloaded
+   * @return true if the page has to be rendered in the browser
+   */
+  public boolean shouldRender(URL url, int status, String contentType,
+      byte[] body) {
+    String reason;
+    boolean render;
+    Rule rule = matchRule(url.toString());
+    if (!statuses.shouldRender(status)) {
+      render = false;
+      reason = "status " + status;
+    } else if (rule != null) {
+      render = rule.render;
+      reason = "rule " + rule.pattern;
+    } else if (contentType != null && !contentTypes.matcher(
+        mimeType(contentType)).matches()) {
+      render = false;
+      reason = "content type " + contentType;
+    } else if (profiles != null && profiles.shouldSkipRender(url.getHost())) {
+      render = false;
+      reason = "learned static";
+    } else if (heuristic != null && body != null) {
+      render = heuristic.needsJavaScript(body);
+      reason = render ? "script driven" : "static";
+    } else {
+      render = true;
+      reason = "default";
+    }
+    record(url.getHost(), render);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("{} {} ({})", render ? "Rendering" : "Not rendering", url,
+          reason);
+    }
+    return render;
+  }
+
+  /**
+   * @return the decisions taken so far for the most recently routed hosts
+   */
+  public Map<String, HostRouteStats> getHostStats() {
+    synchronized (hostStats) {
+      return Collections.unmodifiableMap(
+          new HashMap<String, HostRouteStats>(hostStats));
+    }
+  }
+
+  /**
+   * @return the number of pages routed to the browser so far
+   */
+  public long getRendered() {
+    return rendered.get();
+  }
+
+  /**
+   * @return the number of pages served without the browser so far
+   */
+  public long getSkipped() {
+    return skipped.get();
+  }
+
+  private Rule matchRule(String url) {
+    for (Rule rule : rules) {
+      if (rule.pattern.matcher(url).find()) {
+        return rule;
+      }
+    }
+    return null;
+  }
+
+  private void record(String host, boolean render) {
+    int hosts;
+    synchronized (hostStats) {
+      HostRouteStats stats = hostStats.get(host);
+      if (stats == null) {
+        stats = new HostRouteStats();
+        hostStats.put(host, stats);
+      }
+      stats.record(render);
+      hosts = hostStats.size();
+    }
+    (render ? rendered : skipped).incrementAndGet();
+
+    long count = decisions.incrementAndGet();
+    if (statsInterval > 0 && count % statsInterval == 0) {
+      LOG.info("Render routing: {} pages rendered, {} served without the"
+          + " browser, {} hosts tracked", rendered.get(), skipped.get(), hosts);
+    }
+  }
+
+  private static String mimeType(String contentType) {
+    int semicolon = contentType.indexOf(';');
+    String mime = semicolon < 0 ? contentType : contentType.substring(0,
+        semicolon);
+    return mime.trim().toLowerCase(Locale.ROOT);
+  }
+
+  private static List<Rule> readRules(Configuration conf, String file) {
+    List<Rule> rules = new ArrayList<Rule>();
+    List<String> lines = ConfResources.readLines(conf, file);
+    if (lines == null) {
+      return rules;
+    }
+    for (String line : lines) {
+      char sign = line.charAt(0);
+      if (sign != '+' && sign != '-') {
+        throw new IllegalArgumentException("Invalid first character in "
+            + file + ": " + line);
+      }
+      rules.add(new Rule(sign == '+', Pattern.compile(line.substring(1))));
+    }
+    LOG.info("Loaded {} render rules from {}", rules.size(), file);
+    return rules;
+  }
+}
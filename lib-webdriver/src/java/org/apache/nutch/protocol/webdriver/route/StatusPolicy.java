@@ -0,0 +1,77 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.route;
+
+import java.util.Locale;
+
+/**
+ * The status codes of HTTPClient responses whose pages may be rendered. A page
+ * with any other status is passed on with the body and headers the server
+ * returned: the browser would only show the same error page, or follow a
+ * redirect that Nutch handles itself.
+ *
+ * The table is given as a comma separated list of entries, applied in order:
+ * a status (<code>203</code>), a class (<code>2xx</code>) or a range
+ * (<code>200-206</code>) adds statuses, and the same prefixed with
+ * <code>-</code> removes them again, e.g. <code>2xx,-204,404</code>.
+ */
+public class StatusPolicy {
+
+  private final boolean[] render = new boolean[600];
+
+  public StatusPolicy(String table) {
+    for (String entry : table.split(",")) {
+      entry = entry.trim();
+      if (entry.isEmpty()) {
+        continue;
+      }
+      boolean add = !entry.startsWith("-");
+      String statuses = add ? entry : entry.substring(1).trim();
+      int from;
+      int to;
+      try {
+        if (statuses.length() == 3
+            && statuses.toLowerCase(Locale.ROOT).endsWith("xx")) {
+          from = Integer.parseInt(statuses.substring(0, 1)) * 100;
+          to = from + 99;
+        } else if (statuses.indexOf('-') > 0) {
+          int dash = statuses.indexOf('-');
+          from = Integer.parseInt(statuses.substring(0, dash).trim());
+          to = Integer.parseInt(statuses.substring(dash + 1).trim());
+        } else {
+          from = Integer.parseInt(statuses);
+          to = from;
+        }
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid status entry: " + entry);
+      }
+      if (from < 100 || to >= render.length || from > to) {
+        throw new IllegalArgumentException("Invalid status entry: " + entry);
+      }
+      for (int status = from; status <= to; status++) {
+        render[status] = add;
+      }
+    }
+  }
+
+  /**
+   * @return true if a page with the given status may be rendered
+   */
+  public boolean shouldRender(int status) {
+    return status >= 0 && status < render.length && render[status];
+  }
+}
@@ -0,0 +1,60 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.schedule;
+
+/**
+ * The render limits of one host: how many of its pages may be rendered at the
+ * same time and how many renders it may start per minute.
+ */
+public class HostLimits {
+
+  private final int maxRenders;
+  private final double rate;
+  private final int burst;
+
+  /**
+   * @param maxRenders
+   *          concurrent renders
+   * @param rate
+   *          renders started per minute, 0 for no limit
+   * @param burst
+   *          renders that may start at once after the host has been idle
+   */
+  public HostLimits(int maxRenders, double rate, int burst) {
+    this.maxRenders = Math.max(1, maxRenders);
+    this.rate = Math.max(0, rate);
+    this.burst = Math.max(1, burst);
+  }
+
+  public int getMaxRenders() {
+    return maxRenders;
+  }
+
+  public double getRate() {
+    return rate;
+  }
+
+  public int getBurst() {
+    return burst;
+  }
+
+  @Override
+  public String toString() {
+    return "maxRenders=" + maxRenders + ", rate=" + rate + "/min, burst="
+        + burst;
+  }
+}
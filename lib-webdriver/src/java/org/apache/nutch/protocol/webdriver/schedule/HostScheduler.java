@@ -0,0 +1,379 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.schedule;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.protocol.webdriver.ConfResources;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded queue of renders which hands them out host by host. Each host has
+ * a queue of its own and is served in turn, skipping hosts that are at their
+ * concurrent render limit or have used up their rate budget, so that a slow or
+ * rate limited host does not hold up the renders of the others. Limits apply
+ * to all fetcher threads of the JVM together. A queued item may stand for
+ * several renders of its host, such as a batch: once taken, it can start more
+ * of them with {@link #tryStart(String)} and {@link #awaitToken(String)},
+ * which count against the same limits.
+ *
+ * The scheduler is configured with the following properties:
+ * <ul>
+ * <li><code>webdriver.host.max.renders</code> concurrent renders per host
+ * (default 2)</li>
+ * <li><code>webdriver.host.render.rate</code> renders started per minute and
+ * host, 0 for no limit (default 0)</li>
+ * <li><code>webdriver.host.render.burst</code> renders a host may start at once
+ * after being idle (defaults to <code>webdriver.host.max.renders</code>)</li>
+ * <li><code>webdriver.host.limits.file</code> lines of
+ * <code>host maxRenders [rate [burst]]</code> overriding the limits of single
+ * hosts (default webdriver-host-limits.txt)</li>
+ * </ul>
+ *
+ * @param <T>
+ *          the queued renders
+ */
+public class HostScheduler<T> {
+
+  public static final Logger LOG = LoggerFactory.getLogger(HostScheduler.class);
+
+  private class HostQueue {
+    final String host;
+    final HostLimits limits;
+    final ArrayDeque<T> tasks = new ArrayDeque<T>();
+    int active;
+    double tokens;
+    long refilled = System.nanoTime();
+
+    HostQueue(String host, HostLimits limits) {
+      this.host = host;
+      this.limits = limits;
+      this.tokens = limits.getBurst();
+    }
+
+    void refill(long now) {
+      if (limits.getRate() > 0) {
+        tokens = Math.min(limits.getBurst(), tokens + (now - refilled)
+            * limits.getRate() / TimeUnit.MINUTES.toNanos(1));
+      }
+      refilled = now;
+    }
+
+    /**
+     * @return nanoseconds until a render may start, assuming a free slot
+     */
+    long delay() {
+      if (limits.getRate() <= 0 || tokens >= 1) {
+        return 0;
+      }
+      return (long) Math.ceil((1 - tokens) * TimeUnit.MINUTES.toNanos(1)
+          / limits.getRate());
+    }
+
+    boolean isIdle() {
+      return tasks.isEmpty() && active == 0
+          && (limits.getRate() <= 0 || tokens >= limits.getBurst());
+    }
+  }
+
+  private final int capacity;
+  private final HostLimits defaults;
+  private final Map<String, HostLimits> overrides;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition ready = lock.newCondition();
+  private final Condition notFull = lock.newCondition();
+  private final Condition refilled = lock.newCondition();
+  // hosts in the order they are served
+  private final LinkedHashMap<String, HostQueue> hosts =
+      new LinkedHashMap<String, HostQueue>();
+  private int size;
+  private boolean closed;
+
+  public HostScheduler(int capacity, Configuration conf) {
+    this.capacity = Math.max(1, capacity);
+    int maxRenders = conf.getInt("webdriver.host.max.renders", 2);
+    this.defaults = new HostLimits(maxRenders, conf.getFloat(
+        "webdriver.host.render.rate", 0), conf.getInt(
+        "webdriver.host.render.burst", maxRenders));
+    this.overrides = readLimits(conf, conf.get("webdriver.host.limits.file",
+        "webdriver-host-limits.txt"), defaults);
+  }
+
+  /**
+   * Queues a render, waiting for room if the scheduler is full.
+   *
+   * @return false if there was no room within the timeout or the scheduler is
+   *         closed
+   */
+  public boolean offer(String host, T task, long timeout, TimeUnit unit)
+      throws InterruptedException {
+    long nanos = unit.toNanos(timeout);
+    lock.lock();
+    try {
+      while (size >= capacity && !closed) {
+        if (nanos <= 0) {
+          return false;
+        }
+        nanos = notFull.awaitNanos(nanos);
+      }
+      if (closed) {
+        return false;
+      }
+      HostQueue queue = hosts.get(host);
+      if (queue == null) {
+        queue = new HostQueue(host, limitsOf(host));
+        hosts.put(host, queue);
+      }
+      queue.tasks.addLast(task);
+      size++;
+      ready.signal();
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Takes the next render of the first host, in turn, which may start one. The
+   * host is moved to the end of the turn. The caller has to report the end of
+   * the render with {@link #done(String)}.
+   *
+   * @return the render, or null once the scheduler is closed
+   */
+  public T take() throws InterruptedException {
+    lock.lock();
+    try {
+      while (!closed) {
+        long now = System.nanoTime();
+        long wait = Long.MAX_VALUE;
+        HostQueue chosen = null;
+        for (HostQueue queue : hosts.values()) {
+          if (queue.tasks.isEmpty()
+              || queue.active >= queue.limits.getMaxRenders()) {
+            continue;
+          }
+          queue.refill(now);
+          long delay = queue.delay();
+          if (delay == 0) {
+            chosen = queue;
+            break;
+          }
+          wait = Math.min(wait, delay);
+        }
+        if (chosen != null) {
+          T task = chosen.tasks.pollFirst();
+          chosen.active++;
+          chosen.tokens--;
+          size--;
+          // the next render goes to another host if one is waiting
+          hosts.remove(chosen.host);
+          hosts.put(chosen.host, chosen);
+          notFull.signal();
+          if (size > 0) {
+            // another host may be able to start a render as well
+            ready.signal();
+          }
+          return task;
+        }
+        if (wait == Long.MAX_VALUE) {
+          ready.await();
+        } else {
+          ready.awaitNanos(wait);
+        }
+      }
+      return null;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Frees the slot of a render of the host taken with {@link #take()}.
+   */
+  public void done(String host) {
+    lock.lock();
+    try {
+      HostQueue queue = hosts.get(host);
+      if (queue == null) {
+        return;
+      }
+      queue.active--;
+      if (!queue.tasks.isEmpty()) {
+        ready.signal();
+      }
+      pruneIdle();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Takes one more render slot of a host whose render taken with
+   * {@link #take()} is in progress, if the concurrent render limit of the host
+   * allows it. The slot is freed with {@link #done(String)}.
+   *
+   * @return false if the host is at its limit or the scheduler is closed
+   */
+  public boolean tryStart(String host) {
+    lock.lock();
+    try {
+      HostQueue queue = hosts.get(host);
+      if (closed || queue == null
+          || queue.active >= queue.limits.getMaxRenders()) {
+        return false;
+      }
+      queue.active++;
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Takes a rate token of a host whose render taken with {@link #take()} is
+   * in progress, for a further render that does not go through the queue,
+   * such as the next page of a batch. Waits until the rate budget of the host
+   * allows it, or the scheduler is closed.
+   */
+  public void awaitToken(String host) throws InterruptedException {
+    lock.lock();
+    try {
+      while (!closed) {
+        HostQueue queue = hosts.get(host);
+        if (queue == null) {
+          return;
+        }
+        queue.refill(System.nanoTime());
+        long delay = queue.delay();
+        if (delay == 0) {
+          queue.tokens--;
+          return;
+        }
+        refilled.awaitNanos(delay);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the number of queued renders
+   */
+  public int size() {
+    lock.lock();
+    try {
+      return size;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the number of renders in progress for the host
+   */
+  public int getActive(String host) {
+    lock.lock();
+    try {
+      HostQueue queue = hosts.get(host);
+      return queue == null ? 0 : queue.active;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Stops handing out renders and wakes up all waiting threads.
+   *
+   * @return the renders that were still queued
+   */
+  public List<T> close() {
+    lock.lock();
+    try {
+      closed = true;
+      List<T> pending = new ArrayList<T>(size);
+      for (HostQueue queue : hosts.values()) {
+        pending.addAll(queue.tasks);
+        queue.tasks.clear();
+      }
+      size = 0;
+      ready.signalAll();
+      notFull.signalAll();
+      refilled.signalAll();
+      return pending;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Drops hosts with nothing to do whose rate budget has refilled, so that the
+   * map does not keep every host ever rendered. Called with the lock held.
+   */
+  private void pruneIdle() {
+    long now = System.nanoTime();
+    Iterator<HostQueue> it = hosts.values().iterator();
+    while (it.hasNext()) {
+      HostQueue queue = it.next();
+      if (queue.tasks.isEmpty() && queue.active == 0) {
+        queue.refill(now);
+        if (queue.isIdle()) {
+          it.remove();
+        }
+      }
+    }
+  }
+
+  private HostLimits limitsOf(String host) {
+    HostLimits limits = overrides.get(host);
+    return limits != null ? limits : defaults;
+  }
+
+  private static Map<String, HostLimits> readLimits(Configuration conf,
+      String file, HostLimits defaults) {
+    Map<String, HostLimits> limits = new HashMap<String, HostLimits>();
+    List<String> lines = ConfResources.readLines(conf, file);
+    if (lines == null) {
+      return limits;
+    }
+    for (String line : lines) {
+      String[] parts = line.split("\\s+");
+      if (parts.length < 2) {
+        throw new IllegalArgumentException("Missing limits in " + file + ": "
+            + line);
+      }
+      int maxRenders = Integer.parseInt(parts[1]);
+      double rate = parts.length > 2 ? Double.parseDouble(parts[2]) : defaults
+          .getRate();
+      int burst = parts.length > 3 ? Integer.parseInt(parts[3]) : maxRenders;
+      limits.put(parts[0], new HostLimits(maxRenders, rate, burst));
+    }
+    LOG.info("Loaded render limits of {} hosts from {}", limits.size(), file);
+    return limits;
+  }
+}
@@ -0,0 +1,127 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.state;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.io.Text;
+import org.openqa.selenium.Cookie;
+
+/**
+ * The browser state of one host, captured from a session which rendered one
+ * of its pages: the cookies visible to the page and the entries of its local
+ * storage. Consent answers and logins are kept by sites in either.
+ */
+public class HostState {
+
+  private final long captured;
+  private final List<Cookie> cookies;
+  private final Map<String, String> storage;
+
+  public HostState(long captured, List<Cookie> cookies,
+      Map<String, String> storage) {
+    this.captured = captured;
+    this.cookies = Collections.unmodifiableList(new ArrayList<Cookie>(cookies));
+    this.storage = Collections.unmodifiableMap(
+        new LinkedHashMap<String, String>(storage));
+  }
+
+  /**
+   * @return the time the state was captured, in milliseconds since the epoch
+   */
+  public long getCaptured() {
+    return captured;
+  }
+
+  /**
+   * @return the cookies which had not expired at the given time
+   */
+  public List<Cookie> getCookies(long now) {
+    List<Cookie> live = new ArrayList<Cookie>(cookies.size());
+    for (Cookie cookie : cookies) {
+      if (cookie.getExpiry() == null || cookie.getExpiry().getTime() > now) {
+        live.add(cookie);
+      }
+    }
+    return live;
+  }
+
+  public Map<String, String> getStorage() {
+    return storage;
+  }
+
+  /**
+   * @return true if there is nothing to restore
+   */
+  public boolean isEmpty() {
+    return cookies.isEmpty() && storage.isEmpty();
+  }
+
+  void write(DataOutput out) throws IOException {
+    out.writeLong(captured);
+    out.writeInt(cookies.size());
+    for (Cookie cookie : cookies) {
+      Text.writeString(out, cookie.getName());
+      Text.writeString(out, cookie.getValue());
+      Text.writeString(out, cookie.getDomain() != null ? cookie.getDomain()
+          : "");
+      Text.writeString(out, cookie.getPath() != null ? cookie.getPath() : "");
+      out.writeLong(cookie.getExpiry() != null ? cookie.getExpiry().getTime()
+          : -1);
+      out.writeBoolean(cookie.isSecure());
+      out.writeBoolean(cookie.isHttpOnly());
+    }
+    out.writeInt(storage.size());
+    for (Map.Entry<String, String> entry : storage.entrySet()) {
+      Text.writeString(out, entry.getKey());
+      Text.writeString(out, entry.getValue());
+    }
+  }
+
+  static HostState read(DataInput in) throws IOException {
+    long captured = in.readLong();
+    int count = in.readInt();
+    List<Cookie> cookies = new ArrayList<Cookie>(count);
+    for (int i = 0; i < count; i++) {
+      String name = Text.readString(in);
+      String value = Text.readString(in);
+      String domain = Text.readString(in);
+      String path = Text.readString(in);
+      long expiry = in.readLong();
+      boolean secure = in.readBoolean();
+      boolean httpOnly = in.readBoolean();
+      cookies.add(new Cookie(name, value, domain.isEmpty() ? null : domain,
+          path.isEmpty() ? null : path, expiry >= 0 ? new Date(expiry) : null,
+          secure, httpOnly));
+    }
+    count = in.readInt();
+    Map<String, String> storage = new LinkedHashMap<String, String>();
+    for (int i = 0; i < count; i++) {
+      String key = Text.readString(in);
+      storage.put(key, Text.readString(in));
+    }
+    return new HostState(captured, cookies, storage);
+  }
+}
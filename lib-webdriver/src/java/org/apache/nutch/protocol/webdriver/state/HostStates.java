@@ -0,0 +1,311 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.state;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.nutch.protocol.webdriver.HostStore;
+import org.apache.nutch.protocol.webdriver.RenderDeadline;
+import org.apache.nutch.protocol.webdriver.pool.BrowserTab;
+import org.apache.nutch.protocol.webdriver.pool.TabCommand;
+import org.openqa.selenium.Cookie;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the browser state of hosts whose pages should not start from a fresh
+ * session: the cookies and local storage left by the first rendered page of
+ * a host, after answering its consent dialog, are captured and restored in
+ * every other session before it renders a page of the host. Pages behind a
+ * cookie banner, a consent interstitial or a session redirect then render
+ * directly, as they do in a browser which has visited the site before.
+ *
+ * A session is given the state of a host once, on a cheap page of the host
+ * (<code>webdriver.state.restore.path</code>, by default
+ * <code>/robots.txt</code>), because WebDriver only sets cookies of the
+ * document that is loaded. The state of a host is captured again when it is
+ * older than <code>webdriver.state.refresh</code> minutes. States are kept in
+ * the directory <code>webdriver.state.path</code> on the Hadoop file system,
+ * read when the first fetcher thread starts and written back periodically
+ * and when the JVM exits, so that they carry over to the next crawl cycle.
+ * Only the states of the <code>webdriver.state.max.hosts</code> most
+ * recently captured or restored hosts are kept.
+ *
+ * @see HostStore
+ */
+public class HostStates {
+
+  public static final Logger LOG = LoggerFactory.getLogger(HostStates.class);
+
+  private static final HostStore.Codec<HostState> CODEC =
+      new HostStore.Codec<HostState>() {
+        @Override
+        public void write(HostState state, DataOutput out) throws IOException {
+          state.write(out);
+        }
+
+        @Override
+        public HostState read(DataInput in) throws IOException {
+          return HostState.read(in);
+        }
+      };
+
+  /**
+   * Clicks the first visible element matching one of the given selectors.
+   */
+  private static final String CONSENT_SCRIPT = "var s = arguments[0];"
+      + "for (var i = 0; i < s.length; i++) {"
+      + "  var e = null;"
+      + "  try { e = document.querySelector(s[i]); } catch (x) {}"
+      + "  if (e && e.getClientRects().length > 0) { e.click(); return true; }"
+      + "}"
+      + "return false;";
+
+  /**
+   * Returns the entries of the local storage, skipping those which would take
+   * it over the given number of characters.
+   */
+  private static final String STORAGE_SCRIPT = "var s = {}, n = 0;"
+      + "try {"
+      + "  for (var i = 0; i < localStorage.length; i++) {"
+      + "    var k = localStorage.key(i), v = localStorage.getItem(k);"
+      + "    if (arguments[0] >= 0 && n + k.length + v.length > arguments[0])"
+      + "      continue;"
+      + "    n += k.length + v.length;"
+      + "    s[k] = v;"
+      + "  }"
+      + "} catch (x) {}"
+      + "return s;";
+
+  private static final String RESTORE_SCRIPT = "var s = arguments[0];"
+      + "try { for (var k in s) localStorage.setItem(k, s[k]); } catch (x) {}";
+
+  private static HostStates instance;
+
+  private final HostStore<HostState> states;
+  private final List<String> hosts;
+  private final long refresh;
+  private final String restorePath;
+  private final List<String> consentSelectors;
+  private final long consentWait;
+  private final int maxStorage;
+  // hosts whose state a render is capturing
+  private final Set<String> capturing = ConcurrentHashMap.newKeySet();
+
+  HostStates(Configuration conf) {
+    this.states = new HostStore<HostState>(conf, new Path(conf.get(
+        "webdriver.state.path", "webdriver-host-state")), "browser states",
+        conf.getInt("webdriver.state.max.hosts", 1000), CODEC);
+    this.hosts = new ArrayList<String>();
+    for (String host : conf.getTrimmedStrings("webdriver.state.hosts")) {
+      hosts.add(host.toLowerCase(Locale.ROOT));
+    }
+    this.refresh = TimeUnit.MINUTES.toMillis(conf.getLong(
+        "webdriver.state.refresh", 1440));
+    this.restorePath = conf.get("webdriver.state.restore.path",
+        "/robots.txt");
+    this.consentSelectors = Arrays.asList(conf.getTrimmedStrings(
+        "webdriver.state.consent.selectors"));
+    this.consentWait = conf.getLong("webdriver.state.consent.wait", 1000);
+    this.maxStorage = conf.getInt("webdriver.state.max.storage", 32768);
+  }
+
+  /**
+   * Returns the states shared by all fetcher threads of this JVM, reading
+   * them on first use.
+   *
+   * @return null unless <code>webdriver.state.enabled</code> is set
+   */
+  public static synchronized HostStates get(Configuration conf) {
+    if (instance == null && conf != null
+        && conf.getBoolean("webdriver.state.enabled", false)) {
+      instance = new HostStates(conf);
+      instance.states.load();
+      instance.states.schedule(conf.getLong("webdriver.state.save.interval",
+          300));
+    }
+    return instance;
+  }
+
+  /**
+   * @return true if the state of the host is kept: all hosts unless
+   *         <code>webdriver.state.hosts</code> lists the domains to keep it
+   *         for
+   */
+  public boolean isKept(String host) {
+    if (hosts.isEmpty()) {
+      return true;
+    }
+    host = host.toLowerCase(Locale.ROOT);
+    for (String domain : hosts) {
+      if (host.equals(domain) || host.endsWith("." + domain)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the captured state of the host, or null if there is none
+   */
+  public HostState getState(String host) {
+    return states.get(host);
+  }
+
+  /**
+   * Loads the page of the url's host given by
+   * <code>webdriver.state.restore.path</code> in the tab, and sets the
+   * cookies and local storage captured for the host. Cookies the browser
+   * refuses are skipped; if the page cannot be loaded, the render goes on
+   * without the state.
+   *
+   * @return true if the state was restored
+   */
+  public boolean restore(BrowserTab tab, URL url, RenderDeadline deadline) {
+    final HostState state = states.get(url.getHost());
+    if (state == null || state.isEmpty()) {
+      return false;
+    }
+    deadline.check(url.toString());
+    final String origin = url.getProtocol() + "://" + url.getHost()
+        + (url.getPort() >= 0 ? ":" + url.getPort() : "");
+    try {
+      tab.execute(new TabCommand<Void>() {
+        @Override
+        public Void run(WebDriver driver) {
+          // bounded by the page load timeout of the session
+          driver.get(origin + restorePath);
+          for (Cookie cookie : state.getCookies(System.currentTimeMillis())) {
+            try {
+              driver.manage().addCookie(cookie);
+            } catch (WebDriverException e) {
+              LOG.debug("Cannot restore cookie {} of {}", cookie.getName(),
+                  origin);
+            }
+          }
+          if (!state.getStorage().isEmpty()) {
+            ((JavascriptExecutor) driver).executeScript(RESTORE_SCRIPT,
+                state.getStorage());
+          }
+          return null;
+        }
+      });
+    } catch (WebDriverException e) {
+      LOG.warn("Failed to restore the browser state of {}: {}", url.getHost(),
+          e.getMessage());
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Claims the capture of the state of the host, if it is kept and has not
+   * been captured recently. A claim must be followed by {@link #capture} or
+   * {@link #abandon}.
+   *
+   * @return true if the caller should capture the state
+   */
+  public boolean claim(String host) {
+    if (!isKept(host)) {
+      return false;
+    }
+    HostState state = states.get(host);
+    if (state != null
+        && System.currentTimeMillis() - state.getCaptured() < refresh) {
+      return false;
+    }
+    return capturing.add(host);
+  }
+
+  public void abandon(String host) {
+    capturing.remove(host);
+  }
+
+  /**
+   * Answers the consent dialog of the page loaded in the tab by clicking the
+   * first visible element matching
+   * <code>webdriver.state.consent.selectors</code>, and captures the cookies
+   * and local storage of the page as the state of the host, which must have
+   * been claimed with {@link #claim}. A failure is logged, the page has been
+   * rendered already.
+   */
+  public void capture(BrowserTab tab, String host, RenderDeadline deadline) {
+    try {
+      if (!consentSelectors.isEmpty()) {
+        Object clicked = tab.execute(new TabCommand<Object>() {
+          @Override
+          public Object run(WebDriver driver) {
+            return ((JavascriptExecutor) driver).executeScript(
+                CONSENT_SCRIPT, consentSelectors);
+          }
+        });
+        if (Boolean.TRUE.equals(clicked)) {
+          long wait = deadline.cap(consentWait);
+          if (wait > 0) {
+            // consent managers store the answer asynchronously
+            Thread.sleep(wait);
+          }
+        }
+      }
+      HostState state = tab.execute(new TabCommand<HostState>() {
+        @Override
+        public HostState run(WebDriver driver) {
+          List<Cookie> cookies = new ArrayList<Cookie>(
+              driver.manage().getCookies());
+          Map<String, String> storage = new LinkedHashMap<String, String>();
+          Object entries = ((JavascriptExecutor) driver).executeScript(
+              STORAGE_SCRIPT, maxStorage);
+          if (entries instanceof Map) {
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) entries).entrySet()) {
+              storage.put(String.valueOf(e.getKey()),
+                  String.valueOf(e.getValue()));
+            }
+          }
+          return new HostState(System.currentTimeMillis(), cookies, storage);
+        }
+      });
+      states.put(host, state);
+      LOG.debug("Captured {} cookies and {} storage entries of {}",
+          state.getCookies(state.getCaptured()).size(),
+          state.getStorage().size(), host);
+    } catch (WebDriverException e) {
+      LOG.warn("Failed to capture the browser state of {}: {}", host,
+          e.getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      capturing.remove(host);
+    }
+  }
+}
@@ -0,0 +1,56 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.trace;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openqa.selenium.remote.Command;
+import org.openqa.selenium.remote.CommandExecutor;
+import org.openqa.selenium.remote.Response;
+
+/**
+ * Sends the commands of a session with another executor and records those
+ * sent while rendering a sampled url, with their responses, to a
+ * {@link TraceWriter}. A command which fails on the way to the driver is not
+ * recorded, an error returned by the driver is.
+ */
+public class RecordingCommandExecutor implements CommandExecutor {
+
+  private final CommandExecutor executor;
+  private final TraceWriter writer;
+
+  public RecordingCommandExecutor(CommandExecutor executor,
+      TraceWriter writer) {
+    this.executor = executor;
+    this.writer = writer;
+  }
+
+  @Override
+  public Response execute(Command command) throws IOException {
+    String url = RenderTrace.current();
+    if (url == null || Trace.SESSION_COMMANDS.contains(command.getName())
+        || !writer.isSampled(url)) {
+      return executor.execute(command);
+    }
+    long start = System.nanoTime();
+    Response response = executor.execute(command);
+    writer.writeCommand(url, command, response,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    return response;
+  }
+}
@@ -0,0 +1,52 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.trace;
+
+/**
+ * The url a thread is rendering. WebDriver commands are sent by the thread
+ * which runs the render, so that a {@link RecordingCommandExecutor} can file
+ * them under the url and a {@link ReplayCommandExecutor} can answer them from
+ * the commands recorded for it. Commands sent outside of a render, such as
+ * those opening sessions and windows, belong to no url.
+ */
+public class RenderTrace {
+
+  private static final ThreadLocal<String> URL = new ThreadLocal<String>();
+
+  private RenderTrace() {
+  }
+
+  /**
+   * Files the commands the calling thread sends from now on under the url,
+   * until {@link #end()}.
+   */
+  public static void begin(String url) {
+    URL.set(url);
+    ReplayCommandExecutor.rewind();
+  }
+
+  public static void end() {
+    URL.remove();
+  }
+
+  /**
+   * @return the url the calling thread is rendering, or null
+   */
+  public static String current() {
+    return URL.get();
+  }
+}
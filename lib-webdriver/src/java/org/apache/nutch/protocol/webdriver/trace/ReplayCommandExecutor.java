@@ -0,0 +1,134 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.trace;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.nutch.protocol.webdriver.NavigationException;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.remote.Command;
+import org.openqa.selenium.remote.CommandExecutor;
+import org.openqa.selenium.remote.DriverCommand;
+import org.openqa.selenium.remote.ErrorCodes;
+import org.openqa.selenium.remote.Response;
+
+/**
+ * Answers the commands of a session from a {@link Trace}, without a driver or
+ * a browser: the commands of a render get the responses recorded for its
+ * url, after the time they took when recorded. Sessions and windows are
+ * simulated. A render of a url which is not in the trace fails as if the url
+ * could not be loaded.
+ */
+public class ReplayCommandExecutor implements CommandExecutor {
+
+  private static final AtomicInteger SESSIONS = new AtomicInteger();
+
+  // position of the render of the calling thread in the recorded commands
+  private static final ThreadLocal<int[]> CURSOR = new ThreadLocal<int[]>() {
+    @Override
+    protected int[] initialValue() {
+      return new int[1];
+    }
+  };
+
+  private final Trace trace;
+  private final String sessionId = "replay-" + SESSIONS.incrementAndGet();
+  private final List<String> windows = new ArrayList<String>();
+  private String currentWindow;
+  private int windowIds;
+
+  public ReplayCommandExecutor(Trace trace) {
+    this.trace = trace;
+  }
+
+  /**
+   * Starts the render of the calling thread at the first recorded command of
+   * its url.
+   */
+  static void rewind() {
+    CURSOR.remove();
+  }
+
+  @Override
+  public Response execute(Command command) throws IOException {
+    String url = RenderTrace.current();
+    if (url == null || Trace.SESSION_COMMANDS.contains(command.getName())) {
+      return respond(ErrorCodes.SUCCESS, simulate(command));
+    }
+    Trace.CommandRecord record = trace.next(url, command, CURSOR.get());
+    if (record == null) {
+      throw new NavigationException("No " + command.getName()
+          + " command recorded for " + url);
+    }
+    try {
+      trace.pause(record.getDelay());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new WebDriverException("Interrupted replaying " + url, e);
+    }
+    return respond(record.getStatus(), record.getValue());
+  }
+
+  private Response respond(int status, Object value) {
+    Response response = new Response();
+    response.setSessionId(sessionId);
+    response.setStatus(status);
+    response.setValue(value);
+    return response;
+  }
+
+  private synchronized Object simulate(Command command) {
+    String name = command.getName();
+    Map<String, ?> parameters = command.getParameters();
+    if (DriverCommand.NEW_SESSION.equals(name)) {
+      currentWindow = openWindow();
+      Map<String, Object> capabilities = new HashMap<String, Object>();
+      capabilities.put("browserName", "firefox");
+      capabilities.put("version", "replay");
+      return capabilities;
+    } else if (DriverCommand.GET_CURRENT_WINDOW_HANDLE.equals(name)) {
+      return currentWindow;
+    } else if (DriverCommand.GET_WINDOW_HANDLES.equals(name)) {
+      return new ArrayList<String>(windows);
+    } else if (DriverCommand.SWITCH_TO_WINDOW.equals(name)) {
+      Object handle = parameters.containsKey("handle") ? parameters
+          .get("handle") : parameters.get("name");
+      if (!windows.contains(handle)) {
+        throw new WebDriverException("No window " + handle);
+      }
+      currentWindow = (String) handle;
+    } else if (DriverCommand.CLOSE.equals(name)) {
+      windows.remove(currentWindow);
+      currentWindow = null;
+    } else if (DriverCommand.EXECUTE_SCRIPT.equals(name)
+        && String.valueOf(parameters.get("script")).contains("window.open(")) {
+      openWindow();
+    }
+    return null;
+  }
+
+  private String openWindow() {
+    String handle = "window-" + windowIds++;
+    windows.add(handle);
+    return handle;
+  }
+}
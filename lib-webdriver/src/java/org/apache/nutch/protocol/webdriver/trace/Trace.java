@@ -0,0 +1,364 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.trace;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.openqa.selenium.remote.Command;
+import org.openqa.selenium.remote.DriverCommand;
+import org.openqa.selenium.remote.JsonToBeanConverter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * WebDriver commands and plain HTTP requests recorded by a
+ * {@link TraceWriter}, loaded from all files under
+ * <code>webdriver.trace.path</code> to be replayed. The commands of a url are
+ * kept in the order they were sent; a {@link ReplayCommandExecutor} answers
+ * each command of a render with the next recorded command of the same name
+ * and script, and waits as long as the browser took, scaled by
+ * <code>webdriver.trace.replay.speed</code>.
+ */
+public class Trace {
+
+  public static final Logger LOG = LoggerFactory.getLogger(Trace.class);
+
+  static final String COMMAND = "command";
+  static final String HTTP = "http";
+
+  /**
+   * Commands which manage sessions and windows rather than render a page.
+   * They are not recorded; a {@link ReplayCommandExecutor} answers them by
+   * itself.
+   */
+  static final Set<String> SESSION_COMMANDS = new HashSet<String>(
+      Arrays.asList(DriverCommand.NEW_SESSION, DriverCommand.QUIT,
+          DriverCommand.CLOSE, DriverCommand.GET_CURRENT_WINDOW_HANDLE,
+          DriverCommand.GET_WINDOW_HANDLES, DriverCommand.SWITCH_TO_WINDOW,
+          DriverCommand.SET_TIMEOUT, DriverCommand.SET_SCRIPT_TIMEOUT));
+
+  /**
+   * A recorded WebDriver command and its response.
+   */
+  public static class CommandRecord {
+    private final String name;
+    private final String script;
+    private final int status;
+    private final Object value;
+    private final long delay;
+
+    CommandRecord(String name, String script, int status, Object value,
+        long delay) {
+      this.name = name;
+      this.script = script;
+      this.status = status;
+      this.value = value;
+      this.delay = delay;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public int getStatus() {
+      return status;
+    }
+
+    /**
+     * @return the value of the response, as decoded from the wire
+     */
+    public Object getValue() {
+      return value;
+    }
+
+    public long getDelay() {
+      return delay;
+    }
+
+    boolean matches(String name, String script, boolean sameScript) {
+      if (!this.name.equals(name)) {
+        return false;
+      }
+      return !sameScript
+          || (script == null ? this.script == null
+              : script.equals(this.script));
+    }
+  }
+
+  /**
+   * A recorded HTTP response.
+   */
+  public static class HttpRecord {
+    private final int code;
+    private final Map<String, String[]> headers;
+    private final byte[] body;
+    private final long delay;
+
+    HttpRecord(int code, Map<String, String[]> headers, byte[] body,
+        long delay) {
+      this.code = code;
+      this.headers = Collections.unmodifiableMap(headers);
+      this.body = body;
+      this.delay = delay;
+    }
+
+    public int getCode() {
+      return code;
+    }
+
+    public Map<String, String[]> getHeaders() {
+      return headers;
+    }
+
+    /**
+     * @return the decoded body, or null for a <code>HEAD</code> request
+     */
+    public byte[] getBody() {
+      return body;
+    }
+
+    public long getDelay() {
+      return delay;
+    }
+  }
+
+  private static Trace instance;
+
+  private final Map<String, List<CommandRecord>> commands =
+      new HashMap<String, List<CommandRecord>>();
+  private final Map<String, HttpRecord> requests =
+      new HashMap<String, HttpRecord>();
+  private final double speed;
+
+  Trace(double speed) {
+    this.speed = speed;
+  }
+
+  /**
+   * Returns the trace replayed by all fetcher threads of this JVM, reading it
+   * on first use.
+   *
+   * @return null unless <code>webdriver.trace.mode</code> is
+   *         <code>replay</code>
+   * @throws IllegalStateException
+   *           if the trace cannot be read
+   */
+  public static synchronized Trace get(Configuration conf) {
+    if (instance == null && conf != null
+        && "replay".equals(conf.getTrimmed("webdriver.trace.mode", "off"))) {
+      Trace trace = new Trace(conf.getFloat("webdriver.trace.replay.speed",
+          1f));
+      Path path = new Path(conf.get("webdriver.trace.path", "webdriver-trace"));
+      try {
+        trace.load(path.getFileSystem(conf), path);
+      } catch (IOException e) {
+        throw new IllegalStateException("Cannot read the trace " + path, e);
+      }
+      LOG.info("Replaying {} renders and {} requests from {}",
+          trace.commands.size(), trace.requests.size(), path);
+      instance = trace;
+    }
+    return instance;
+  }
+
+  void load(FileSystem fs, Path path) throws IOException {
+    FileStatus[] files = fs.globStatus(path);
+    if (files == null || files.length == 0) {
+      throw new FileNotFoundException(path.toString());
+    }
+    for (FileStatus status : files) {
+      if (status.isDirectory()) {
+        for (FileStatus child : fs.listStatus(status.getPath())) {
+          if (child.isFile()) {
+            read(fs, child.getPath());
+          }
+        }
+      } else {
+        read(fs, status.getPath());
+      }
+    }
+  }
+
+  private void read(FileSystem fs, Path file) throws IOException {
+    InputStream in = fs.open(file);
+    if (file.getName().endsWith(".gz")) {
+      in = new GZIPInputStream(in);
+    }
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in,
+        StandardCharsets.UTF_8));
+    JsonParser parser = new JsonParser();
+    JsonToBeanConverter converter = new JsonToBeanConverter();
+    int number = 0;
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        number++;
+        line = line.trim();
+        if (line.length() == 0 || line.startsWith("#")) {
+          continue;
+        }
+        try {
+          add(parser.parse(line).getAsJsonObject(), converter);
+        } catch (RuntimeException e) {
+          throw new IOException("Invalid record at " + file + ":" + number, e);
+        }
+      }
+    } catch (EOFException e) {
+      // the file of a fetcher which did not exit cleanly
+      LOG.warn("Trace {} is cut after line {}", file, number);
+    } finally {
+      reader.close();
+    }
+  }
+
+  private void add(JsonObject record, JsonToBeanConverter converter) {
+    String type = record.get("type").getAsString();
+    String url = record.get("url").getAsString();
+    long delay = record.has("delay") ? record.get("delay").getAsLong() : 0;
+    if (COMMAND.equals(type)) {
+      List<CommandRecord> list = commands.get(url);
+      if (list == null) {
+        list = new ArrayList<CommandRecord>();
+        commands.put(url, list);
+      }
+      JsonElement value = record.get("value");
+      list.add(new CommandRecord(record.get("command").getAsString(),
+          record.has("script") ? record.get("script").getAsString() : null,
+          record.get("status").getAsInt(), value == null || value.isJsonNull()
+              ? null : converter.convert(Object.class, value),
+          delay));
+    } else if (HTTP.equals(type)) {
+      String key = record.get("method").getAsString() + " " + url;
+      if (requests.containsKey(key)) {
+        return;
+      }
+      Map<String, String[]> headers = new LinkedHashMap<String, String[]>();
+      for (Map.Entry<String, JsonElement> header : record.getAsJsonObject(
+          "headers").entrySet()) {
+        List<String> values = new ArrayList<String>();
+        for (JsonElement value : header.getValue().getAsJsonArray()) {
+          values.add(value.getAsString());
+        }
+        headers.put(header.getKey(), values.toArray(new String[0]));
+      }
+      byte[] body = record.has("body") ? Base64.getDecoder().decode(
+          record.get("body").getAsString()) : null;
+      requests.put(key, new HttpRecord(record.get("code").getAsInt(),
+          headers, body, delay));
+    }
+  }
+
+  /**
+   * @return the urls rendered in the trace
+   */
+  public Set<String> getUrls() {
+    return Collections.unmodifiableSet(commands.keySet());
+  }
+
+  /**
+   * @return true if the trace has the commands of a render of the url
+   */
+  public boolean hasRender(String url) {
+    return commands.containsKey(url);
+  }
+
+  /**
+   * Finds the recorded answer to a command sent while rendering the url,
+   * starting at the position of the render in the recorded commands and
+   * moving it past the answer. A command of the same name and script is
+   * preferred; a script changed since the recording gets the next command of
+   * the same name, and a command sent more often than recorded, such as a
+   * poll, gets the last answer again.
+   *
+   * @param cursor
+   *          the position of the render, updated in place
+   * @return the answer, or null if the url or command was not recorded
+   */
+  public CommandRecord next(String url, Command command, int[] cursor) {
+    List<CommandRecord> list = commands.get(url);
+    if (list == null) {
+      return null;
+    }
+    String name = command.getName();
+    String script = scriptKey(command);
+    for (boolean sameScript : new boolean[] { true, false }) {
+      for (int i = cursor[0]; i < list.size(); i++) {
+        if (list.get(i).matches(name, script, sameScript)) {
+          cursor[0] = i + 1;
+          return list.get(i);
+        }
+      }
+    }
+    for (int i = list.size() - 1; i >= 0; i--) {
+      if (list.get(i).matches(name, script, true)) {
+        return list.get(i);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return the recorded response to a plain HTTP request, or null
+   */
+  public HttpRecord getRequest(String method, String url) {
+    return requests.get(method + " " + url);
+  }
+
+  /**
+   * Waits as long as the recorded exchange took, scaled by the replay speed.
+   */
+  public void pause(long delay) throws InterruptedException {
+    if (speed > 0 && delay > 0) {
+      TimeUnit.MICROSECONDS.sleep((long) (delay * 1000 / speed));
+    }
+  }
+
+  /**
+   * @return a key of the script a command runs, or null if it runs none
+   */
+  static String scriptKey(Command command) {
+    Object script = command.getParameters() != null ? command.getParameters()
+        .get("script") : null;
+    return script != null ? Integer.toHexString(script.hashCode()) : null;
+  }
+}
@@ -0,0 +1,187 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.trace;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.ShutdownHookManager;
+import org.openqa.selenium.remote.BeanToJsonConverter;
+import org.openqa.selenium.remote.Command;
+import org.openqa.selenium.remote.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Records the WebDriver commands and plain HTTP requests of a sample of the
+ * fetched urls, with their responses and how long they took, to a
+ * {@link Trace} that a later run replays without network. Each JVM writes
+ * its own gzipped file of JSON lines under <code>webdriver.trace.path</code>
+ * on the Hadoop file system; the file is complete once the session pool is
+ * closed or the JVM has exited. A url is sampled, in all fetchers alike, if
+ * its hash falls in the share <code>webdriver.trace.sample.rate</code> of all
+ * hashes.
+ */
+public class TraceWriter {
+
+  public static final Logger LOG = LoggerFactory.getLogger(TraceWriter.class);
+
+  private static TraceWriter instance;
+
+  private final BeanToJsonConverter json = new BeanToJsonConverter();
+  private final Path file;
+  private final int sampled;
+  private Writer out;
+
+  TraceWriter(Configuration conf) throws IOException {
+    Path dir = new Path(conf.get("webdriver.trace.path", "webdriver-trace"));
+    String jvm = ManagementFactory.getRuntimeMXBean().getName()
+        .replaceAll("[^A-Za-z0-9.-]", "-");
+    this.file = new Path(dir, "trace-" + jvm + "-"
+        + System.currentTimeMillis() + ".jsonl.gz");
+    this.sampled = (int) (conf.getFloat("webdriver.trace.sample.rate", 0.01f)
+        * 10000);
+    FileSystem fs = file.getFileSystem(conf);
+    this.out = new OutputStreamWriter(new GZIPOutputStream(fs.create(file,
+        false)), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns the writer shared by all fetcher threads of this JVM, creating
+   * its file on first use.
+   *
+   * @return null unless <code>webdriver.trace.mode</code> is
+   *         <code>record</code>, or if the file cannot be created
+   */
+  public static synchronized TraceWriter get(Configuration conf) {
+    if (instance == null && conf != null
+        && "record".equals(conf.getTrimmed("webdriver.trace.mode", "off"))) {
+      final TraceWriter writer;
+      try {
+        writer = new TraceWriter(conf);
+      } catch (IOException e) {
+        LOG.warn("Cannot record a trace", e);
+        return null;
+      }
+      // the gzip trailer must be written before the file systems are closed
+      ShutdownHookManager.get().addShutdownHook(new Runnable() {
+        @Override
+        public void run() {
+          writer.close();
+        }
+      }, FileSystem.SHUTDOWN_HOOK_PRIORITY + 1);
+      LOG.info("Recording a trace to {}", writer.file);
+      instance = writer;
+    }
+    return instance;
+  }
+
+  /**
+   * @return true if the exchanges of the url are recorded
+   */
+  public boolean isSampled(String url) {
+    return (url.hashCode() & Integer.MAX_VALUE) % 10000 < sampled;
+  }
+
+  /**
+   * Records a command sent while rendering the url, and its response.
+   */
+  public void writeCommand(String url, Command command, Response response,
+      long millis) {
+    JsonObject line = new JsonObject();
+    line.addProperty("type", Trace.COMMAND);
+    line.addProperty("url", url);
+    line.addProperty("command", command.getName());
+    String script = Trace.scriptKey(command);
+    if (script != null) {
+      line.addProperty("script", script);
+    }
+    line.addProperty("status", response.getStatus() != null ? response
+        .getStatus() : 0);
+    line.add("value", json.convertObject(response.getValue()));
+    line.addProperty("delay", millis);
+    write(line);
+  }
+
+  /**
+   * Records a plain HTTP request of the url and its response.
+   *
+   * @param body
+   *          the decoded body, or null for a <code>HEAD</code> request
+   */
+  public void writeHttp(String method, String url, int code,
+      Map<String, String[]> headers, byte[] body, long millis) {
+    JsonObject line = new JsonObject();
+    line.addProperty("type", Trace.HTTP);
+    line.addProperty("method", method);
+    line.addProperty("url", url);
+    line.addProperty("code", code);
+    JsonObject names = new JsonObject();
+    for (Map.Entry<String, String[]> header : headers.entrySet()) {
+      JsonArray values = new JsonArray();
+      for (String value : header.getValue()) {
+        values.add(new JsonPrimitive(value));
+      }
+      names.add(header.getKey(), values);
+    }
+    line.add("headers", names);
+    if (body != null) {
+      line.addProperty("body", Base64.getEncoder().encodeToString(body));
+    }
+    line.addProperty("delay", millis);
+    write(line);
+  }
+
+  private synchronized void write(JsonObject line) {
+    if (out == null) {
+      return;
+    }
+    try {
+      out.write(line.toString());
+      out.write('\n');
+    } catch (IOException e) {
+      LOG.warn("Failed to write to the trace " + file + ", recording stops",
+          e);
+      close();
+    }
+  }
+
+  public synchronized void close() {
+    if (out == null) {
+      return;
+    }
+    try {
+      out.close();
+    } catch (IOException e) {
+      LOG.warn("Failed to close the trace " + file, e);
+    }
+    out = null;
+  }
+}
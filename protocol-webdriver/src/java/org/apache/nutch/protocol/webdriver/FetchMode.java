@@ -0,0 +1,49 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver;
+
+import java.util.Locale;
+
+/**
+ * How {@link HttpResponse} obtains the status code and headers of a url, set
+ * with <code>webdriver.http.fetch.mode</code>.
+ */
+public enum FetchMode {
+
+  /**
+   * A full GET with HTTPClient followed by the browser navigation. The url is
+   * downloaded twice.
+   */
+  GET,
+
+  /**
+   * A HEAD request with HTTPClient for the status code and headers, the body
+   * only comes from the browser.
+   */
+  HEAD,
+
+  /**
+   * No HTTPClient request at all. The status code, content type and charset
+   * are taken from the browser navigation; only when the browser does not
+   * expose the status is it asked for with HTTPClient.
+   */
+  BROWSER;
+
+  public static FetchMode parse(String value) {
+    return valueOf(value.trim().toUpperCase(Locale.ROOT));
+  }
+}
@@ -18,28 +18,39 @@ package org.apache.nutch.protocol.webdriver;
 
 // JDK imports
 import java.io.IOException;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
-
-import org.apache.commons.httpclient.HostConfiguration;
-import org.apache.commons.httpclient.HttpClient;
-import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
-import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
-import org.apache.commons.httpclient.protocol.Protocol;
-import org.apache.commons.httpclient.protocol.ProtocolSocketFactory;
-import org.apache.commons.httpclient.protocol.SSLProtocolSocketFactory;
-import org.apache.commons.httpclient.Header;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.nutch.net.protocols.Response;
+import org.apache.nutch.protocol.ProtocolOutput;
+import org.apache.nutch.protocol.ProtocolStatusCodes;
+import org.apache.nutch.protocol.ProtocolStatusUtils;
 import org.apache.nutch.protocol.http.api.HttpBase;
 import org.apache.nutch.protocol.ProtocolException;
 import org.apache.nutch.util.NutchConfiguration;
+import org.apache.nutch.storage.ProtocolStatus;
 import org.apache.nutch.storage.WebPage;
 
+import org.apache.nutch.protocol.webdriver.BatchHandler;
 import org.apache.nutch.protocol.webdriver.HttpResponse;
+import org.apache.nutch.protocol.webdriver.HttpWebClient;
+import org.apache.nutch.protocol.webdriver.RenderException;
+import org.apache.nutch.protocol.webdriver.client.CommonsHttpBackend;
+import org.apache.nutch.protocol.webdriver.client.HttpClientBackend;
+import org.apache.nutch.protocol.webdriver.client.OkHttpBackend;
+import org.apache.nutch.protocol.webdriver.client.RecordingBackend;
+import org.apache.nutch.protocol.webdriver.client.ReplayBackend;
+import org.apache.nutch.protocol.webdriver.route.RenderRouter;
+import org.apache.nutch.protocol.webdriver.trace.Trace;
+import org.apache.nutch.protocol.webdriver.trace.TraceWriter;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,6 +61,12 @@ import org.slf4j.LoggerFactory;
  * Also, It allows to configure the proxy settings, but require the proxy server
  * as a cascading proxy server if using Basic, Digest and NTLM authentication
  * scheme .
+ * The plain HTTP requests are sent by the {@link HttpClientBackend} named by
+ * <code>webdriver.http.client</code>: <code>okhttp</code> (default), with
+ * HTTP/2 and shared keep-alive connections, or <code>commons</code>, Commons
+ * HttpClient 3. With <code>webdriver.trace.mode</code> set, the requests of
+ * sampled urls are recorded to a trace, or all requests are answered from
+ * one.
  * 
  * @author Kiyonari Harigae
  */
@@ -59,17 +76,28 @@ public class Http extends HttpBase {
 
   private static final Collection<WebPage.Field> FIELDS = new HashSet<WebPage.Field>();
 
-  private static MultiThreadedHttpConnectionManager connectionManager = new MultiThreadedHttpConnectionManager();
+  private int maxThreadsTotal = 10;
 
-  // Since the Configuration has not yet been set,
-  // then an unconfigured client is returned.
-  private static HttpClient client = new HttpClient(connectionManager);
+  private int maxConnectionsPerHost = 10;
 
-  private int maxThreadsTotal = 10;
+  private FetchMode fetchMode = FetchMode.GET;
+
+  private RenderRouter renderRouter;
+
+  private HttpClientBackend clientBackend;
+
+  private int maxFingerprintDistance = 3;
+
+  private boolean unchangedNotModified = true;
+
+  // the render failure of the fetch in progress on the calling thread
+  private static final ThreadLocal<RenderException> FAILURE =
+      new ThreadLocal<RenderException>();
 
   static {
     FIELDS.add(WebPage.Field.MODIFIED_TIME);
     FIELDS.add(WebPage.Field.HEADERS);
+    FIELDS.add(WebPage.Field.METADATA);
   }
 
   public Http() {
@@ -80,7 +108,33 @@ public class Http extends HttpBase {
   public void setConf(Configuration conf) {
     super.setConf(conf);
     this.maxThreadsTotal = conf.getInt("fetcher.threads.fetch", 10);
-    configureClient();
+    // a fetch queue never runs more threads than this, so more connections
+    // to one host are not needed
+    this.maxConnectionsPerHost = conf.getInt(
+        "webdriver.http.max.connections.per.host",
+        conf.getInt("fetcher.threads.per.queue", 1));
+    this.fetchMode = FetchMode.parse(conf.get("webdriver.http.fetch.mode",
+        "get"));
+    this.renderRouter = new RenderRouter(conf);
+    this.maxFingerprintDistance = conf.getInt(
+        "webdriver.fingerprint.max.distance", 3);
+    this.unchangedNotModified = conf.getBoolean(
+        "webdriver.fingerprint.not.modified", true);
+    String client = conf.get("webdriver.http.client", "okhttp").trim();
+    if ("okhttp".equals(client)) {
+      this.clientBackend = new OkHttpBackend(this, conf);
+    } else if ("commons".equals(client)) {
+      this.clientBackend = new CommonsHttpBackend(this);
+    } else {
+      throw new IllegalArgumentException("Unknown HTTP client: " + client);
+    }
+    Trace trace = Trace.get(conf);
+    TraceWriter traceWriter = TraceWriter.get(conf);
+    if (trace != null) {
+      this.clientBackend = new ReplayBackend(trace);
+    } else if (traceWriter != null) {
+      this.clientBackend = new RecordingBackend(clientBackend, traceWriter);
+    }
   }
 
   public static void main(String[] args) throws Exception {
@@ -92,7 +146,56 @@ public class Http extends HttpBase {
   @Override
   protected Response getResponse(URL url, WebPage page, boolean redirect)
       throws ProtocolException, IOException {
-    return new HttpResponse(this, url, page, getConf());
+    try {
+      return new HttpResponse(this, url, page, getConf());
+    } catch (RenderException e) {
+      FAILURE.set(e);
+      throw e;
+    }
+  }
+
+  /**
+   * Reports a page that could not be rendered with the status of the failure,
+   * see {@link #getStatus(RenderException)}, instead of as an exception.
+   */
+  @Override
+  public ProtocolOutput getProtocolOutput(String url, WebPage page) {
+    FAILURE.remove();
+    ProtocolOutput output = super.getProtocolOutput(url, page);
+    RenderException failure = FAILURE.get();
+    if (failure != null) {
+      FAILURE.remove();
+      return new ProtocolOutput(null, getStatus(failure));
+    }
+    return output;
+  }
+
+  /**
+   * Maps the failure of a render to a protocol status: when no browser or
+   * no memory could be had in time the fetcher is told to come back later
+   * (<code>WOULDBLOCK</code>); a page that failed to load or ran out of time
+   * is retried in a later round (<code>RETRY</code>); a page too large to
+   * capture is reported as an <code>EXCEPTION</code>. The message names the
+   * kind of failure.
+   */
+  static ProtocolStatus getStatus(RenderException failure) {
+    int code;
+    switch (failure.getKind()) {
+    case REJECTED:
+    case ACQUIRE_TIMEOUT:
+    case OVERLOADED:
+      code = ProtocolStatusCodes.WOULDBLOCK;
+      break;
+    case OVERSIZED:
+      code = ProtocolStatusCodes.EXCEPTION;
+      break;
+    default:
+      code = ProtocolStatusCodes.RETRY;
+      break;
+    }
+    return ProtocolStatusUtils.makeStatus(code, "render "
+        + failure.getKind().name().toLowerCase(Locale.ROOT) + ": "
+        + failure.getMessage());
   }
 
   @Override
@@ -100,54 +203,92 @@ public class Http extends HttpBase {
     return FIELDS;
   }
 
-  static synchronized HttpClient getClient() {
-    return client;
+  /**
+   * Fetches several pages of one host as a batch: the pages that are rendered
+   * share one browser session and are rendered back to back, in up to
+   * <code>webdriver.batch.tabs</code> tabs at a time, instead of each waiting
+   * for a session in the render queue. The output of each url is passed to
+   * the consumer as soon as it is fetched, from the thread that fetched it.
+   * 
+   * @return a future completed once every url has been passed to the consumer
+   * @throws IllegalArgumentException
+   *           if the urls are not all of the same host
+   */
+  public CompletableFuture<Void> getProtocolOutputs(final List<String> urls,
+      final List<WebPage> pages,
+      final BiConsumer<String, ProtocolOutput> consumer) {
+    if (urls.size() != pages.size()) {
+      throw new IllegalArgumentException(urls.size() + " urls but "
+          + pages.size() + " pages");
+    }
+    if (urls.isEmpty()) {
+      return CompletableFuture.completedFuture(null);
+    }
+    String host = null;
+    List<Integer> items = new ArrayList<Integer>(urls.size());
+    for (int i = 0; i < urls.size(); i++) {
+      String urlHost;
+      try {
+        urlHost = new URL(urls.get(i)).getHost();
+      } catch (MalformedURLException e) {
+        throw new IllegalArgumentException(e);
+      }
+      if (host == null) {
+        host = urlHost;
+      } else if (!host.equals(urlHost)) {
+        throw new IllegalArgumentException("Batch of " + host
+            + " contains a url of " + urlHost + ": " + urls.get(i));
+      }
+      items.add(i);
+    }
+    return HttpWebClient.submitBatch(host, items, new BatchHandler<Integer>() {
+      @Override
+      public void handle(Integer i) {
+        String url = urls.get(i);
+        consumer.accept(url, getProtocolOutput(url, pages.get(i)));
+      }
+    }, getConf());
+  }
+
+  public FetchMode getFetchMode() {
+    return fetchMode;
+  }
+
+  public RenderRouter getRenderRouter() {
+    return renderRouter;
+  }
+
+  public HttpClientBackend getClientBackend() {
+    return clientBackend;
   }
 
   /**
-   * Configures the HTTP client
+   * @return the number of bits in which the fingerprints of two renderings of
+   *         a page may differ for the page to count as unchanged
    */
-  private void configureClient() {
-
-    // Set up an HTTPS socket factory that accepts self-signed certs.
-    ProtocolSocketFactory factory = new SSLProtocolSocketFactory();
-    Protocol https = new Protocol("https", factory, 443);
-    Protocol.registerProtocol("https", https);
-
-    HttpConnectionManagerParams params = connectionManager.getParams();
-    params.setConnectionTimeout(timeout);
-    params.setSoTimeout(timeout);
-    params.setSendBufferSize(BUFFER_SIZE);
-    params.setReceiveBufferSize(BUFFER_SIZE);
-    params.setMaxTotalConnections(maxThreadsTotal);
-
-    // Also set max connections per host to maxThreadsTotal since all threads
-    // might be used to fetch from the same host - otherwise timeout errors can
-    // occur
-    params.setDefaultMaxConnectionsPerHost(maxThreadsTotal);
-
-    // executeMethod(HttpMethod) seems to ignore the connection timeout on
-    // the connection manager.
-    // set it explicitly on the HttpClient.
-    client.getParams().setConnectionManagerTimeout(timeout);
-
-    HostConfiguration hostConf = client.getHostConfiguration();
-    if (useProxy) {
-      hostConf.setProxy(proxyHost, proxyPort);
-    }
-    ArrayList<Header> headers = new ArrayList<Header>();
-    // prefer English
-    headers.add(new Header("Accept-Language", "en-us,en-gb,en;q=0.7,*;q=0.3"));
-    // prefer UTF-8
-    headers.add(new Header("Accept-Charset", "utf-8,ISO-8859-1;q=0.7,*;q=0.7"));
-    // prefer understandable formats
-    headers
-        .add(new Header(
-            "Accept",
-            "text/html,application/xml;q=0.9,application/xhtml+xml,text/xml;q=0.9,text/plain;q=0.8,image/png,*/*;q=0.5"));
-    // accept gzipped content
-    // headers.add(new Header("Accept-Encoding", "x-gzip, gzip, deflate"));
-    hostConf.getParams().setParameter("http.default-headers", headers);
+  public int getMaxFingerprintDistance() {
+    return maxFingerprintDistance;
+  }
+
+  /**
+   * @return whether unchanged pages are reported with status 304
+   */
+  public boolean isUnchangedNotModified() {
+    return unchangedNotModified;
+  }
+
+  /**
+   * @return the maximum number of connections of all fetcher threads
+   */
+  public int getMaxConnections() {
+    return maxThreadsTotal;
+  }
+
+  /**
+   * @return the maximum number of connections to one host
+   */
+  public int getMaxConnectionsPerHost() {
+    return Math.min(maxThreadsTotal, Math.max(1, maxConnectionsPerHost));
   }
 
 }
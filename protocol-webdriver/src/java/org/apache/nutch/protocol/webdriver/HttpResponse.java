@@ -19,21 +19,23 @@ package org.apache.nutch.protocol.webdriver;
 // JDK imports
 import java.io.IOException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
 
-// HTTP Client imports
 import org.apache.avro.util.Utf8;
-import org.apache.commons.httpclient.Header;
-import org.apache.commons.httpclient.HttpVersion;
-import org.apache.commons.httpclient.methods.GetMethod;
-import org.apache.commons.httpclient.params.HttpMethodParams;
 import org.apache.hadoop.conf.Configuration;
-import org.apache.commons.httpclient.HttpClient;
 
 // Nutch imports
 import org.apache.nutch.metadata.Metadata;
 import org.apache.nutch.metadata.SpellCheckedMetadata;
 import org.apache.nutch.net.protocols.HttpDateFormat;
 import org.apache.nutch.net.protocols.Response;
+import org.apache.nutch.protocol.webdriver.adapt.HostProfiles;
+import org.apache.nutch.protocol.webdriver.cache.RenderCache;
+import org.apache.nutch.protocol.webdriver.client.ClientResponse;
+import org.apache.nutch.protocol.webdriver.metrics.Phase;
+import org.apache.nutch.protocol.webdriver.metrics.RenderMetrics;
 import org.apache.nutch.storage.WebPage;
 
 /**
@@ -44,16 +46,54 @@ import org.apache.nutch.storage.WebPage;
  */
 public class HttpResponse implements Response {
 
+  /**
+   * Metadata key of the outlinks the browser found in the rendered page, one
+   * url per line. This and the following keys are only set when
+   * <code>webdriver.extract.enabled</code> is true and the page was rendered.
+   */
+  public static final String OUTLINKS_KEY = "_wd_outlinks_";
+  /** Metadata key of the url of the document after client side redirects. */
+  public static final String FINAL_URL_KEY = "_wd_final_url_";
+  /** Metadata key of the title of the rendered document. */
+  public static final String TITLE_KEY = "_wd_title_";
+  /** Metadata key of the content of the robots meta tag. */
+  public static final String ROBOTS_KEY = "_wd_robots_";
+  /** Metadata key of the canonical url declared by the page. */
+  public static final String CANONICAL_KEY = "_wd_canonical_";
+
+  /**
+   * Metadata key of the {@link RenderedPage#getFingerprint() fingerprint} of
+   * the last rendering of the page that was found changed.
+   */
+  public static final String FINGERPRINT_KEY = "_wd_simhash_";
+  /**
+   * Metadata key set on a page whose rendering is within
+   * <code>webdriver.fingerprint.max.distance</code> bits of the stored
+   * fingerprint, with that distance as its value, so that later stages can
+   * skip it.
+   */
+  public static final String UNCHANGED_KEY = "_wd_unchanged_";
+
+  private static final String[] ARTIFACT_KEYS = { OUTLINKS_KEY, FINAL_URL_KEY,
+      TITLE_KEY, ROBOTS_KEY, CANONICAL_KEY };
+
   private URL url;
   private byte[] content;
   private int code;
   private Metadata headers = new SpellCheckedMetadata();
   private Configuration conf;
+  // the rendering the content comes from, if any
+  private RenderedPage rendered;
 
   /**
    * Fetches the given <code>url</code> and prepares HTTP response. Fetch the
    * content using WebDriver to extract HTML from Ajax site, other responses are
-   * fetches using HTTPClient.
+   * fetches using the {@link Http#getClientBackend() HTTP client}, unless the
+   * {@link FetchMode} of the plugin takes them from the browser as well. Pages
+   * which the {@link org.apache.nutch.protocol.webdriver.route.RenderRouter}
+   * finds do not need the browser, among them redirects and errors, keep the
+   * status, body and headers returned by the HTTP client, so that Nutch
+   * handles redirects itself.
    * 
    * @param http
    *          An instance of the implementation class of this plugin
@@ -71,71 +111,254 @@ public class HttpResponse implements Response {
   HttpResponse(Http http, URL url, WebPage page, Configuration conf)
       throws IOException {
 
-    // Prepare GET method for HTTP request
     this.url = url;
     this.conf = conf;
-    GetMethod get = new GetMethod(url.toString());
-    get.setFollowRedirects(false);
-    get.setDoAuthentication(true);
-    if (page.getModifiedTime() > 0) {
-      get.setRequestHeader("If-Modified-Since",
-          HttpDateFormat.toString(page.getModifiedTime()));
-    }
-
-    // Set HTTP parameters
-    HttpMethodParams params = get.getParams();
-    if (http.getUseHttp11()) {
-      params.setVersion(HttpVersion.HTTP_1_1);
+
+    if (http.getFetchMode() == FetchMode.BROWSER) {
+      readRenderedPage(http, url, page);
     } else {
-      params.setVersion(HttpVersion.HTTP_1_0);
+      // Send a GET or HEAD request
+      ClientResponse response = execute(http,
+          http.getFetchMode() == FetchMode.HEAD ? "HEAD" : "GET", page);
+      byte[] body = response.getBody();
+      if (code == 304) {
+        // not modified, the browser would only render what we already have
+        readNotModified(url);
+      } else if (http.getRenderRouter().shouldRender(url, code,
+          getHeader(Response.CONTENT_TYPE), body)) {
+        readPlainContent(url, RenderCache.validator(getHeader("ETag"),
+            getHeader(Response.LAST_MODIFIED), body), body);
+      } else if (body != null) {
+        content = body;
+      } else if (code >= 200 && code < 300) {
+        // HEAD only told us that the browser is not needed, get the body
+        content = execute(http, "GET", page).getBody();
+      } else {
+        // a redirect or an error, the status and headers are all Nutch needs
+        content = new byte[0];
+      }
     }
-    params.makeLenient();
-    params.setContentCharset("UTF-8");
 
-    try {
-      HttpClient client = Http.getClient();
-      client.getParams().setParameter("http.useragent", http.getUserAgent()); // NUTCH-1941
-      code = client.executeMethod(get);
+    detectChange(http, page);
 
-      Header[] heads = get.getResponseHeaders();
+    StringBuilder fetchTrace = null;
+    if (Http.LOG.isTraceEnabled()) {
+      // Trace message
+      fetchTrace = new StringBuilder("url: " + url + "; status code: " + code
+          + "; bytes received: " + content.length);
+      if (getHeader(Response.CONTENT_LENGTH) != null)
+        fetchTrace.append("; Content-Length: "
+            + getHeader(Response.CONTENT_LENGTH));
+      if (getHeader(Response.LOCATION) != null)
+        fetchTrace.append("; Location: " + getHeader(Response.LOCATION));
+    }
+    // add headers in metadata to row
+    if (page.getHeaders() != null) {
+      page.getHeaders().clear();
+    }
+    for (String key : headers.names()) {
+      page.getHeaders().put(new Utf8(key), new Utf8(headers.get(key)));
+    }
+    attachArtifacts(page);
 
-      for (int i = 0; i < heads.length; i++) {
-        headers.set(heads[i].getName(), heads[i].getValue());
+    // Logger trace message
+    if (Http.LOG.isTraceEnabled()) {
+      Http.LOG.trace(fetchTrace.toString());
+    }
+  }
+
+  private ClientResponse execute(Http http, String method, WebPage page)
+      throws IOException {
+    long start = System.nanoTime();
+    ClientResponse response = http.getClientBackend().execute(method, url,
+        page.getModifiedTime());
+    RenderMetrics.get().recordSince(Phase.HTTP, start);
+    code = response.getCode();
+    headers = response.getHeaders();
+    return response;
+  }
+
+  /**
+   * Takes the status code and headers from the same browser navigation that
+   * yields the content, instead of asking the server a second time. Browsers
+   * that do not expose the status leave it unknown; it is then asked for with
+   * a HEAD request, or a GET if the server refuses HEAD, and a redirect or
+   * error keeps the headers of that response, so that Nutch never takes a
+   * failed page for a successful fetch.
+   */
+  private void readRenderedPage(Http http, URL url, WebPage page)
+      throws IOException {
+    rendered = HttpWebClient.render(url.toString(), conf);
+    code = rendered.getStatus();
+    if (code <= 0) {
+      execute(http, "HEAD", page);
+      if (code == 405 || code == 501) {
+        execute(http, "GET", page);
+      }
+      if ((code < 200 || code >= 300) && code != 304) {
+        content = new byte[0];
+        return;
       }
+    }
+    String contentType = rendered.getContentType();
+    if (contentType.length() > 0) {
+      if (rendered.getCharset().length() > 0) {
+        contentType += "; charset=" + rendered.getCharset();
+      }
+      headers.set(Response.CONTENT_TYPE, contentType);
+    }
+    if (!rendered.getFinalUrl().equals(url.toString())) {
+      // the browser followed a redirect, the content belongs to this url
+      headers.set(Response.CONTENT_LOCATION, rendered.getFinalUrl());
+    }
+    content = rendered.getContent();
+  }
 
-      readPlainContent(url);
-
-      StringBuilder fetchTrace = null;
-      if (Http.LOG.isTraceEnabled()) {
-        // Trace message
-        fetchTrace = new StringBuilder("url: " + url + "; status code: " + code
-            + "; bytes received: " + content.length);
-        if (getHeader(Response.CONTENT_LENGTH) != null)
-          fetchTrace.append("; Content-Length: "
-              + getHeader(Response.CONTENT_LENGTH));
-        if (getHeader(Response.LOCATION) != null)
-          fetchTrace.append("; Location: " + getHeader(Response.LOCATION));
+  /**
+   * Renders the page unless the cache holds a rendering of the same response.
+   * A fresh rendering is compared to the body returned by the server, so that
+   * the {@link HostProfiles} learn whether the host needs the browser.
+   * 
+   * @param validator
+   *          validator of the response, or null if it has none
+   * @param body
+   *          the body returned by the server, or null if it was not downloaded
+   */
+  private void readPlainContent(URL url, String validator, byte[] body)
+      throws IOException {
+    RenderCache cache = HttpWebClient.getCache(conf);
+    if (cache != null && validator != null) {
+      rendered = cache.get(url.toString(), validator);
+    }
+    if (rendered == null) {
+      rendered = HttpWebClient.render(url.toString(), conf);
+      HostProfiles profiles = HostProfiles.get(conf);
+      // the status of the exchange, if the browser does not expose its own
+      int status = rendered.getStatus() > 0 ? rendered.getStatus() : code;
+      if (profiles != null && status == 200) {
+        profiles.recordComparison(url.getHost(), body, rendered.getContent());
       }
-      // add headers in metadata to row
-      if (page.getHeaders() != null) {
-        page.getHeaders().clear();
+      if (cache != null && validator != null && status == 200) {
+        cache.put(url.toString(), validator, rendered);
+      }
+    }
+    String contentType = getHeader(Response.CONTENT_TYPE);
+    if (contentType != null) {
+      // the content is no longer in the encoding the server declared
+      int semicolon = contentType.indexOf(';');
+      if (semicolon >= 0) {
+        contentType = contentType.substring(0, semicolon).trim();
       }
-      for (String key : headers.names()) {
-        page.getHeaders().put(new Utf8(key), new Utf8(headers.get(key)));
+      headers.set(Response.CONTENT_TYPE, contentType + "; charset="
+          + rendered.getCharset());
+    }
+    content = rendered.getContent();
+  }
+
+  /**
+   * Hands back the cached rendering of a page the server reports as not
+   * modified, if there is one.
+   */
+  private void readNotModified(URL url) {
+    RenderCache cache = HttpWebClient.getCache(conf);
+    rendered = cache == null ? null : cache.get(url.toString(), null);
+    if (rendered != null) {
+      if (rendered.getContentType().length() > 0) {
+        headers.set(Response.CONTENT_TYPE, rendered.getContentType()
+            + "; charset=" + rendered.getCharset());
       }
+      content = rendered.getContent();
+    } else {
+      content = new byte[0];
+    }
+  }
+
+  /**
+   * Replaces the artifacts a previous fetch left in the metadata of the page
+   * with those extracted from the rendering, so that the parser can use them
+   * instead of looking for links in the content again. Pages that were not
+   * rendered are left without.
+   */
+  private void attachArtifacts(WebPage page) {
+    Map<CharSequence, ByteBuffer> metadata = page.getMetadata();
+    if (metadata == null || (code == 304 && rendered == null)) {
+      // nothing new to replace the artifacts of the unmodified page with
+      return;
+    }
+    for (String key : ARTIFACT_KEYS) {
+      metadata.remove(new Utf8(key));
+    }
+    PageArtifacts artifacts = rendered == null ? null : rendered
+        .getArtifacts();
+    if (artifacts == null) {
+      return;
+    }
+    StringBuilder outlinks = new StringBuilder();
+    for (String outlink : artifacts.getOutlinks()) {
+      outlinks.append(outlink).append('\n');
+    }
+    putMetadata(metadata, OUTLINKS_KEY, outlinks.toString());
+    putMetadata(metadata, FINAL_URL_KEY, rendered.getFinalUrl());
+    putMetadata(metadata, TITLE_KEY, artifacts.getTitle());
+    putMetadata(metadata, ROBOTS_KEY, artifacts.getMetaRobots());
+    putMetadata(metadata, CANONICAL_KEY, artifacts.getCanonical());
+  }
 
-      // Logger trace message
-      if (Http.LOG.isTraceEnabled()) {
-        Http.LOG.trace(fetchTrace.toString());
+  /**
+   * Compares the fingerprint of the rendering with the one stored for the
+   * page. A page that has hardly changed is marked with {@link #UNCHANGED_KEY}
+   * and, unless <code>webdriver.fingerprint.not.modified</code> is false,
+   * reported with status 304 so that Nutch records it as not modified; its
+   * content is still the fresh rendering. The stored fingerprint is then kept
+   * rather than replaced, so that small changes cannot add up unnoticed over
+   * several fetches.
+   */
+  private void detectChange(Http http, WebPage page) {
+    Map<CharSequence, ByteBuffer> metadata = page.getMetadata();
+    if (metadata == null || code == 304) {
+      // the server already found the page unmodified
+      return;
+    }
+    metadata.remove(new Utf8(UNCHANGED_KEY));
+    String fingerprint = rendered == null ? null : rendered.getFingerprint();
+    if (fingerprint == null || code != 200) {
+      // the content no longer matches the stored fingerprint
+      metadata.remove(new Utf8(FINGERPRINT_KEY));
+      return;
+    }
+    ByteBuffer stored = metadata.get(new Utf8(FINGERPRINT_KEY));
+    int distance = stored == null ? -1 : distance(fingerprint,
+        StandardCharsets.UTF_8.decode(stored.duplicate()).toString());
+    if (distance >= 0 && distance <= http.getMaxFingerprintDistance()) {
+      putMetadata(metadata, UNCHANGED_KEY, String.valueOf(distance));
+      RenderMetrics.get().recordUnchanged();
+      if (http.isUnchangedNotModified()) {
+        code = 304;
       }
-    } finally {
-      get.releaseConnection();
+    } else {
+      putMetadata(metadata, FINGERPRINT_KEY, fingerprint);
+    }
+  }
+
+  /**
+   * @return the number of bits in which the fingerprints differ, or -1 if
+   *         one of them is malformed
+   */
+  static int distance(String fingerprint, String other) {
+    try {
+      return Long.bitCount(Long.parseUnsignedLong(fingerprint, 16)
+          ^ Long.parseUnsignedLong(other, 16));
+    } catch (NumberFormatException e) {
+      return -1;
     }
   }
 
-  private void readPlainContent(URL url) throws IOException {
-    String page = HttpWebClient.getHtmlPage(url.toString(), conf);
-    content = page.getBytes("UTF-8");
+  private static void putMetadata(Map<CharSequence, ByteBuffer> metadata,
+      String key, String value) {
+    if (value.length() > 0) {
+      metadata.put(new Utf8(key),
+          ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8)));
+    }
   }
 
   /*
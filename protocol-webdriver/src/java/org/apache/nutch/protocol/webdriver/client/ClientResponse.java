@@ -0,0 +1,50 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.client;
+
+import org.apache.nutch.metadata.Metadata;
+
+/**
+ * The status code, headers and body a {@link HttpClientBackend} received.
+ */
+public class ClientResponse {
+
+  private final int code;
+  private final Metadata headers;
+  private final byte[] body;
+
+  public ClientResponse(int code, Metadata headers, byte[] body) {
+    this.code = code;
+    this.headers = headers;
+    this.body = body;
+  }
+
+  public int getCode() {
+    return code;
+  }
+
+  public Metadata getHeaders() {
+    return headers;
+  }
+
+  /**
+   * @return the decoded body, or null for a <code>HEAD</code> request
+   */
+  public byte[] getBody() {
+    return body;
+  }
+}
@@ -0,0 +1,163 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.client;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethodBase;
+import org.apache.commons.httpclient.HttpVersion;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.HeadMethod;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.params.HttpMethodParams;
+import org.apache.commons.httpclient.protocol.Protocol;
+import org.apache.commons.httpclient.protocol.ProtocolSocketFactory;
+import org.apache.commons.httpclient.protocol.SSLProtocolSocketFactory;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.metadata.SpellCheckedMetadata;
+import org.apache.nutch.net.protocols.HttpDateFormat;
+import org.apache.nutch.protocol.webdriver.Http;
+
+/**
+ * Sends requests with Commons HttpClient 3 over HTTP/1.x, through a
+ * connection manager shared by the whole JVM.
+ */
+public class CommonsHttpBackend implements HttpClientBackend {
+
+  private static MultiThreadedHttpConnectionManager connectionManager = new MultiThreadedHttpConnectionManager();
+
+  // Since the Configuration has not yet been set,
+  // then an unconfigured client is returned.
+  private static HttpClient client = new HttpClient(connectionManager);
+
+  private static boolean httpsRegistered;
+
+  private final boolean useHttp11;
+  private final String userAgent;
+  private final int maxContent;
+
+  public CommonsHttpBackend(Http http) {
+    this.useHttp11 = http.getUseHttp11();
+    this.userAgent = http.getUserAgent();
+    this.maxContent = http.getMaxContent();
+    configureClient(http);
+  }
+
+  @Override
+  public ClientResponse execute(String method, URL url, long modifiedSince)
+      throws IOException {
+    HttpMethodBase request = "HEAD".equals(method) ? new HeadMethod(
+        url.toString()) : new GetMethod(url.toString());
+    try {
+      request.setFollowRedirects(false);
+      request.setDoAuthentication(true);
+      if (modifiedSince > 0) {
+        request.setRequestHeader("If-Modified-Since",
+            HttpDateFormat.toString(modifiedSince));
+      }
+
+      // Set HTTP parameters
+      HttpMethodParams params = request.getParams();
+      if (useHttp11) {
+        params.setVersion(HttpVersion.HTTP_1_1);
+      } else {
+        params.setVersion(HttpVersion.HTTP_1_0);
+      }
+      params.makeLenient();
+      params.setContentCharset("UTF-8");
+
+      HttpClient client = getClient();
+      client.getParams().setParameter("http.useragent", userAgent); // NUTCH-1941
+      int code = client.executeMethod(request);
+
+      Metadata headers = new SpellCheckedMetadata();
+      Header[] heads = request.getResponseHeaders();
+      for (int i = 0; i < heads.length; i++) {
+        headers.set(heads[i].getName(), heads[i].getValue());
+      }
+      byte[] body = null;
+      if (request instanceof GetMethod) {
+        body = ResponseBodies.read(request.getResponseBodyAsStream(), headers,
+            maxContent);
+      }
+      return new ClientResponse(code, headers, body);
+    } finally {
+      request.releaseConnection();
+    }
+  }
+
+  static synchronized HttpClient getClient() {
+    return client;
+  }
+
+  /**
+   * Registers the HTTPS socket factory. The registry is global to the JVM,
+   * so this is only done once.
+   */
+  private static synchronized void registerHttps() {
+    if (httpsRegistered) {
+      return;
+    }
+    ProtocolSocketFactory factory = new SSLProtocolSocketFactory();
+    Protocol https = new Protocol("https", factory, 443);
+    Protocol.registerProtocol("https", https);
+    httpsRegistered = true;
+  }
+
+  /**
+   * Configures the HTTP client
+   */
+  private static void configureClient(Http http) {
+    registerHttps();
+
+    int timeout = http.getTimeout();
+    int maxThreadsTotal = http.getMaxConnections();
+    HttpConnectionManagerParams params = connectionManager.getParams();
+    params.setConnectionTimeout(timeout);
+    params.setSoTimeout(timeout);
+    params.setSendBufferSize(Http.BUFFER_SIZE);
+    params.setReceiveBufferSize(Http.BUFFER_SIZE);
+    params.setMaxTotalConnections(maxThreadsTotal);
+
+    // Limit the connections to one host, so that a single host can not take
+    // all of them
+    params.setDefaultMaxConnectionsPerHost(http.getMaxConnectionsPerHost());
+
+    // executeMethod(HttpMethod) seems to ignore the connection timeout on
+    // the connection manager.
+    // set it explicitly on the HttpClient.
+    client.getParams().setConnectionManagerTimeout(timeout);
+
+    HostConfiguration hostConf = client.getHostConfiguration();
+    if (http.useProxy()) {
+      hostConf.setProxy(http.getProxyHost(), http.getProxyPort());
+    }
+    ArrayList<Header> headers = new ArrayList<Header>();
+    headers.add(new Header("Accept-Language", ACCEPT_LANGUAGE));
+    headers.add(new Header("Accept-Charset", ACCEPT_CHARSET));
+    headers.add(new Header("Accept", ACCEPT));
+    // accept compressed content, which ResponseBodies decodes
+    headers.add(new Header("Accept-Encoding", ResponseBodies.ACCEPT_ENCODING));
+    hostConf.getParams().setParameter("http.default-headers", headers);
+  }
+}
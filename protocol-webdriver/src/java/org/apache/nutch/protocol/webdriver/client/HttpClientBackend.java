@@ -0,0 +1,48 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.client;
+
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * Sends the plain HTTP requests of a fetch, those that do not go through the
+ * browser. Implementations are shared by all fetcher threads.
+ */
+public interface HttpClientBackend {
+
+  // prefer English
+  String ACCEPT_LANGUAGE = "en-us,en-gb,en;q=0.7,*;q=0.3";
+  // prefer UTF-8
+  String ACCEPT_CHARSET = "utf-8,ISO-8859-1;q=0.7,*;q=0.7";
+  // prefer understandable formats
+  String ACCEPT = "text/html,application/xml;q=0.9,application/xhtml+xml,"
+      + "text/xml;q=0.9,text/plain;q=0.8,image/png,*/*;q=0.5";
+
+  /**
+   * Sends a request without following redirects. The body is decoded if the
+   * server compressed it and cut to <code>http.content.limit</code> bytes.
+   *
+   * @param method
+   *          <code>GET</code> or <code>HEAD</code>
+   * @param modifiedSince
+   *          time of the copy we have, sent as <code>If-Modified-Since</code>,
+   *          or 0 if there is none
+   */
+  ClientResponse execute(String method, URL url, long modifiedSince)
+      throws IOException;
+}
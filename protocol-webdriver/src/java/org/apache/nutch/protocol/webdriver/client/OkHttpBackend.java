@@ -0,0 +1,214 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.Headers;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.metadata.SpellCheckedMetadata;
+import org.apache.nutch.net.protocols.HttpDateFormat;
+import org.apache.nutch.protocol.webdriver.Http;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends requests with OkHttp. HTTPS connections negotiate HTTP/2 with the
+ * server, so that concurrent requests to one host share a single connection;
+ * HTTP/1.1 connections are kept alive and reused. Connections and the
+ * dispatcher that limits the requests in flight per host are shared by the
+ * whole JVM. Requests are sent asynchronously and fetcher threads only wait for
+ * the response.
+ *
+ * The client is configured with the following properties, besides the usual
+ * <code>http.*</code> ones:
+ * <ul>
+ * <li><code>webdriver.http.h2</code> whether HTTP/2 is offered to servers
+ * (default true)</li>
+ * <li><code>webdriver.http.keep.alive</code> seconds an idle connection is
+ * kept open (default 300)</li>
+ * <li><code>webdriver.http.max.idle.connections</code> idle connections kept
+ * open (defaults to <code>fetcher.threads.fetch</code>)</li>
+ * </ul>
+ */
+public class OkHttpBackend implements HttpClientBackend {
+
+  public static final Logger LOG = LoggerFactory.getLogger(OkHttpBackend.class);
+
+  private static OkHttpClient shared;
+
+  private final OkHttpClient client;
+  private final String userAgent;
+  private final int maxContent;
+
+  public OkHttpBackend(Http http, Configuration conf) {
+    this.userAgent = http.getUserAgent();
+    this.maxContent = http.getMaxContent();
+
+    List<okhttp3.Protocol> protocols = new ArrayList<okhttp3.Protocol>();
+    if (http.getUseHttp11() && conf.getBoolean("webdriver.http.h2", true)) {
+      protocols.add(okhttp3.Protocol.HTTP_2);
+    }
+    // OkHttp speaks no HTTP/1.0, http.useHttp11 only turns HTTP/2 off
+    protocols.add(okhttp3.Protocol.HTTP_1_1);
+
+    OkHttpClient base = getShared(conf);
+    Dispatcher dispatcher = base.dispatcher();
+    dispatcher.setMaxRequests(http.getMaxConnections());
+    dispatcher.setMaxRequestsPerHost(http.getMaxConnectionsPerHost());
+
+    int timeout = http.getTimeout();
+    OkHttpClient.Builder builder = base.newBuilder()
+        .protocols(protocols)
+        .connectTimeout(timeout, TimeUnit.MILLISECONDS)
+        .readTimeout(timeout, TimeUnit.MILLISECONDS)
+        .writeTimeout(timeout, TimeUnit.MILLISECONDS)
+        .followRedirects(false)
+        .followSslRedirects(false);
+    if (http.useProxy()) {
+      builder.proxy(new Proxy(Proxy.Type.HTTP, new InetSocketAddress(
+          http.getProxyHost(), http.getProxyPort())));
+    }
+    client = builder.build();
+  }
+
+  /**
+   * @return the client holding the connections and dispatcher of the JVM,
+   *         created from the configuration of its first user
+   */
+  private static synchronized OkHttpClient getShared(Configuration conf) {
+    if (shared == null) {
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(0,
+          Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+          new SynchronousQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+              Thread t = new Thread(r, "webdriver-http-dispatcher");
+              t.setDaemon(true);
+              return t;
+            }
+          });
+      int maxIdle = conf.getInt("webdriver.http.max.idle.connections",
+          conf.getInt("fetcher.threads.fetch", 10));
+      long keepAlive = conf.getLong("webdriver.http.keep.alive", 300);
+      shared = new OkHttpClient.Builder()
+          .dispatcher(new Dispatcher(executor))
+          .connectionPool(new ConnectionPool(maxIdle, keepAlive,
+              TimeUnit.SECONDS))
+          .build();
+    }
+    return shared;
+  }
+
+  @Override
+  public ClientResponse execute(String method, URL url, long modifiedSince)
+      throws IOException {
+    Request.Builder request = new Request.Builder().url(url)
+        .method(method, null)
+        .header("Accept-Language", ACCEPT_LANGUAGE)
+        .header("Accept-Charset", ACCEPT_CHARSET)
+        .header("Accept", ACCEPT)
+        // set explicitly, OkHttp would only ask for gzip on its own
+        .header("Accept-Encoding", ResponseBodies.ACCEPT_ENCODING);
+    if (userAgent != null) {
+      request.header("User-Agent", userAgent);
+    }
+    if (modifiedSince > 0) {
+      request.header("If-Modified-Since",
+          HttpDateFormat.toString(modifiedSince));
+    }
+
+    Response response = send(client.newCall(request.build()));
+    try {
+      Metadata headers = new SpellCheckedMetadata();
+      Headers heads = response.headers();
+      for (int i = 0; i < heads.size(); i++) {
+        headers.set(heads.name(i), heads.value(i));
+      }
+      if (LOG.isTraceEnabled()) {
+        LOG.trace("{} {} over {}", method, url, response.protocol());
+      }
+      byte[] body = null;
+      ResponseBody responseBody = response.body();
+      if (!"HEAD".equals(method) && responseBody != null) {
+        body = ResponseBodies.read(responseBody.byteStream(), headers,
+            maxContent);
+      }
+      return new ClientResponse(response.code(), headers, body);
+    } finally {
+      // on HTTP/2 this cancels the rest of a body cut to the content limit
+      response.close();
+    }
+  }
+
+  /**
+   * Queues the call on the dispatcher, which holds it back while the host has
+   * as many requests in flight as allowed, and waits for the response.
+   */
+  private static Response send(Call call) throws IOException {
+    final CompletableFuture<Response> future = new CompletableFuture<Response>();
+    call.enqueue(new Callback() {
+      @Override
+      public void onResponse(Call c, Response response) {
+        if (!future.complete(response)) {
+          response.close();
+        }
+      }
+
+      @Override
+      public void onFailure(Call c, IOException e) {
+        future.completeExceptionally(e);
+      }
+    });
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      future.cancel(false);
+      call.cancel();
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for "
+          + call.request().url());
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+}
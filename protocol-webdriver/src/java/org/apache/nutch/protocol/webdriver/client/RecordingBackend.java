@@ -0,0 +1,61 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.client;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.protocol.webdriver.trace.TraceWriter;
+
+/**
+ * Sends requests with another backend and records those of sampled urls,
+ * with their responses, to a {@link TraceWriter}.
+ */
+public class RecordingBackend implements HttpClientBackend {
+
+  private final HttpClientBackend backend;
+  private final TraceWriter writer;
+
+  public RecordingBackend(HttpClientBackend backend, TraceWriter writer) {
+    this.backend = backend;
+    this.writer = writer;
+  }
+
+  @Override
+  public ClientResponse execute(String method, URL url, long modifiedSince)
+      throws IOException {
+    String target = url.toString();
+    if (!writer.isSampled(target)) {
+      return backend.execute(method, url, modifiedSince);
+    }
+    long start = System.nanoTime();
+    ClientResponse response = backend.execute(method, url, modifiedSince);
+    Map<String, String[]> headers = new LinkedHashMap<String, String[]>();
+    Metadata metadata = response.getHeaders();
+    for (String name : metadata.names()) {
+      headers.put(name, metadata.getValues(name));
+    }
+    writer.writeHttp(method, target, response.getCode(), headers,
+        response.getBody(),
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    return response;
+  }
+}
@@ -0,0 +1,62 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.Map;
+
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.metadata.SpellCheckedMetadata;
+import org.apache.nutch.protocol.webdriver.trace.Trace;
+
+/**
+ * Answers requests from a {@link Trace} instead of the network, after the
+ * time they took when recorded. A request which is not in the trace fails.
+ */
+public class ReplayBackend implements HttpClientBackend {
+
+  private final Trace trace;
+
+  public ReplayBackend(Trace trace) {
+    this.trace = trace;
+  }
+
+  @Override
+  public ClientResponse execute(String method, URL url, long modifiedSince)
+      throws IOException {
+    Trace.HttpRecord record = trace.getRequest(method, url.toString());
+    if (record == null) {
+      throw new IOException("No " + method + " " + url + " in the trace");
+    }
+    try {
+      trace.pause(record.getDelay());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted replaying " + url);
+    }
+    Metadata headers = new SpellCheckedMetadata();
+    for (Map.Entry<String, String[]> header : record.getHeaders()
+        .entrySet()) {
+      for (String value : header.getValue()) {
+        headers.add(header.getKey(), value);
+      }
+    }
+    return new ClientResponse(record.getCode(), headers, record.getBody());
+  }
+}
@@ -0,0 +1,99 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.net.protocols.Response;
+import org.apache.nutch.protocol.http.api.HttpBase;
+import org.brotli.dec.BrotliInputStream;
+
+/**
+ * Reads response bodies the same way for every {@link HttpClientBackend}:
+ * decompressed according to their <code>Content-Encoding</code> and cut to the
+ * content limit.
+ */
+public class ResponseBodies {
+
+  /** The encodings {@link #decode} understands, preferred first. */
+  public static final String ACCEPT_ENCODING = "br, gzip, deflate";
+
+  private ResponseBodies() {
+  }
+
+  /**
+   * Reads a body and removes the headers that describe its encoded form, since
+   * the content handed to Nutch is the decoded one.
+   *
+   * @param limit
+   *          maximum number of decoded bytes, or a negative value for no limit
+   */
+  public static byte[] read(InputStream in, Metadata headers, int limit)
+      throws IOException {
+    if (in == null) {
+      return new byte[0];
+    }
+    String encoding = headers.get(Response.CONTENT_ENCODING);
+    InputStream decoded = decode(in, encoding);
+    if (decoded != in) {
+      headers.remove(Response.CONTENT_ENCODING);
+      headers.remove(Response.CONTENT_LENGTH);
+    }
+    try {
+      return readLimited(decoded, limit);
+    } finally {
+      decoded.close();
+    }
+  }
+
+  private static InputStream decode(InputStream in, String encoding)
+      throws IOException {
+    if (encoding == null) {
+      return in;
+    }
+    String name = encoding.trim().toLowerCase(Locale.ROOT);
+    if ("gzip".equals(name) || "x-gzip".equals(name)) {
+      return new GZIPInputStream(in, HttpBase.BUFFER_SIZE);
+    } else if ("deflate".equals(name)) {
+      return new InflaterInputStream(in);
+    } else if ("br".equals(name)) {
+      return new BrotliInputStream(in);
+    }
+    return in;
+  }
+
+  private static byte[] readLimited(InputStream in, int limit)
+      throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[HttpBase.BUFFER_SIZE];
+    int n;
+    while ((n = in.read(buffer)) != -1) {
+      if (limit >= 0 && out.size() + n >= limit) {
+        out.write(buffer, 0, limit - out.size());
+        break;
+      }
+      out.write(buffer, 0, n);
+    }
+    return out.toByteArray();
+  }
+}
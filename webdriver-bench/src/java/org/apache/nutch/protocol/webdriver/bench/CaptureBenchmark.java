@@ -0,0 +1,91 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.nutch.protocol.webdriver.ContentEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openqa.selenium.remote.JsonToBeanConverter;
+
+import com.google.gson.Gson;
+
+/**
+ * The client side of content capture: decoding the response of the capture
+ * script and converting the document to the bytes handed to Nutch, with the
+ * {@link ContentEncoder} and, for reference, with {@link String#getBytes}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CaptureBenchmark {
+
+  /** Items on the page, about 60 bytes each. */
+  @Param({ "100", "1000", "10000" })
+  public int items;
+
+  @Param({ "false", "true" })
+  public boolean wide;
+
+  /** The content limit, -1 for none. */
+  @Param({ "65536", "-1" })
+  public int limit;
+
+  private String document;
+  private String response;
+
+  @Setup
+  public void setUp() {
+    document = new SyntheticPages(items, wide).rendered(1);
+    response = new Gson().toJson(new Object[] { "http://127.0.0.1/page/1",
+        "http://127.0.0.1/page/1", 200, "text/html", document });
+    response = "{\"sessionId\":\"1\",\"status\":0,\"value\":" + response + "}";
+  }
+
+  @Benchmark
+  public Object decodeResponse() {
+    return new JsonToBeanConverter().convert(Map.class, response);
+  }
+
+  @Benchmark
+  public byte[] contentEncoder() {
+    return ContentEncoder.get().encode(document, limit);
+  }
+
+  @Benchmark
+  public byte[] getBytes() {
+    byte[] bytes = document.getBytes(StandardCharsets.UTF_8);
+    return limit >= 0 && bytes.length > limit ? Arrays.copyOf(bytes, limit)
+        : bytes;
+  }
+}
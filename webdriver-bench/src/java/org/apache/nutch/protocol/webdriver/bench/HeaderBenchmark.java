@@ -0,0 +1,101 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.bench;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avro.util.Utf8;
+import org.apache.commons.httpclient.Header;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.metadata.SpellCheckedMetadata;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Copying response headers the way <code>HttpResponse</code> does: from the
+ * HttpClient response into {@link Metadata}, and from there into the headers
+ * of the <code>WebPage</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeaderBenchmark {
+
+  private Header[] headers;
+  private Metadata metadata;
+
+  @Setup
+  public void setUp() {
+    headers = new Header[] {
+        new Header("Date", "Mon, 02 Jan 2017 00:00:00 GMT"),
+        new Header("Server", "Apache/2.4.18 (Ubuntu)"),
+        new Header("Content-Type", "text/html; charset=utf-8"),
+        new Header("Content-Length", "48213"),
+        new Header("Connection", "keep-alive"),
+        new Header("Cache-Control", "max-age=3600"),
+        new Header("Expires", "Mon, 02 Jan 2017 01:00:00 GMT"),
+        new Header("Last-Modified", "Sun, 01 Jan 2017 00:00:00 GMT"),
+        new Header("ETag", "\"4f2a-5452a4e1c9b40\""),
+        new Header("Vary", "Accept-Encoding"),
+        new Header("X-Frame-Options", "SAMEORIGIN"),
+        new Header("Set-Cookie", "session=abc123; Path=/; HttpOnly"),
+        new Header("Strict-Transport-Security", "max-age=31536000"),
+        new Header("X-Content-Type-Options", "nosniff") };
+    metadata = spellCheckedMetadata();
+  }
+
+  @Benchmark
+  public Metadata spellCheckedMetadata() {
+    Metadata copy = new SpellCheckedMetadata();
+    for (int i = 0; i < headers.length; i++) {
+      copy.set(headers[i].getName(), headers[i].getValue());
+    }
+    return copy;
+  }
+
+  @Benchmark
+  public Metadata plainMetadata() {
+    Metadata copy = new Metadata();
+    for (int i = 0; i < headers.length; i++) {
+      copy.set(headers[i].getName(), headers[i].getValue());
+    }
+    return copy;
+  }
+
+  @Benchmark
+  public Map<CharSequence, CharSequence> pageHeaders() {
+    Map<CharSequence, CharSequence> copy =
+        new HashMap<CharSequence, CharSequence>();
+    for (String key : metadata.names()) {
+      copy.put(new Utf8(key), new Utf8(metadata.get(key)));
+    }
+    return copy;
+  }
+}
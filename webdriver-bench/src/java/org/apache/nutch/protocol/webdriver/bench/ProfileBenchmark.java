@@ -0,0 +1,93 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.protocol.webdriver.block.BlockingPolicy;
+import org.apache.nutch.protocol.webdriver.driver.NutchFirefoxDriver;
+import org.apache.nutch.protocol.webdriver.driver.ProfileTemplates;
+import org.apache.nutch.protocol.webdriver.pool.DriverFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openqa.selenium.firefox.FirefoxOptions;
+import org.openqa.selenium.firefox.FirefoxProfile;
+import org.openqa.selenium.remote.DesiredCapabilities;
+
+/**
+ * The cost of the capabilities of a new session: building and serializing a
+ * Firefox profile, as was done for each session, against copying the
+ * capabilities of a prepared {@link ProfileTemplates} entry.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProfileBenchmark {
+
+  private Configuration conf;
+  private BlockingPolicy blockingPolicy;
+  private ProfileTemplates templates;
+
+  @Setup
+  public void setUp() {
+    conf = new Configuration();
+    conf.set("http.proxy.host", "proxy.example.com");
+    conf.set("webdriver.user.agent", "Nutch-bench/1.0");
+    conf.setBoolean("webdriver.block.images", true);
+    conf.setBoolean("webdriver.block.fonts", true);
+    blockingPolicy = new BlockingPolicy(conf);
+    templates = new ProfileTemplates(conf, blockingPolicy);
+    templates.get(DriverFactory.DEFAULT_PROFILE);
+  }
+
+  @TearDown
+  public void tearDown() {
+    blockingPolicy.close();
+  }
+
+  @Benchmark
+  public String buildProfile() throws IOException {
+    DesiredCapabilities caps = new ProfileTemplates(conf, blockingPolicy)
+        .get(DriverFactory.DEFAULT_PROFILE);
+    return ((FirefoxProfile) caps.getCapability(NutchFirefoxDriver.PROFILE))
+        .toJson();
+  }
+
+  @Benchmark
+  public String sharedTemplate() throws IOException {
+    DesiredCapabilities caps = new DesiredCapabilities(
+        templates.get(DriverFactory.DEFAULT_PROFILE));
+    caps.setCapability(FirefoxOptions.FIREFOX_OPTIONS,
+        new FirefoxOptions().addArguments("-headless"));
+    return ((FirefoxProfile) caps.getCapability(NutchFirefoxDriver.PROFILE))
+        .toJson();
+  }
+}
@@ -0,0 +1,240 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.bench;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.protocol.webdriver.HttpWebClient;
+import org.apache.nutch.protocol.webdriver.RenderedPage;
+import org.apache.nutch.protocol.webdriver.metrics.LatencyHistogram;
+import org.apache.nutch.protocol.webdriver.metrics.Phase;
+import org.apache.nutch.protocol.webdriver.metrics.RenderMetrics;
+import org.apache.nutch.protocol.webdriver.trace.Trace;
+import org.apache.nutch.util.NutchConfiguration;
+
+/**
+ * Renders the pages of a local {@link SyntheticSite} through
+ * {@link HttpWebClient}, as the fetcher does, and reports throughput and
+ * latency. By default the browser is a {@link ReplayDriverServer}, which
+ * makes runs reproducible on any machine without a network or Firefox; with
+ * <code>-browser</code> the configured endpoints are used instead. With
+ * <code>-trace</code> the urls of a {@link Trace} recorded by a fetcher are
+ * rendered instead, in turn, and answered from the trace.
+ *
+ * <pre>
+ * RenderLoad -recording synthetic.jsonl [-urls 1000] [-warmup 50]
+ *     [-concurrency 16] [-sessions 8] [-latency 20] [-render 200]
+ *     [-items 100] [-wide] [-browser] [-D name=value]...
+ * RenderLoad -trace webdriver-trace [-urls 1000] [-warmup 50]
+ *     [-concurrency 16] [-sessions 8] [-D name=value]...
+ * </pre>
+ */
+public class RenderLoad {
+
+  public static void main(String[] args) throws Exception {
+    File recordingFile = null;
+    String tracePath = null;
+    int urls = 1000;
+    int warmup = 50;
+    int concurrency = 16;
+    int sessions = 8;
+    long latency = 20;
+    long render = 200;
+    int items = 100;
+    boolean wide = false;
+    boolean browser = false;
+    Configuration conf = NutchConfiguration.create();
+    for (int i = 0; i < args.length; i++) {
+      if ("-recording".equals(args[i])) {
+        recordingFile = new File(args[++i]);
+      } else if ("-trace".equals(args[i])) {
+        tracePath = args[++i];
+      } else if ("-urls".equals(args[i])) {
+        urls = Integer.parseInt(args[++i]);
+      } else if ("-warmup".equals(args[i])) {
+        warmup = Integer.parseInt(args[++i]);
+      } else if ("-concurrency".equals(args[i])) {
+        concurrency = Integer.parseInt(args[++i]);
+      } else if ("-sessions".equals(args[i])) {
+        sessions = Integer.parseInt(args[++i]);
+      } else if ("-latency".equals(args[i])) {
+        latency = Long.parseLong(args[++i]);
+      } else if ("-render".equals(args[i])) {
+        render = Long.parseLong(args[++i]);
+      } else if ("-items".equals(args[i])) {
+        items = Integer.parseInt(args[++i]);
+      } else if ("-wide".equals(args[i])) {
+        wide = true;
+      } else if ("-browser".equals(args[i])) {
+        browser = true;
+      } else if ("-D".equals(args[i])) {
+        String property = args[++i];
+        int eq = property.indexOf('=');
+        conf.set(property.substring(0, eq), property.substring(eq + 1));
+      } else {
+        System.err.println("Unknown option " + args[i]);
+        System.exit(1);
+      }
+    }
+
+    if (tracePath != null) {
+      conf.set("webdriver.trace.mode", "replay");
+      conf.set("webdriver.trace.path", tracePath);
+      conf.setIfUnset("webdriver.pool.max.size", String.valueOf(sessions));
+      List<String> recorded = new ArrayList<String>(Trace.get(conf)
+          .getUrls());
+      Collections.sort(recorded);
+      List<String> workload = new ArrayList<String>();
+      for (int i = 0; i < warmup + urls; i++) {
+        workload.add(recorded.get(i % recorded.size()));
+      }
+      measure(workload, warmup, concurrency, conf);
+      System.exit(0);
+    }
+
+    final SyntheticPages pages = new SyntheticPages(items, wide);
+    SyntheticSite site = new SyntheticSite(0, latency, pages);
+    site.start();
+    ReplayDriverServer replay = null;
+    try {
+      if (!browser) {
+        if (recordingFile == null) {
+          System.err.println(
+              "A recording or a trace is needed unless -browser is given");
+          System.exit(1);
+        }
+        replay = new ReplayDriverServer(0, "/replay",
+            WireRecording.load(recordingFile), new Function<String, String>() {
+              @Override
+              public String apply(String url) {
+                return pages.rendered(pageId(url));
+              }
+            }, render);
+        replay.start();
+        conf.set("webdriver.service.endpoints", replay.getEndpoint() + "#"
+            + sessions);
+        conf.setIfUnset("webdriver.pool.max.size", String.valueOf(sessions));
+      }
+      // every page is on the same host, which must not be what limits the run
+      conf.setIfUnset("webdriver.host.max.renders",
+          String.valueOf(concurrency));
+
+      String base = site.getBaseUrl() + "/page/";
+      List<String> workload = new ArrayList<String>();
+      for (int i = 0; i < warmup + urls; i++) {
+        workload.add(base + i);
+      }
+      measure(workload, warmup, concurrency, conf);
+      if (replay != null) {
+        System.out.println(replay.getCommandCount() + " driver commands, "
+            + replay.getUnmatchedCount() + " without a recorded response");
+      }
+    } catch (Exception e) {
+      if (replay != null) {
+        replay.stop();
+      }
+      site.stop();
+      throw e;
+    }
+    // the shutdown hook of HttpWebClient closes the sessions, while the
+    // servers are still up
+    System.exit(0);
+  }
+
+  /**
+   * Renders the first urls to warm up, then the others, and prints what the
+   * latter took.
+   */
+  private static void measure(List<String> workload, int warmup,
+      int concurrency, Configuration conf) throws InterruptedException {
+    System.out.println("Warming up with " + warmup + " urls");
+    run(workload.subList(0, warmup), concurrency, conf,
+        new LatencyHistogram());
+
+    int urls = workload.size() - warmup;
+    LatencyHistogram histogram = new LatencyHistogram();
+    long start = System.nanoTime();
+    long[] totals = run(workload.subList(warmup, workload.size()),
+        concurrency, conf, histogram);
+    double seconds = (System.nanoTime() - start) / 1e9;
+
+    System.out.println(String.format(
+        "%d urls in %.1f s: %.1f pages/s, %d failed, %d bytes", urls,
+        seconds, urls / seconds, totals[1], totals[0]));
+    System.out.println(String.format(
+        "latency ms: mean=%.0f p50=%d p90=%d p99=%d max=%d",
+        histogram.getMean(), histogram.getQuantile(0.5),
+        histogram.getQuantile(0.9), histogram.getQuantile(0.99),
+        histogram.getMax()));
+    RenderMetrics metrics = RenderMetrics.get();
+    for (Phase phase : Phase.values()) {
+      LatencyHistogram h = metrics.getHistogram(phase);
+      if (h.getCount() > 0) {
+        System.out.println(String.format("  %-9s %s", phase.getName(), h));
+      }
+    }
+  }
+
+  /**
+   * @return the bytes captured and the number of failed urls
+   */
+  private static long[] run(List<String> urls, int concurrency,
+      Configuration conf, final LatencyHistogram histogram)
+      throws InterruptedException {
+    final Semaphore inFlight = new Semaphore(concurrency);
+    final AtomicLong bytes = new AtomicLong();
+    final AtomicLong failed = new AtomicLong();
+    for (String url : urls) {
+      inFlight.acquire();
+      final long submitted = System.nanoTime();
+      CompletableFuture<RenderedPage> future = HttpWebClient.submit(url, conf);
+      future.whenComplete(new BiConsumer<RenderedPage, Throwable>() {
+        @Override
+        public void accept(RenderedPage page, Throwable error) {
+          histogram.record((System.nanoTime() - submitted) / 1000000);
+          if (error != null) {
+            failed.incrementAndGet();
+          } else {
+            bytes.addAndGet(page.getContent().length);
+          }
+          inFlight.release();
+        }
+      });
+    }
+    inFlight.acquire(concurrency);
+    return new long[] { bytes.get(), failed.get() };
+  }
+
+  private static int pageId(String url) {
+    try {
+      String path = new URL(url).getPath();
+      return Integer.parseInt(path.substring(path.lastIndexOf('/') + 1));
+    } catch (Exception e) {
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,229 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A stand-in WebDriver endpoint answering with the responses of a
+ * {@link WireRecording}, so that the whole render path, from the session pool
+ * to content capture, runs without a browser. Sessions are independent and
+ * any number of them may be open at once. The server listens under a path,
+ * such as <code>http://127.0.0.1:4444/replay</code>, which makes Nutch treat
+ * it as a remote endpoint rather than a GeckoDriver to launch.
+ */
+public class ReplayDriverServer {
+
+  public static final Logger LOG = LoggerFactory
+      .getLogger(ReplayDriverServer.class);
+
+  private static final Gson GSON = new GsonBuilder().disableHtmlEscaping()
+      .create();
+
+  private final WireRecording recording;
+  private final Function<String, String> documents;
+  private final long navigationLatency;
+  private final String root;
+  private final HttpServer server;
+  private final ExecutorService executor;
+
+  private final AtomicInteger sessionIds = new AtomicInteger();
+  private final ConcurrentMap<String, String> urls =
+      new ConcurrentHashMap<String, String>();
+  private final AtomicLong commands = new AtomicLong();
+  private final AtomicLong unmatched = new AtomicLong();
+
+  /**
+   * @param port
+   *          port to listen on, or 0 for any free port
+   * @param root
+   *          path the driver is reached under, such as <code>/replay</code>
+   * @param documents
+   *          gives the document of a url, which replaces
+   *          <code>$DOCUMENT</code> in responses
+   * @param navigationLatency
+   *          milliseconds added to the recorded delay of navigations
+   */
+  public ReplayDriverServer(int port, String root, WireRecording recording,
+      Function<String, String> documents, long navigationLatency)
+      throws IOException {
+    this.recording = recording;
+    this.documents = documents;
+    this.navigationLatency = navigationLatency;
+    this.root = root;
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 128);
+    executor = Executors.newCachedThreadPool(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "replay-driver");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    server.setExecutor(executor);
+    server.createContext(root, new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        serve(exchange);
+      }
+    });
+  }
+
+  public void start() {
+    server.start();
+  }
+
+  public void stop() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  /**
+   * @return the endpoint to configure in
+   *         <code>webdriver.service.endpoints</code>
+   */
+  public String getEndpoint() {
+    return "http://127.0.0.1:" + server.getAddress().getPort() + root;
+  }
+
+  public long getCommandCount() {
+    return commands.get();
+  }
+
+  /**
+   * @return the number of requests the recording had no response for
+   */
+  public long getUnmatchedCount() {
+    return unmatched.get();
+  }
+
+  private void serve(HttpExchange http) throws IOException {
+    try {
+      commands.incrementAndGet();
+      String method = http.getRequestMethod();
+      String path = http.getRequestURI().getPath().substring(root.length());
+      String body = read(http.getRequestBody());
+
+      String session;
+      if ("POST".equals(method) && "/session".equals(path)) {
+        session = "replay-" + sessionIds.incrementAndGet();
+        urls.put(session, "about:blank");
+      } else if (path.startsWith("/session/")) {
+        int end = path.indexOf('/', "/session/".length());
+        session = path.substring("/session/".length(), end < 0 ? path.length()
+            : end);
+      } else {
+        session = null;
+      }
+
+      String command = WireRecording.command(path);
+      WireRecording.Exchange exchange = recording.find(method, command, body);
+      if (exchange == null) {
+        unmatched.incrementAndGet();
+        LOG.warn("No recorded response for {} {}", method, command);
+        send(http, 500, "{\"sessionId\":" + GSON.toJson(session)
+            + ",\"status\":13,\"value\":{\"message\":"
+            + GSON.toJson("No recorded response for " + method + " "
+                + command) + "}}");
+        return;
+      }
+
+      long delay = exchange.getDelay();
+      if (exchange.isNavigation() && session != null) {
+        String url = WireRecording.navigationUrl(body);
+        if (url != null) {
+          urls.put(session, url);
+        }
+        delay += navigationLatency;
+      }
+      if (delay > 0) {
+        Thread.sleep(delay);
+      }
+      if ("DELETE".equals(method) && session != null
+          && command.equals("/session/:sessionId")) {
+        urls.remove(session);
+      }
+      send(http, exchange.getStatus(), fill(exchange.getBody(), session));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (RuntimeException e) {
+      LOG.warn("Replay failed", e);
+      send(http, 500, "{\"status\":13,\"value\":{\"message\":"
+          + GSON.toJson(String.valueOf(e)) + "}}");
+    } finally {
+      http.close();
+    }
+  }
+
+  private String fill(String body, String session) {
+    String url = session != null ? urls.get(session) : null;
+    if (url == null) {
+      url = "about:blank";
+    }
+    String filled = body.replace(GSON.toJson(WireRecording.SESSION),
+        GSON.toJson(session));
+    filled = filled.replace(GSON.toJson(WireRecording.URL), GSON.toJson(url));
+    if (filled.contains(GSON.toJson(WireRecording.DOCUMENT))) {
+      filled = filled.replace(GSON.toJson(WireRecording.DOCUMENT),
+          GSON.toJson(documents.apply(url)));
+    }
+    return filled;
+  }
+
+  private static String read(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int n;
+    while ((n = in.read(buffer)) > 0) {
+      out.write(buffer, 0, n);
+    }
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private static void send(HttpExchange http, int status, String body)
+      throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    http.getResponseHeaders().set("Content-Type",
+        "application/json; charset=utf-8");
+    http.sendResponseHeaders(status, bytes.length);
+    OutputStream out = http.getResponseBody();
+    out.write(bytes);
+    out.close();
+  }
+}
@@ -0,0 +1,132 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.bench;
+
+import java.util.Random;
+
+/**
+ * Generates the pages of the synthetic site, deterministically from a page id
+ * so that every run of a benchmark sees the same documents. A page comes in
+ * three forms: the shell the server sends, whose script fetches the items and
+ * adds them to the document, the JSON data of the items, and the document as
+ * a browser serializes it once the script has run.
+ */
+public class SyntheticPages {
+
+  private static final String[] WORDS = { "render", "crawl", "index", "fetch",
+      "parse", "browser", "session", "queue", "host", "page", "script", "link",
+      "anchor", "content", "market", "weather", "archive", "review" };
+  // a few CJK words, to exercise multi-byte encoding
+  private static final String[] WIDE_WORDS = { "\u691c\u7d22",
+      "\u30da\u30fc\u30b8", "\u5929\u6c17", "\u30cb\u30e5\u30fc\u30b9" };
+
+  private final int items;
+  private final boolean wide;
+
+  /**
+   * @param items
+   *          number of items on each page
+   * @param wide
+   *          whether item texts mix in non-ASCII words
+   */
+  public SyntheticPages(int items, boolean wide) {
+    this.items = items;
+    this.wide = wide;
+  }
+
+  /**
+   * @return the page as served, before its script has run
+   */
+  public String shell(int id) {
+    StringBuilder sb = new StringBuilder(2048);
+    sb.append("<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\">");
+    sb.append("<title>Page ").append(id).append("</title>");
+    sb.append("<script>\n")
+        .append("document.addEventListener('DOMContentLoaded', function() {\n")
+        .append("  var xhr = new XMLHttpRequest();\n")
+        .append("  xhr.open('GET', '/data/").append(id).append("');\n")
+        .append("  xhr.onload = function() {\n")
+        .append("    var list = document.getElementById('items');\n")
+        .append("    JSON.parse(xhr.responseText).forEach(function(item) {\n")
+        .append("      var li = document.createElement('li');\n")
+        .append("      var a = document.createElement('a');\n")
+        .append("      a.href = item.href;\n")
+        .append("      a.textContent = item.text;\n")
+        .append("      li.appendChild(a);\n")
+        .append("      list.appendChild(li);\n")
+        .append("    });\n")
+        .append("  };\n")
+        .append("  xhr.send();\n")
+        .append("});\n")
+        .append("</script></head>");
+    sb.append("<body><h1>Page ").append(id)
+        .append("</h1><ul id=\"items\"></ul></body></html>");
+    return sb.toString();
+  }
+
+  /**
+   * @return the items the script of the page fetches
+   */
+  public String data(int id) {
+    StringBuilder sb = new StringBuilder(items * 64);
+    sb.append('[');
+    Random random = new Random(id);
+    for (int i = 0; i < items; i++) {
+      sb.append(i > 0 ? "," : "").append("{\"href\":\"/page/")
+          .append(link(random)).append("\",\"text\":\"")
+          .append(text(random)).append("\"}");
+    }
+    return sb.append(']').toString();
+  }
+
+  /**
+   * @return the page as a browser serializes it once its script has run
+   */
+  public String rendered(int id) {
+    StringBuilder sb = new StringBuilder(items * 64 + 2048);
+    String shell = shell(id);
+    sb.append(shell, 0, shell.indexOf("<ul id=\"items\">"));
+    sb.append("<ul id=\"items\">");
+    Random random = new Random(id);
+    for (int i = 0; i < items; i++) {
+      sb.append("<li><a href=\"/page/").append(link(random)).append("\">")
+          .append(text(random)).append("</a></li>");
+    }
+    sb.append("</ul></body></html>");
+    return sb.toString();
+  }
+
+  private static int link(Random random) {
+    return random.nextInt(1000000);
+  }
+
+  private String text(Random random) {
+    StringBuilder sb = new StringBuilder();
+    int count = 3 + random.nextInt(6);
+    for (int i = 0; i < count; i++) {
+      if (i > 0) {
+        sb.append(' ');
+      }
+      if (wide && random.nextInt(3) == 0) {
+        sb.append(WIDE_WORDS[random.nextInt(WIDE_WORDS.length)]);
+      } else {
+        sb.append(WORDS[random.nextInt(WORDS.length)]);
+      }
+    }
+    return sb.toString();
+  }
+}
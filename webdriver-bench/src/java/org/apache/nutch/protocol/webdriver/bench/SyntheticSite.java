@@ -0,0 +1,148 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local web site of {@link SyntheticPages}, so that fetches and renders can
+ * be measured without a network. It serves
+ * <ul>
+ * <li><code>/page/&lt;id&gt;</code> the page shell, whose script loads the
+ * items</li>
+ * <li><code>/data/&lt;id&gt;</code> the items of a page as JSON</li>
+ * <li><code>/static/&lt;id&gt;</code> the page with its items already in
+ * place, for fetches that need no rendering</li>
+ * </ul>
+ * Every response is delayed by a fixed latency, to stand in for the time a
+ * real server takes to answer.
+ */
+public class SyntheticSite {
+
+  private final SyntheticPages pages;
+  private final long latency;
+  private final HttpServer server;
+  private final ExecutorService executor;
+
+  /**
+   * @param port
+   *          port to listen on, or 0 for any free port
+   * @param latency
+   *          milliseconds each response is delayed by
+   */
+  public SyntheticSite(int port, long latency, SyntheticPages pages)
+      throws IOException {
+    this.pages = pages;
+    this.latency = latency;
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 128);
+    executor = Executors.newCachedThreadPool(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "synthetic-site");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    server.setExecutor(executor);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        serve(exchange);
+      }
+    });
+  }
+
+  public void start() {
+    server.start();
+  }
+
+  public void stop() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  /**
+   * @return the url of the root of the site, without a trailing slash
+   */
+  public String getBaseUrl() {
+    return "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  private void serve(HttpExchange exchange) throws IOException {
+    try {
+      if (latency > 0) {
+        Thread.sleep(latency);
+      }
+      String path = exchange.getRequestURI().getPath();
+      int slash = path.indexOf('/', 1);
+      int id = -1;
+      if (slash > 0) {
+        try {
+          id = Integer.parseInt(path.substring(slash + 1));
+        } catch (NumberFormatException e) {
+          // not a page of the site
+        }
+      }
+      String section = slash > 0 ? path.substring(0, slash) : path;
+      if (id < 0) {
+        send(exchange, 404, "text/plain", "Not found", id);
+      } else if ("/page".equals(section)) {
+        send(exchange, 200, "text/html; charset=utf-8", pages.shell(id), id);
+      } else if ("/data".equals(section)) {
+        send(exchange, 200, "application/json", pages.data(id), id);
+      } else if ("/static".equals(section)) {
+        send(exchange, 200, "text/html; charset=utf-8", pages.rendered(id), id);
+      } else {
+        send(exchange, 404, "text/plain", "Not found", id);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private static void send(HttpExchange exchange, int status,
+      String contentType, String body, int id) throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", contentType);
+    if (status == 200) {
+      // pages never change, so their validators only depend on the id
+      exchange.getResponseHeaders().set("ETag", "\"" + id + "\"");
+      exchange.getResponseHeaders().set("Last-Modified",
+          "Mon, 02 Jan 2017 00:00:00 GMT");
+      exchange.getResponseHeaders().set("Cache-Control", "max-age=3600");
+    }
+    boolean head = "HEAD".equals(exchange.getRequestMethod());
+    exchange.sendResponseHeaders(status, head ? -1 : bytes.length);
+    if (!head) {
+      OutputStream out = exchange.getResponseBody();
+      out.write(bytes);
+      out.close();
+    }
+  }
+}
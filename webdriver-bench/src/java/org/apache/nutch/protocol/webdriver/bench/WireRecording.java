@@ -0,0 +1,205 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.webdriver.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * WebDriver wire protocol responses recorded from a browser, replayed by a
+ * {@link ReplayDriverServer}. A recording has one JSON object per line
+ * describing a request and the response it gets:
+ *
+ * <pre>
+ * {"method": "POST", "command": "/session/:sessionId/execute",
+ *  "match": "documentURI", "status": 200, "delay": 5,
+ *  "body": {"sessionId": "$SESSION", "status": 0, "value": ...}}
+ * </pre>
+ *
+ * <code>command</code> is the request path relative to the driver root, with
+ * the session id replaced by <code>:sessionId</code>. The optional
+ * <code>match</code> regular expression must be found in the request body, so
+ * that scripts sent to the same command can get different responses; the
+ * first exchange that matches a request answers it. <code>delay</code> is the
+ * number of milliseconds the browser took to answer. An exchange marked with
+ * <code>"navigate": true</code> is a navigation, whose url is the
+ * <code>url</code> member of the request or, for a script, its first
+ * argument. In the response body the strings <code>$SESSION</code>,
+ * <code>$URL</code> and <code>$DOCUMENT</code> stand for the id of the
+ * session, the url it last navigated to and the document of that url. Blank
+ * lines and lines starting with <code>#</code> are ignored.
+ */
+public class WireRecording {
+
+  public static final String SESSION = "$SESSION";
+  public static final String URL = "$URL";
+  public static final String DOCUMENT = "$DOCUMENT";
+
+  /**
+   * A recorded request and its response.
+   */
+  public static class Exchange {
+    private final String method;
+    private final String command;
+    private final Pattern match;
+    private final boolean navigate;
+    private final long delay;
+    private final int status;
+    private final String body;
+
+    public Exchange(String method, String command, String match,
+        boolean navigate, long delay, int status, String body) {
+      this.method = method;
+      this.command = command;
+      this.match = match != null ? Pattern.compile(match) : null;
+      this.navigate = navigate;
+      this.delay = delay;
+      this.status = status;
+      this.body = body;
+    }
+
+    public String getMethod() {
+      return method;
+    }
+
+    public String getCommand() {
+      return command;
+    }
+
+    public boolean isNavigation() {
+      return navigate;
+    }
+
+    public long getDelay() {
+      return delay;
+    }
+
+    public int getStatus() {
+      return status;
+    }
+
+    /**
+     * @return the response body, with its placeholders
+     */
+    public String getBody() {
+      return body;
+    }
+
+    boolean matches(String requestMethod, String requestCommand,
+        String requestBody) {
+      return method.equals(requestMethod) && command.equals(requestCommand)
+          && (match == null || match.matcher(requestBody).find());
+    }
+  }
+
+  private final List<Exchange> exchanges;
+
+  public WireRecording(List<Exchange> exchanges) {
+    this.exchanges = new ArrayList<Exchange>(exchanges);
+  }
+
+  public static WireRecording load(File file) throws IOException {
+    List<Exchange> exchanges = new ArrayList<Exchange>();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(
+        new FileInputStream(file), StandardCharsets.UTF_8));
+    try {
+      JsonParser parser = new JsonParser();
+      String line;
+      int number = 0;
+      while ((line = reader.readLine()) != null) {
+        number++;
+        line = line.trim();
+        if (line.length() == 0 || line.startsWith("#")) {
+          continue;
+        }
+        try {
+          JsonObject json = parser.parse(line).getAsJsonObject();
+          exchanges.add(new Exchange(json.get("method").getAsString(),
+              json.get("command").getAsString(),
+              json.has("match") ? json.get("match").getAsString() : null,
+              json.has("navigate") && json.get("navigate").getAsBoolean(),
+              json.has("delay") ? json.get("delay").getAsLong() : 0,
+              json.has("status") ? json.get("status").getAsInt() : 200,
+              json.get("body").toString()));
+        } catch (RuntimeException e) {
+          throw new IOException("Invalid exchange at " + file + ":" + number,
+              e);
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return new WireRecording(exchanges);
+  }
+
+  public List<Exchange> getExchanges() {
+    return Collections.unmodifiableList(exchanges);
+  }
+
+  /**
+   * @return the first exchange that answers the request, or null
+   */
+  public Exchange find(String method, String command, String body) {
+    for (Exchange exchange : exchanges) {
+      if (exchange.matches(method, command, body)) {
+        return exchange;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return the command of a request path, with the session id replaced
+   */
+  public static String command(String path) {
+    return path.replaceFirst("^/session/[^/]+", "/session/:sessionId");
+  }
+
+  /**
+   * @return the url a navigation request goes to, or null if it has none
+   */
+  static String navigationUrl(String body) {
+    if (body.length() == 0) {
+      return null;
+    }
+    JsonElement json = new JsonParser().parse(body);
+    if (!json.isJsonObject()) {
+      return null;
+    }
+    JsonObject request = json.getAsJsonObject();
+    if (request.has("url")) {
+      return request.get("url").getAsString();
+    }
+    if (request.has("args") && request.get("args").isJsonArray()
+        && request.getAsJsonArray("args").size() > 0) {
+      return request.getAsJsonArray("args").get(0).getAsString();
+    }
+    return null;
+  }
+}